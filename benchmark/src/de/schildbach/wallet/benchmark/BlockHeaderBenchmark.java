@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.params.MainNetParams;
+
+import de.schildbach.wallet.service.BlockIndex;
+
+/**
+ * Reading a stored header and asking for its hash: deserializing it the way the SPV block store does, which runs the
+ * proof of work hash again, versus reading it from the block index, which keeps the hash next to the header.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockHeaderBenchmark
+{
+	private static final int BLOCKS = 1024;
+
+	private final NetworkParameters params = MainNetParams.get();
+	private final ByteBuffer[] compact = new ByteBuffer[BLOCKS];
+	private File indexFile;
+	private BlockIndex index;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		indexFile = File.createTempFile("blockindex", null);
+		indexFile.delete();
+		index = new BlockIndex(params, indexFile);
+
+		for (int height = 0; height < BLOCKS; height++)
+		{
+			final Block header = params.getGenesisBlock().cloneAsHeader();
+			header.setNonce(height);
+			final StoredBlock block = new StoredBlock(header, BigInteger.valueOf(height + 1), height);
+
+			compact[height] = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+			block.serializeCompact(compact[height]);
+			index.notifyNewBestBlock(block);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		index.close();
+		BlockIndex.delete(indexFile);
+	}
+
+	@Benchmark
+	public Sha256Hash deserializeCompact() throws ProtocolException
+	{
+		final ByteBuffer buffer = compact[next()].duplicate();
+		buffer.rewind();
+		return StoredBlock.deserializeCompact(params, buffer).getHeader().getHash();
+	}
+
+	@Benchmark
+	public Sha256Hash blockIndex()
+	{
+		return index.get(next()).getHeader().getHash();
+	}
+
+	private int next()
+	{
+		next = (next + 1) % BLOCKS;
+		return next;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.schildbach.wallet.util.Crypto;
+
+/**
+ * Key backup encryption, dominated by password key derivation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBenchmark
+{
+	// a handful of keys, a large wallet backup
+	@Param({ "512", "65536" })
+	public int size;
+
+	private final char[] password = "benchmark".toCharArray();
+	private String plainText;
+	private String cipherText;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		final StringBuilder builder = new StringBuilder(size);
+		while (builder.length() < size)
+			builder.append((char) ('a' + builder.length() % 26));
+		plainText = builder.toString();
+		cipherText = Crypto.encrypt(plainText, password);
+	}
+
+	@Benchmark
+	public String encrypt() throws IOException
+	{
+		return Crypto.encrypt(plainText, password);
+	}
+
+	@Benchmark
+	public String decrypt() throws IOException
+	{
+		return Crypto.decrypt(cipherText, password);
+	}
+}
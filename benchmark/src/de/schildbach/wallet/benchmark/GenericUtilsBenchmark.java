@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.schildbach.wallet.util.GenericUtils;
+
+/**
+ * Amount formatting runs for every visible transaction row, every keystroke in the amount views and every widget refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenericUtilsBenchmark
+{
+	// valid precision/shift combinations, see GenericUtils.formatValue()
+	@Param({ "5/0", "2/3", "0/6" })
+	public String precisionShift;
+
+	private int precision;
+	private int shift;
+
+	private final BigInteger[] values = new BigInteger[] { new BigInteger("100000"), new BigInteger("-12345678"),
+			new BigInteger("1122334455667788"), BigInteger.ONE };
+	private final String[] strings = new String[] { "1", "0.5", "1234.56789", "0.00001" };
+
+	@Setup
+	public void setup()
+	{
+		final String[] parts = precisionShift.split("/");
+		precision = Integer.parseInt(parts[0]);
+		shift = Integer.parseInt(parts[1]);
+	}
+
+	@Benchmark
+	public int formatValue()
+	{
+		int length = 0;
+		for (final BigInteger value : values)
+			length += GenericUtils.formatValue(value, precision, shift).length();
+		return length;
+	}
+
+	@Benchmark
+	public int formatValue_BTC()
+	{
+		int length = 0;
+		for (final BigInteger value : values)
+			length += GenericUtils.formatValue_BTC(value, 4, 0).length();
+		return length;
+	}
+
+	@Benchmark
+	public long toNanoCoins()
+	{
+		long sum = 0;
+		for (final String string : strings)
+			sum += GenericUtils.toNanoCoins(string, 0).longValue();
+		return sum;
+	}
+}
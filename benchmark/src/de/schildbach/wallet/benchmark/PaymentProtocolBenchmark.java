@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.protocols.payments.PaymentRequestException;
+
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.PaymentIntent;
+import de.schildbach.wallet.util.PaymentProtocol;
+
+/**
+ * Parsing of unsigned BIP70 payment requests, as received via NFC, Bluetooth or QR code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentProtocolBenchmark
+{
+	private byte[] serializedPaymentRequest;
+
+	@Setup
+	public void setup()
+	{
+		serializedPaymentRequest = PaymentProtocol.createPaymentRequest(BigInteger.valueOf(123450000),
+				new ECKey().toAddress(Constants.NETWORK_PARAMETERS), "benchmark memo", null).toByteArray();
+	}
+
+	@Benchmark
+	public PaymentIntent parsePaymentRequest() throws PaymentRequestException
+	{
+		return PaymentProtocol.parsePaymentRequest(serializedPaymentRequest);
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.bitcoin.core.Block;
+import com.hashengineering.crypto.Hash9;
+
+import de.schildbach.wallet.util.QuarkDigest;
+
+/**
+ * Quark hash of one block header, pure Java versus the native library. The native benchmark only runs where libhash9
+ * can be loaded, so pass its directory in java.library.path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuarkDigestBenchmark
+{
+	private final byte[] header = new byte[Block.HEADER_SIZE];
+	private final QuarkDigest digest = new QuarkDigest();
+	private final byte[] out = new byte[32];
+
+	@Setup
+	public void setup()
+	{
+		new Random(0).nextBytes(header);
+	}
+
+	@Benchmark
+	public byte[] java()
+	{
+		digest.digest(header, 0, header.length, out, 0);
+		return out;
+	}
+
+	@Benchmark
+	public byte[] nativeLibrary()
+	{
+		return Hash9.digest(header, 0, header.length);
+	}
+}
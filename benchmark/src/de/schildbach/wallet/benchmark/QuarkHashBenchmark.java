@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.bitcoin.core.Block;
+
+import de.schildbach.wallet.util.QuarkHash;
+
+/**
+ * Proof of work hashing of a batch of headers, as in a headers message, one header at a time versus in one call.
+ * Throughput is in headers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuarkHashBenchmark
+{
+	// maximum number of headers in a headers message
+	private static final int HEADERS = 2000;
+
+	private final byte[] headers = new byte[HEADERS * Block.HEADER_SIZE];
+	private final ByteBuffer digests = ByteBuffer.allocateDirect(HEADERS * QuarkHash.DIGEST_LENGTH);
+
+	@Setup
+	public void setup()
+	{
+		new Random(0).nextBytes(headers);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(HEADERS)
+	public void perHeader(final Blackhole blackhole)
+	{
+		for (int i = 0; i < HEADERS; i++)
+			blackhole.consume(QuarkHash.hash(headers, i * Block.HEADER_SIZE));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(HEADERS)
+	public ByteBuffer batched()
+	{
+		digests.clear();
+		QuarkHash.digest(headers, 0, HEADERS, digests);
+		return digests;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.bitcoin.core.ECKey;
+
+import de.schildbach.wallet.util.WalletUtils;
+
+/**
+ * Private key backup format, as written by automatic backups and read on restore.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletUtilsBenchmark
+{
+	@Param({ "1", "100" })
+	public int numKeys;
+
+	private List<ECKey> keys;
+	private String serialized;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		keys = new ArrayList<ECKey>(numKeys);
+		for (int i = 0; i < numKeys; i++)
+		{
+			final ECKey key = new ECKey();
+			key.setCreationTimeSeconds(1388534400 + i * 3600);
+			keys.add(key);
+		}
+
+		final StringWriter writer = new StringWriter();
+		WalletUtils.writeKeys(writer, keys);
+		serialized = writer.toString();
+	}
+
+	@Benchmark
+	public String writeKeys() throws IOException
+	{
+		final StringWriter writer = new StringWriter();
+		WalletUtils.writeKeys(writer, keys);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public List<ECKey> readKeys() throws IOException
+	{
+		return WalletUtils.readKeys(new BufferedReader(new StringReader(serialized)));
+	}
+}
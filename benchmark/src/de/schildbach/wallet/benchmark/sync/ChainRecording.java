@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark.sync;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.BitcoinSerializer;
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.FilteredBlock;
+import com.google.bitcoin.core.HeadersMessage;
+import com.google.bitcoin.core.Message;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+
+/**
+ * A stretch of the best chain as one peer served it to one wallet: headers for the blocks before the wallet's fast
+ * catch-up time, filtered blocks with their matching transactions after it.
+ *
+ * The file starts with a magic number, a version and the compact serialization of the block the stretch builds on,
+ * followed by the protocol messages in the order they were received, framed as on the wire. Only messages that extend
+ * the recorded chain are kept, so the file can be replayed as is.
+ */
+public final class ChainRecording
+{
+	public static final class Entry
+	{
+		public final Block header;
+		@CheckForNull
+		public final FilteredBlock filteredBlock;
+		public final List<Transaction> transactions = new ArrayList<Transaction>();
+
+		private Entry(@Nonnull final Block header, @CheckForNull final FilteredBlock filteredBlock)
+		{
+			this.header = header;
+			this.filteredBlock = filteredBlock;
+		}
+	}
+
+	private static final int FILE_MAGIC = 0x51524543; // "QREC"
+	private static final int FILE_VERSION = 1;
+	private static final int PREFIX_SIZE = 4 + 4 + StoredBlock.COMPACT_SERIALIZED_SIZE;
+
+	private final StoredBlock start;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final Map<Sha256Hash, Integer> indexes = new HashMap<Sha256Hash, Integer>();
+
+	public static ChainRecording read(@Nonnull final NetworkParameters params, @Nonnull final File file) throws IOException
+	{
+		final FileInputStream is = new FileInputStream(file);
+		try
+		{
+			final FileChannel channel = is.getChannel();
+			final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining())
+				if (channel.read(buffer) < 0)
+					throw new IOException("unexpected end of " + file);
+			buffer.flip();
+
+			if (buffer.getInt() != FILE_MAGIC)
+				throw new IOException("not a chain recording: " + file);
+			if (buffer.getInt() != FILE_VERSION)
+				throw new IOException("unsupported chain recording version: " + file);
+
+			final ChainRecording recording = new ChainRecording(StoredBlock.deserializeCompact(params, buffer));
+
+			final BitcoinSerializer serializer = new BitcoinSerializer(params);
+			while (buffer.hasRemaining())
+				recording.add(serializer.deserialize(buffer));
+
+			return recording;
+		}
+		catch (final ProtocolException x)
+		{
+			throw new IOException("corrupt chain recording: " + file, x);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private ChainRecording(@Nonnull final StoredBlock start)
+	{
+		this.start = start;
+		this.indexes.put(start.getHeader().getHash(), -1);
+	}
+
+	/**
+	 * @return the block the recorded stretch builds on, which the replaying chain has to start from
+	 */
+	public StoredBlock getStart()
+	{
+		return start;
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	public Entry get(final int index)
+	{
+		return entries.get(index);
+	}
+
+	/**
+	 * @return height of the newest recorded block
+	 */
+	public int getBestHeight()
+	{
+		return start.getHeight() + entries.size();
+	}
+
+	/**
+	 * @return index of the block with the given hash, -1 for the start block, or -2 if it is not part of the recording
+	 */
+	public int indexOf(@Nonnull final Sha256Hash hash)
+	{
+		final Integer index = indexes.get(hash);
+		return index != null ? index : -2;
+	}
+
+	private void add(@Nonnull final Message message)
+	{
+		if (message instanceof HeadersMessage)
+		{
+			for (final Block header : ((HeadersMessage) message).getBlockHeaders())
+				if (connects(header))
+					append(new Entry(header, null));
+		}
+		else if (message instanceof FilteredBlock)
+		{
+			final FilteredBlock filteredBlock = (FilteredBlock) message;
+			if (connects(filteredBlock.getBlockHeader()))
+				append(new Entry(filteredBlock.getBlockHeader(), filteredBlock));
+		}
+		else if (message instanceof Transaction && !entries.isEmpty())
+		{
+			final Entry last = entries.get(entries.size() - 1);
+			if (last.filteredBlock != null && last.filteredBlock.getTransactionHashes().contains(((Transaction) message).getHash()))
+				last.transactions.add((Transaction) message);
+		}
+	}
+
+	private boolean connects(@Nonnull final Block header)
+	{
+		final Sha256Hash top = entries.isEmpty() ? start.getHeader().getHash() : entries.get(entries.size() - 1).header.getHash();
+		return header.getPrevBlockHash().equals(top);
+	}
+
+	private void append(@Nonnull final Entry entry)
+	{
+		indexes.put(entry.header.getHash(), entries.size());
+		entries.add(entry);
+	}
+
+	/**
+	 * Appends protocol messages to a new recording, keeping only those that extend it.
+	 */
+	public static final class Writer
+	{
+		private final NetworkParameters params;
+		private final OutputStream os;
+		private final BitcoinSerializer serializer;
+		private Sha256Hash top;
+		private final Set<Sha256Hash> pendingTransactions = new HashSet<Sha256Hash>();
+		private int blocks = 0;
+
+		public Writer(@Nonnull final NetworkParameters params, @Nonnull final File file, @Nonnull final StoredBlock start) throws IOException
+		{
+			this.params = params;
+			this.os = new BufferedOutputStream(new FileOutputStream(file));
+			this.serializer = new BitcoinSerializer(params);
+			this.top = start.getHeader().getHash();
+
+			final ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE);
+			prefix.putInt(FILE_MAGIC);
+			prefix.putInt(FILE_VERSION);
+			start.serializeCompact(prefix);
+			os.write(prefix.array());
+		}
+
+		public synchronized void write(@Nonnull final Message message) throws IOException
+		{
+			if (message instanceof HeadersMessage)
+			{
+				final List<Block> headers = new ArrayList<Block>();
+				for (final Block header : ((HeadersMessage) message).getBlockHeaders())
+				{
+					if (header.getPrevBlockHash().equals(top))
+					{
+						headers.add(header);
+						top = header.getHash();
+					}
+				}
+
+				if (!headers.isEmpty())
+				{
+					serializer.serialize(new HeadersMessage(params, headers.toArray(new Block[0])), os);
+					blocks += headers.size();
+				}
+			}
+			else if (message instanceof FilteredBlock)
+			{
+				final FilteredBlock filteredBlock = (FilteredBlock) message;
+				if (filteredBlock.getBlockHeader().getPrevBlockHash().equals(top))
+				{
+					serializer.serialize(filteredBlock, os);
+					top = filteredBlock.getHash();
+					blocks++;
+
+					pendingTransactions.clear();
+					pendingTransactions.addAll(filteredBlock.getTransactionHashes());
+				}
+			}
+			else if (message instanceof Transaction)
+			{
+				if (pendingTransactions.remove(((Transaction) message).getHash()))
+					serializer.serialize(message, os);
+			}
+		}
+
+		/**
+		 * @return number of blocks recorded so far
+		 */
+		public synchronized int getBlocks()
+		{
+			return blocks;
+		}
+
+		public synchronized void close() throws IOException
+		{
+			os.close();
+		}
+	}
+}
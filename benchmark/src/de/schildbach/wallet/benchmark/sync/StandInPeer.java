@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.BitcoinSerializer;
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.GetBlocksMessage;
+import com.google.bitcoin.core.GetDataMessage;
+import com.google.bitcoin.core.GetHeadersMessage;
+import com.google.bitcoin.core.HeadersMessage;
+import com.google.bitcoin.core.InventoryItem;
+import com.google.bitcoin.core.InventoryMessage;
+import com.google.bitcoin.core.Message;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Ping;
+import com.google.bitcoin.core.Pong;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.VersionAck;
+import com.google.bitcoin.core.VersionMessage;
+
+/**
+ * Serves a {@link ChainRecording} over loopback, speaking just enough of the protocol for a catch-up: the version
+ * handshake, ping, getheaders, getblocks and getdata for filtered blocks. Everything else is ignored.
+ *
+ * Each answer is delayed by a fixed latency, and everything sent is throttled to a fixed bandwidth, so that slow links
+ * can be replayed as well. Connections are served independently, one thread each.
+ */
+public final class StandInPeer
+{
+	private final NetworkParameters params;
+	private final ChainRecording recording;
+	private final long latencyMs;
+	private final long bytesPerSecond;
+	private final ServerSocket serverSocket;
+	private final List<Socket> sockets = new ArrayList<Socket>();
+
+	private static final int MAX_HEADERS = 2000;
+	private static final int MAX_INV = 500;
+	private static final int MESSAGE_HEADER_SIZE = 4 + 12 + 4 + 4;
+
+	private static final Logger log = LoggerFactory.getLogger(StandInPeer.class);
+
+	/**
+	 * @param latencyMs
+	 *            delay before each answer, 0 for none
+	 * @param bytesPerSecond
+	 *            bandwidth cap for what is sent, 0 for none
+	 */
+	public StandInPeer(@Nonnull final NetworkParameters params, @Nonnull final ChainRecording recording, final long latencyMs,
+			final long bytesPerSecond) throws IOException
+	{
+		this.params = params;
+		this.recording = recording;
+		this.latencyMs = latencyMs;
+		this.bytesPerSecond = bytesPerSecond;
+		this.serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+
+		final Thread thread = new Thread("stand-in peer")
+		{
+			@Override
+			public void run()
+			{
+				accept();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public InetSocketAddress getAddress()
+	{
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	public void close() throws IOException
+	{
+		serverSocket.close();
+
+		synchronized (sockets)
+		{
+			for (final Socket socket : sockets)
+				socket.close();
+		}
+	}
+
+	private void accept()
+	{
+		try
+		{
+			while (true)
+			{
+				final Socket socket = serverSocket.accept();
+				synchronized (sockets)
+				{
+					sockets.add(socket);
+				}
+
+				final Thread thread = new Thread("stand-in peer " + socket.getRemoteSocketAddress())
+				{
+					@Override
+					public void run()
+					{
+						serve(socket);
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		catch (final IOException x)
+		{
+			if (!serverSocket.isClosed())
+				log.warn("problem accepting connection", x);
+		}
+	}
+
+	private void serve(@Nonnull final Socket socket)
+	{
+		final BitcoinSerializer serializer = new BitcoinSerializer(params);
+
+		try
+		{
+			socket.setTcpNoDelay(true);
+			final DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final OutputStream os = new BufferedOutputStream(bytesPerSecond > 0 ? new ThrottledOutputStream(socket.getOutputStream(),
+					bytesPerSecond) : socket.getOutputStream());
+
+			while (true)
+			{
+				final Message message = read(serializer, is);
+
+				final List<Message> answer = answer(message);
+				if (answer.isEmpty())
+					continue;
+
+				if (latencyMs > 0)
+					Thread.sleep(latencyMs);
+
+				for (final Message m : answer)
+					serializer.serialize(m, os);
+				os.flush();
+			}
+		}
+		catch (final IOException x)
+		{
+			log.info("connection {} closed: {}", socket.getRemoteSocketAddress(), x.getMessage());
+		}
+		catch (final ProtocolException x)
+		{
+			log.warn("connection " + socket.getRemoteSocketAddress() + " sent garbage", x);
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (final IOException x)
+			{
+				// swallow
+			}
+
+			synchronized (sockets)
+			{
+				sockets.remove(socket);
+			}
+		}
+	}
+
+	private Message read(@Nonnull final BitcoinSerializer serializer, @Nonnull final DataInputStream is) throws IOException,
+			ProtocolException
+	{
+		final byte[] header = new byte[MESSAGE_HEADER_SIZE];
+		is.readFully(header);
+
+		// payload length is little endian, right after magic and command
+		final int length = (header[16] & 0xff) | (header[17] & 0xff) << 8 | (header[18] & 0xff) << 16 | (header[19] & 0xff) << 24;
+		if (length < 0 || length > Message.MAX_SIZE)
+			throw new ProtocolException("message too large: " + length);
+
+		final byte[] message = new byte[MESSAGE_HEADER_SIZE + length];
+		System.arraycopy(header, 0, message, 0, MESSAGE_HEADER_SIZE);
+		is.readFully(message, MESSAGE_HEADER_SIZE, length);
+
+		return serializer.deserialize(ByteBuffer.wrap(message));
+	}
+
+	private List<Message> answer(@Nonnull final Message message) throws ProtocolException
+	{
+		final List<Message> answer = new ArrayList<Message>();
+
+		if (message instanceof VersionMessage)
+		{
+			final VersionMessage version = new VersionMessage(params, recording.getBestHeight());
+			version.localServices = VersionMessage.NODE_NETWORK;
+			answer.add(version);
+			answer.add(new VersionAck());
+		}
+		else if (message instanceof Ping)
+		{
+			final Ping ping = (Ping) message;
+			if (ping.hasNonce())
+				answer.add(new Pong(ping.getNonce()));
+		}
+		else if (message instanceof GetHeadersMessage)
+		{
+			// check before getblocks, which it extends
+			final GetHeadersMessage getHeaders = (GetHeadersMessage) message;
+			final List<Block> headers = new ArrayList<Block>();
+			for (int i = locate(getHeaders.getLocator()) + 1; i < recording.size() && headers.size() < MAX_HEADERS; i++)
+			{
+				final Block header = recording.get(i).header;
+				headers.add(header);
+				if (header.getHash().equals(getHeaders.getStopHash()))
+					break;
+			}
+			answer.add(new HeadersMessage(params, headers.toArray(new Block[0])));
+		}
+		else if (message instanceof GetBlocksMessage)
+		{
+			final GetBlocksMessage getBlocks = (GetBlocksMessage) message;
+			final InventoryMessage inv = new InventoryMessage(params);
+			int n = 0;
+			for (int i = locate(getBlocks.getLocator()) + 1; i < recording.size() && n < MAX_INV; i++, n++)
+			{
+				final Sha256Hash hash = recording.get(i).header.getHash();
+				inv.addItem(new InventoryItem(InventoryItem.Type.Block, hash));
+				if (hash.equals(getBlocks.getStopHash()))
+					break;
+			}
+			if (n > 0)
+				answer.add(inv);
+		}
+		else if (message instanceof GetDataMessage)
+		{
+			for (final InventoryItem item : ((GetDataMessage) message).getItems())
+			{
+				if (item.type != InventoryItem.Type.FilteredBlock && item.type != InventoryItem.Type.Block)
+					continue;
+
+				final int index = recording.indexOf(item.hash);
+				final ChainRecording.Entry entry = index >= 0 ? recording.get(index) : null;
+				if (entry == null || entry.filteredBlock == null)
+				{
+					log.info("block {} was not recorded as a filtered block", item.hash);
+					continue;
+				}
+
+				answer.add(entry.filteredBlock);
+				for (final Transaction tx : entry.transactions)
+					answer.add(tx);
+			}
+		}
+
+		return answer;
+	}
+
+	/**
+	 * @return index of the newest recorded block in the locator, or -1 to start from the beginning of the recording
+	 */
+	private int locate(@Nonnull final List<Sha256Hash> locator)
+	{
+		for (final Sha256Hash hash : locator)
+		{
+			final int index = recording.indexOf(hash);
+			if (index >= -1)
+				return index;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Caps the rate at which bytes are written, by sleeping until the bytes written so far would have been sent at that
+	 * rate. Idle time does not build up credit.
+	 */
+	private static final class ThrottledOutputStream extends FilterOutputStream
+	{
+		private final long bytesPerSecond;
+		private long sentAt = System.nanoTime(); // when everything written so far will have been sent
+
+		public ThrottledOutputStream(@Nonnull final OutputStream out, final long bytesPerSecond)
+		{
+			super(out);
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		@Override
+		public void write(final int b) throws IOException
+		{
+			out.write(b);
+			throttle(1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException
+		{
+			out.write(b, off, len);
+			throttle(len);
+		}
+
+		private void throttle(final int len) throws IOException
+		{
+			final long now = System.nanoTime();
+			sentAt = Math.max(sentAt, now) + len * 1000000000L / bytesPerSecond;
+
+			final long aheadMs = (sentAt - now) / 1000000;
+			if (aheadMs > 0)
+			{
+				try
+				{
+					Thread.sleep(aheadMs);
+				}
+				catch (final InterruptedException x)
+				{
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while throttling");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.benchmark.sync;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.BlockChain;
+import com.google.bitcoin.core.BlockChainListener;
+import com.google.bitcoin.core.Message;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Peer;
+import com.google.bitcoin.core.PeerAddress;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.net.discovery.DnsDiscovery;
+import com.google.bitcoin.store.SPVBlockStore;
+import com.google.bitcoin.store.UnreadableWalletException;
+import com.google.bitcoin.store.WalletProtobufSerializer;
+import com.google.bitcoin.utils.Threading;
+
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.service.SyncMetrics;
+
+/**
+ * Measures a full catch-up of {@link PeerGroup}, {@link BlockChain}, {@link SPVBlockStore} and a wallet against a
+ * {@link StandInPeer} replaying a {@link ChainRecording}, without the live network. Each run starts from a fresh block
+ * store and a freshly loaded wallet, so runs are comparable, and reports wall time, CPU time and allocations of all
+ * threads except the stand-in peer's, plus the time spent in the wallet's block chain callbacks. CPU time and
+ * allocations of threads that end during a run are not counted.
+ *
+ * To record, from the wallet and block chain files of a device (both are left untouched):
+ *
+ * <pre>
+ * SyncReplay record &lt;wallet file&gt; &lt;block chain file&gt; &lt;recording file&gt;
+ * </pre>
+ *
+ * To replay, with the same wallet file, optionally with a latency per answer, a bandwidth cap and a number of runs:
+ *
+ * <pre>
+ * SyncReplay replay &lt;wallet file&gt; &lt;recording file&gt; [latency ms] [bytes/s] [runs]
+ * </pre>
+ */
+public final class SyncReplay
+{
+	private static final NetworkParameters PARAMS = Constants.NETWORK_PARAMETERS;
+	private static final String STAND_IN_THREAD_PREFIX = "stand-in peer";
+
+	public static void main(final String[] args) throws Exception
+	{
+		if (args.length == 4 && args[0].equals("record"))
+		{
+			record(new File(args[1]), new File(args[2]), new File(args[3]));
+		}
+		else if (args.length >= 3 && args.length <= 6 && args[0].equals("replay"))
+		{
+			final long latencyMs = args.length > 3 ? Long.parseLong(args[3]) : 0;
+			final long bytesPerSecond = args.length > 4 ? Long.parseLong(args[4]) : 0;
+			final int runs = args.length > 5 ? Integer.parseInt(args[5]) : 3;
+			replay(new File(args[1]), new File(args[2]), latencyMs, bytesPerSecond, runs);
+		}
+		else
+		{
+			System.err.println("usage: SyncReplay record <wallet file> <block chain file> <recording file>");
+			System.err.println("       SyncReplay replay <wallet file> <recording file> [latency ms] [bytes/s] [runs]");
+			System.exit(1);
+		}
+
+		// peer group threads are not all daemons
+		System.exit(0);
+	}
+
+	private static void record(@Nonnull final File walletFile, @Nonnull final File blockChainFile, @Nonnull final File recordingFile)
+			throws Exception
+	{
+		final Wallet wallet = readWallet(walletFile);
+
+		final File storeFile = copyToTemp(blockChainFile);
+		final SPVBlockStore store = new SPVBlockStore(PARAMS, storeFile);
+		final StoredBlock start = store.getChainHead();
+		final ChainRecording.Writer writer = new ChainRecording.Writer(PARAMS, recordingFile, start);
+
+		final BlockChain blockChain = new BlockChain(PARAMS, wallet, store);
+		final PeerGroup peerGroup = new PeerGroup(PARAMS, blockChain);
+		peerGroup.addWallet(wallet);
+		peerGroup.addPeerDiscovery(new DnsDiscovery(PARAMS));
+		peerGroup.addEventListener(new AbstractPeerEventListener()
+		{
+			@Override
+			public Message onPreMessageReceived(final Peer peer, final Message m)
+			{
+				if (peer == peerGroup.getDownloadPeer())
+				{
+					try
+					{
+						writer.write(m);
+					}
+					catch (final IOException x)
+					{
+						throw new RuntimeException(x);
+					}
+				}
+
+				return m;
+			}
+		}, Threading.SAME_THREAD);
+
+		System.out.println("recording from height " + start.getHeight());
+		peerGroup.startAndWait();
+		peerGroup.downloadBlockChain();
+		peerGroup.stopAndWait();
+
+		writer.close();
+		store.close();
+		storeFile.delete();
+
+		System.out.println("recorded " + writer.getBlocks() + " blocks up to height " + blockChain.getBestChainHeight() + " to " + recordingFile);
+	}
+
+	private static void replay(@Nonnull final File walletFile, @Nonnull final File recordingFile, final long latencyMs,
+			final long bytesPerSecond, final int runs) throws Exception
+	{
+		final ChainRecording recording = ChainRecording.read(PARAMS, recordingFile);
+		System.out.println(String.format(Locale.US, "replaying %d blocks from height %d, latency %d ms, bandwidth %s", recording.size(),
+				recording.getStart().getHeight(), latencyMs, bytesPerSecond > 0 ? bytesPerSecond + " B/s" : "unlimited"));
+
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		for (int run = 1; run <= runs; run++)
+		{
+			final StandInPeer standInPeer = new StandInPeer(PARAMS, recording, latencyMs, bytesPerSecond);
+			final Wallet wallet = readWallet(walletFile);
+
+			final File storeFile = File.createTempFile("replay", ".spvchain");
+			storeFile.delete();
+			final SPVBlockStore store = new SPVBlockStore(PARAMS, storeFile);
+			store.put(recording.getStart());
+			store.setChainHead(recording.getStart());
+
+			final SyncMetrics.Histogram walletCallbackMicros = new SyncMetrics.Histogram();
+			final BlockChain blockChain = new BlockChain(PARAMS, store);
+			blockChain.addListener(new TimedBlockChainListener(wallet, walletCallbackMicros), Threading.SAME_THREAD);
+
+			final PeerGroup peerGroup = new PeerGroup(PARAMS, blockChain);
+			peerGroup.addWallet(wallet);
+			peerGroup.setMaxConnections(1);
+			peerGroup.addAddress(new PeerAddress(standInPeer.getAddress().getAddress(), standInPeer.getAddress().getPort()));
+
+			final Map<Long, long[]> before = sampleThreads(threads);
+			final long start = System.nanoTime();
+
+			peerGroup.startAndWait();
+			peerGroup.downloadBlockChain();
+
+			final long wallMs = (System.nanoTime() - start) / 1000000;
+			final Map<Long, long[]> after = sampleThreads(threads);
+
+			peerGroup.stopAndWait();
+			standInPeer.close();
+			store.close();
+			storeFile.delete();
+
+			long cpuNanos = 0, allocatedBytes = 0;
+			for (final Map.Entry<Long, long[]> entry : after.entrySet())
+			{
+				final long[] b = before.get(entry.getKey());
+				cpuNanos += entry.getValue()[0] - (b != null ? b[0] : 0);
+				allocatedBytes += entry.getValue()[1] - (b != null ? b[1] : 0);
+			}
+
+			System.out.println(String.format(Locale.US, "run %d: height %d, wall %d ms, cpu %d ms, allocated %.1f MB, wallet callbacks us: %s", run,
+					blockChain.getBestChainHeight(), wallMs, cpuNanos / 1000000, allocatedBytes / 1048576.0, walletCallbackMicros));
+		}
+	}
+
+	/**
+	 * @return per thread, except the stand-in peer's: CPU time in nanoseconds and allocated bytes
+	 */
+	private static Map<Long, long[]> sampleThreads(@Nonnull final com.sun.management.ThreadMXBean threads)
+	{
+		final Map<Long, long[]> samples = new HashMap<Long, long[]>();
+
+		for (final Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet())
+		{
+			final Thread thread = entry.getKey();
+			if (thread.getName().startsWith(STAND_IN_THREAD_PREFIX))
+				continue;
+
+			final long id = thread.getId();
+			final long cpuNanos = threads.getThreadCpuTime(id);
+			final long allocatedBytes = threads.getThreadAllocatedBytes(id);
+			if (cpuNanos >= 0 && allocatedBytes >= 0)
+				samples.put(id, new long[] { cpuNanos, allocatedBytes });
+		}
+
+		return samples;
+	}
+
+	private static Wallet readWallet(@Nonnull final File file) throws IOException, UnreadableWalletException
+	{
+		final FileInputStream is = new FileInputStream(file);
+		try
+		{
+			return new WalletProtobufSerializer().readWallet(is);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static File copyToTemp(@Nonnull final File file) throws IOException
+	{
+		final File copy = File.createTempFile("record", ".spvchain");
+		Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return copy;
+	}
+
+	/**
+	 * Passes the block chain callbacks on to the wallet and measures how long it takes.
+	 */
+	private static final class TimedBlockChainListener implements BlockChainListener
+	{
+		private final Wallet wallet;
+		private final SyncMetrics.Histogram micros;
+
+		public TimedBlockChainListener(@Nonnull final Wallet wallet, @Nonnull final SyncMetrics.Histogram micros)
+		{
+			this.wallet = wallet;
+			this.micros = micros;
+		}
+
+		@Override
+		public void notifyNewBestBlock(final StoredBlock block) throws VerificationException
+		{
+			final long start = System.nanoTime();
+			wallet.notifyNewBestBlock(block);
+			micros.update((System.nanoTime() - start) / 1000);
+		}
+
+		@Override
+		public void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks, final List<StoredBlock> newBlocks)
+				throws VerificationException
+		{
+			final long start = System.nanoTime();
+			wallet.reorganize(splitPoint, oldBlocks, newBlocks);
+			micros.update((System.nanoTime() - start) / 1000);
+		}
+
+		@Override
+		public boolean isTransactionRelevant(final Transaction tx) throws ScriptException
+		{
+			final long start = System.nanoTime();
+			final boolean relevant = wallet.isTransactionRelevant(tx);
+			micros.update((System.nanoTime() - start) / 1000);
+			return relevant;
+		}
+
+		@Override
+		public void receiveFromBlock(final Transaction tx, final StoredBlock block, final BlockChain.NewBlockType blockType,
+				final int relativityOffset) throws VerificationException
+		{
+			final long start = System.nanoTime();
+			wallet.receiveFromBlock(tx, block, blockType, relativityOffset);
+			micros.update((System.nanoTime() - start) / 1000);
+		}
+
+		@Override
+		public boolean notifyTransactionIsInBlock(final Sha256Hash txHash, final StoredBlock block, final BlockChain.NewBlockType blockType,
+				final int relativityOffset) throws VerificationException
+		{
+			final long start = System.nanoTime();
+			final boolean found = wallet.notifyTransactionIsInBlock(txHash, block, blockType, relativityOffset);
+			micros.update((System.nanoTime() - start) / 1000);
+			return found;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * In-memory index of address book labels, shared by everything that displays labels for addresses. Missing labels are
+ * fetched in bulk via {@link AddressBookProvider#resolveLabels(Context, Collection)}, and entries are invalidated
+ * individually as the provider reports changes.
+ */
+public final class AddressBookLabels
+{
+	public interface Listener
+	{
+		/** will be called back on UI thread */
+		void onLabelsChanged();
+	}
+
+	private final Context context;
+	private final Map<String, String> labels = new HashMap<String, String>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private static final String NULL_MARKER = "";
+
+	public AddressBookLabels(@Nonnull final Context context)
+	{
+		this.context = context;
+
+		context.getContentResolver().registerContentObserver(AddressBookProvider.contentUri(context.getPackageName()), true, observer);
+	}
+
+	/**
+	 * Resolves from memory if possible, otherwise queries the provider for this one address.
+	 */
+	@CheckForNull
+	public String resolveLabel(@Nonnull final String address)
+	{
+		synchronized (labels)
+		{
+			final String label = labels.get(address);
+			if (label != null)
+				return label != NULL_MARKER ? label : null;
+		}
+
+		final String label = AddressBookProvider.resolveLabel(context, address);
+		put(address, label);
+		return label;
+	}
+
+	/**
+	 * Loads the labels of all given addresses that are not yet in memory, using a single query. Meant to be called from
+	 * a background thread before the labels are needed.
+	 */
+	public void prefetch(@Nonnull final Collection<String> addresses)
+	{
+		final List<String> missing = new ArrayList<String>();
+		synchronized (labels)
+		{
+			for (final String address : addresses)
+				if (!labels.containsKey(address))
+					missing.add(address);
+		}
+
+		if (missing.isEmpty())
+			return;
+
+		final Map<String, String> resolved = AddressBookProvider.resolveLabels(context, missing);
+
+		synchronized (labels)
+		{
+			for (final String address : missing)
+			{
+				final String label = resolved.get(address);
+				labels.put(address, label != null ? label : NULL_MARKER);
+			}
+		}
+	}
+
+	/**
+	 * Takes over labels from a cursor on the address book that has been queried anyway.
+	 */
+	public void putAll(@Nonnull final Cursor cursor)
+	{
+		final int addressColumn = cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_ADDRESS);
+		final int labelColumn = cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_LABEL);
+
+		synchronized (labels)
+		{
+			for (cursor.moveToPosition(-1); cursor.moveToNext();)
+			{
+				final String label = cursor.getString(labelColumn);
+				labels.put(cursor.getString(addressColumn), label != null ? label : NULL_MARKER);
+			}
+		}
+	}
+
+	private void put(@Nonnull final String address, @CheckForNull final String label)
+	{
+		synchronized (labels)
+		{
+			labels.put(address, label != null ? label : NULL_MARKER);
+		}
+	}
+
+	public void addListener(@Nonnull final Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(@Nonnull final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	private final ContentObserver observer = new ContentObserver(new Handler(Looper.getMainLooper()))
+	{
+		@Override
+		public void onChange(final boolean selfChange)
+		{
+			// below API level 16, there is no way of knowing what changed
+			synchronized (labels)
+			{
+				labels.clear();
+			}
+
+			notifyListeners();
+		}
+
+		// called instead of the method above from API level 16 on
+		public void onChange(final boolean selfChange, final Uri uri)
+		{
+			final List<String> pathSegments = uri != null ? uri.getPathSegments() : null;
+
+			if (pathSegments != null && !pathSegments.isEmpty())
+			{
+				// content://<authority>/<address>[/<rowid>]
+				synchronized (labels)
+				{
+					labels.remove(pathSegments.get(0));
+				}
+
+				notifyListeners();
+			}
+			else
+			{
+				onChange(selfChange);
+			}
+		}
+	};
+
+	private void notifyListeners()
+	{
+		for (final Listener listener : listeners)
+			listener.onLabelsChanged();
+	}
+}
@@ -17,7 +17,11 @@
 
 package de.schildbach.wallet;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
@@ -36,12 +40,14 @@ import android.net.Uri;
 public class AddressBookProvider extends ContentProvider
 {
 	private static final String DATABASE_TABLE = "address_book";
+	private static final String DATABASE_TABLE_FTS = "address_book_fts";
 
 	public static final String KEY_ROWID = "_id";
 	public static final String KEY_ADDRESS = "address";
 	public static final String KEY_LABEL = "label";
 
 	public static final String SELECTION_QUERY = "q";
+	public static final String SELECTION_SEARCH = "search";
 	public static final String SELECTION_IN = "in";
 	public static final String SELECTION_NOTIN = "notin";
 
@@ -68,6 +74,51 @@ public class AddressBookProvider extends ContentProvider
 		return label;
 	}
 
+	/**
+	 * Bulk variant of {@link #resolveLabel(Context, String)}, using {@link #SELECTION_IN}.
+	 * 
+	 * @return labels by address, for addresses that have a label
+	 */
+	public static Map<String, String> resolveLabels(final Context context, @Nonnull final Collection<String> addresses)
+	{
+		final Map<String, String> labels = new HashMap<String, String>(addresses.size());
+		final Uri uri = contentUri(context.getPackageName());
+		final String[] projection = new String[] { KEY_ADDRESS, KEY_LABEL };
+
+		final StringBuilder selection = new StringBuilder();
+		int count = 0;
+		for (final Iterator<String> i = addresses.iterator(); i.hasNext();)
+		{
+			if (count > 0)
+				selection.append(',');
+			selection.append(i.next());
+			count++;
+
+			if (count == MAX_SELECTION_IN || !i.hasNext())
+			{
+				final Cursor cursor = context.getContentResolver().query(uri, projection, SELECTION_IN, new String[] { selection.toString() },
+						null);
+
+				if (cursor != null)
+				{
+					final int addressColumn = cursor.getColumnIndexOrThrow(KEY_ADDRESS);
+					final int labelColumn = cursor.getColumnIndexOrThrow(KEY_LABEL);
+					while (cursor.moveToNext())
+						labels.put(cursor.getString(addressColumn), cursor.getString(labelColumn));
+
+					cursor.close();
+				}
+
+				selection.setLength(0);
+				count = 0;
+			}
+		}
+
+		return labels;
+	}
+
+	private static final int MAX_SELECTION_IN = 500;
+
 	private Helper helper;
 
 	@Override
@@ -177,6 +228,22 @@ public class AddressBookProvider extends ContentProvider
 			selection = KEY_ADDRESS + " LIKE ? OR " + KEY_LABEL + " LIKE ?";
 			selectionArgs = new String[] { query, query };
 		}
+		else if (SELECTION_SEARCH.equals(originalSelection))
+		{
+			// address prefix via the unique index, words in label via full text index
+			final String query = originalSelectionArgs[0].trim();
+			if (query.length() > 0)
+			{
+				final String match = ftsPrefixMatch(query);
+				selection = "(" + KEY_ADDRESS + " >= ? AND " + KEY_ADDRESS + " < ?)";
+				selectionArgs = new String[] { query, query + '\uffff' };
+				if (match != null)
+				{
+					selection += " OR " + KEY_ROWID + " IN (SELECT docid FROM " + DATABASE_TABLE_FTS + " WHERE " + KEY_LABEL + " MATCH ?)";
+					selectionArgs = new String[] { query, query + '\uffff', match };
+				}
+			}
+		}
 
 		final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
 
@@ -185,26 +252,63 @@ public class AddressBookProvider extends ContentProvider
 		return cursor;
 	}
 
+	/**
+	 * Turns free text into an FTS3 query that matches labels containing words starting with each of the given words.
+	 * 
+	 * @return query, or null if there is nothing to search for
+	 */
+	private static String ftsPrefixMatch(@Nonnull final String query)
+	{
+		final StringBuilder match = new StringBuilder();
+
+		// the simple tokenizer only indexes alphanumeric ASCII characters and all non-ASCII characters
+		for (final String word : query.split("[\\x00-\\x2f\\x3a-\\x40\\x5b-\\x60\\x7b-\\x7f]+"))
+		{
+			if (word.length() > 0)
+			{
+				if (match.length() > 0)
+					match.append(' ');
+				match.append(word).append('*');
+			}
+		}
+
+		return match.length() > 0 ? match.toString() : null;
+	}
+
 	private static void appendAddresses(@Nonnull final SQLiteQueryBuilder qb, @Nonnull final String[] addresses)
 	{
-		for (final String address : addresses)
+		for (int i = 0; i < addresses.length; i++)
 		{
-			qb.appendWhereEscapeString(address.trim());
-			if (!address.equals(addresses[addresses.length - 1]))
+			if (i > 0)
 				qb.appendWhere(",");
+			qb.appendWhereEscapeString(addresses[i].trim());
 		}
 	}
 
 	private static class Helper extends SQLiteOpenHelper
 	{
 		private static final String DATABASE_NAME = "address_book";
-		private static final int DATABASE_VERSION = 1;
+		private static final int DATABASE_VERSION = 2;
 
 		private static final String DATABASE_CREATE = "CREATE TABLE " + DATABASE_TABLE + " (" //
 				+ KEY_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " //
 				+ KEY_ADDRESS + " TEXT NOT NULL, " //
 				+ KEY_LABEL + " TEXT NULL);";
 
+		private static final String DATABASE_CREATE_ADDRESS_INDEX = "CREATE UNIQUE INDEX " + DATABASE_TABLE + "_" + KEY_ADDRESS + " ON "
+				+ DATABASE_TABLE + " (" + KEY_ADDRESS + ");";
+
+		// FTS3 rather than FTS4 with external content, because the latter needs API level 16
+		private static final String DATABASE_CREATE_FTS = "CREATE VIRTUAL TABLE " + DATABASE_TABLE_FTS + " USING fts3(" + KEY_LABEL + ");";
+
+		private static final String[] DATABASE_CREATE_FTS_TRIGGERS = new String[] {
+				"CREATE TRIGGER " + DATABASE_TABLE + "_ai AFTER INSERT ON " + DATABASE_TABLE + " BEGIN INSERT INTO " + DATABASE_TABLE_FTS
+						+ " (docid, " + KEY_LABEL + ") VALUES (new." + KEY_ROWID + ", new." + KEY_LABEL + "); END;",
+				"CREATE TRIGGER " + DATABASE_TABLE + "_ad AFTER DELETE ON " + DATABASE_TABLE + " BEGIN DELETE FROM " + DATABASE_TABLE_FTS
+						+ " WHERE docid = old." + KEY_ROWID + "; END;",
+				"CREATE TRIGGER " + DATABASE_TABLE + "_au AFTER UPDATE ON " + DATABASE_TABLE + " BEGIN UPDATE " + DATABASE_TABLE_FTS + " SET "
+						+ KEY_LABEL + " = new." + KEY_LABEL + " WHERE docid = old." + KEY_ROWID + "; END;" };
+
 		public Helper(final Context context)
 		{
 			super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -214,6 +318,15 @@ public class AddressBookProvider extends ContentProvider
 		public void onCreate(final SQLiteDatabase db)
 		{
 			db.execSQL(DATABASE_CREATE);
+			db.execSQL(DATABASE_CREATE_ADDRESS_INDEX);
+			createFts(db);
+		}
+
+		private static void createFts(final SQLiteDatabase db)
+		{
+			db.execSQL(DATABASE_CREATE_FTS);
+			for (final String trigger : DATABASE_CREATE_FTS_TRIGGERS)
+				db.execSQL(trigger);
 		}
 
 		@Override
@@ -236,6 +349,17 @@ public class AddressBookProvider extends ContentProvider
 		private void upgrade(final SQLiteDatabase db, final int oldVersion)
 		{
 			if (oldVersion == 1)
+			{
+				// keep the oldest entry of duplicate addresses, which is what lookups used to find
+				db.execSQL("DELETE FROM " + DATABASE_TABLE + " WHERE " + KEY_ROWID + " NOT IN (SELECT MIN(" + KEY_ROWID + ") FROM "
+						+ DATABASE_TABLE + " GROUP BY " + KEY_ADDRESS + ");");
+				db.execSQL(DATABASE_CREATE_ADDRESS_INDEX);
+
+				createFts(db);
+				db.execSQL("INSERT INTO " + DATABASE_TABLE_FTS + " (docid, " + KEY_LABEL + ") SELECT " + KEY_ROWID + ", " + KEY_LABEL
+						+ " FROM " + DATABASE_TABLE + ";");
+			}
+			else if (oldVersion == 2)
 			{
 				// future
 			}
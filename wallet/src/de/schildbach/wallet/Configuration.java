@@ -17,18 +17,14 @@
 
 package de.schildbach.wallet;
 
-import java.math.BigInteger;
-
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.text.format.DateUtils;
-import de.schildbach.wallet.ExchangeRatesProvider.ExchangeRate;
 
 /**
  * @author Andreas Schildbach
@@ -44,6 +40,8 @@ public class Configuration
 	public static final String PREFS_KEY_EXCHANGE_CURRENCY = "exchange_currency";
 	public static final String PREFS_KEY_TRUSTED_PEER = "trusted_peer";
 	public static final String PREFS_KEY_TRUSTED_PEER_ONLY = "trusted_peer_only";
+	public static final String PREFS_KEY_PEERS_MIN = "peers_min";
+	public static final String PREFS_KEY_PEERS_MAX = "peers_max";
 	public static final String PREFS_KEY_DISCLAIMER = "disclaimer";
 	public static final String PREFS_KEY_SELECTED_ADDRESS = "selected_address";
 	private static final String PREFS_KEY_LABS_QR_PAYMENT_REQUEST = "labs_qr_payment_request";
@@ -51,14 +49,14 @@ public class Configuration
 	private static final String PREFS_KEY_LAST_VERSION = "last_version";
 	private static final String PREFS_KEY_LAST_USED = "last_used";
 	private static final String PREFS_KEY_BEST_CHAIN_HEIGHT_EVER = "best_chain_height_ever";
-	private static final String PREFS_KEY_CACHED_EXCHANGE_CURRENCY = "cached_exchange_currency";
-	private static final String PREFS_KEY_CACHED_EXCHANGE_RATE = "cached_exchange_rate";
 	private static final String PREFS_KEY_LAST_EXCHANGE_DIRECTION = "last_exchange_direction";
 	private static final String PREFS_KEY_CHANGE_LOG_VERSION = "change_log_version";
 	public static final String PREFS_KEY_REMIND_BACKUP = "remind_backup";
 
 	private static final int PREFS_DEFAULT_BTC_SHIFT = 0;
 	private static final int PREFS_DEFAULT_BTC_PRECISION = 2;
+	private static final int PREFS_DEFAULT_PEERS_MIN = 3;
+	private static final int PREFS_DEFAULT_PEERS_MAX = 8;
 
 	private static final Logger log = LoggerFactory.getLogger(Configuration.class);
 
@@ -131,6 +129,32 @@ public class Configuration
 		return prefs.getBoolean(PREFS_KEY_TRUSTED_PEER_ONLY, false);
 	}
 
+	public int getMinConnectedPeers()
+	{
+		return getPeers(PREFS_KEY_PEERS_MIN, PREFS_DEFAULT_PEERS_MIN);
+	}
+
+	/**
+	 * @return never less than {@link #getMinConnectedPeers()}
+	 */
+	public int getMaxConnectedPeers()
+	{
+		return Math.max(getMinConnectedPeers(), getPeers(PREFS_KEY_PEERS_MAX, PREFS_DEFAULT_PEERS_MAX));
+	}
+
+	private int getPeers(final String key, final int defaultValue)
+	{
+		try
+		{
+			final int peers = Integer.parseInt(prefs.getString(key, Integer.toString(defaultValue)));
+			return peers > 0 ? peers : defaultValue;
+		}
+		catch (final NumberFormatException x)
+		{
+			return defaultValue;
+		}
+	}
+
 	public boolean remindBackup()
 	{
 		return prefs.getBoolean(PREFS_KEY_REMIND_BACKUP, true);
@@ -221,28 +245,6 @@ public class Configuration
 		prefs.edit().putInt(PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, bestChainHeightEver).commit();
 	}
 
-	public ExchangeRate getCachedExchangeRate()
-	{
-		if (prefs.contains(PREFS_KEY_CACHED_EXCHANGE_CURRENCY) && prefs.contains(PREFS_KEY_CACHED_EXCHANGE_RATE))
-		{
-			final String cachedExchangeCurrency = prefs.getString(PREFS_KEY_CACHED_EXCHANGE_CURRENCY, null);
-			final BigInteger cachedExchangeRate = BigInteger.valueOf(prefs.getLong(PREFS_KEY_CACHED_EXCHANGE_RATE, 0));
-			return new ExchangeRate(cachedExchangeCurrency, cachedExchangeRate, null);
-		}
-		else
-		{
-			return null;
-		}
-	}
-
-	public void setCachedExchangeRate(final ExchangeRate cachedExchangeRate)
-	{
-		final Editor edit = prefs.edit();
-		edit.putString(PREFS_KEY_CACHED_EXCHANGE_CURRENCY, cachedExchangeRate.currencyCode);
-		edit.putLong(PREFS_KEY_CACHED_EXCHANGE_RATE, cachedExchangeRate.rate.longValue());
-		edit.commit();
-	}
-
 	public boolean getLastExchangeDirection()
 	{
 		return prefs.getBoolean(PREFS_KEY_LAST_EXCHANGE_DIRECTION, true);
@@ -0,0 +1,579 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.text.format.DateUtils;
+
+import com.google.bitcoin.core.CoinDefinition;
+
+import de.schildbach.wallet.ExchangeRatesProvider.ExchangeRate;
+import de.schildbach.wallet.util.GenericUtils;
+import de.schildbach.wallet.util.JsonStreamReader;
+
+/**
+ * Fetches the exchange rate table from the network. Rates are the product of a coin/BTC price and BTC/fiat prices, so
+ * both kinds of sources are queried in parallel. Within each kind, the sources are raced: the next source is started
+ * as soon as the previous one fails or has not answered within {@link #HEDGE_DELAY_MS}, and the first answer wins. All
+ * of this is bounded by an overall deadline of {@link #DEADLINE_MS}.
+ */
+public final class ExchangeRatesFetcher
+{
+	public interface Callback
+	{
+		/** will be called back on a background thread */
+		void onFetched(@CheckForNull Map<String, ExchangeRate> rates);
+	}
+
+	private static final class CoinRate
+	{
+		public final double rate;
+		public final String source;
+
+		public CoinRate(final double rate, @Nonnull final String source)
+		{
+			this.rate = rate;
+			this.source = source;
+		}
+	}
+
+	private static final class FiatRates
+	{
+		public final Map<String, Double> rates;
+		public final String source;
+
+		public FiatRates(@Nonnull final Map<String, Double> rates, @Nonnull final String source)
+		{
+			this.rates = rates;
+			this.source = source;
+		}
+	}
+
+	private static final URL CRYPTSY_URL;
+	private static final String CRYPTSY_SOURCE = "pubapi.cryptsy.com";
+	private static final URL BTER_URL;
+	private static final String BTER_SOURCE = "data.bter.com";
+	private static final URL BITCOINAVERAGE_URL;
+	private static final String[] BITCOINAVERAGE_FIELDS = new String[] { "24h_avg", "last" };
+	private static final String BITCOINAVERAGE_SOURCE = "BitcoinAverage.com";
+	private static final URL BLOCKCHAININFO_URL;
+	private static final String[] BLOCKCHAININFO_FIELDS = new String[] { "15m" };
+	private static final String BLOCKCHAININFO_SOURCE = "blockchain.info";
+
+	static
+	{
+		try
+		{
+			CRYPTSY_URL = new URL("http://pubapi.cryptsy.com/api.php?method=singlemarketdata&marketid=" + CoinDefinition.cryptsyMarketId);
+			BTER_URL = new URL("http://data.bter.com/api/1/ticker/" + CoinDefinition.coinTicker.toLowerCase(Locale.US) + "_"
+					+ CoinDefinition.cryptsyMarketCurrency.toLowerCase(Locale.US));
+			BITCOINAVERAGE_URL = new URL("https://api.bitcoinaverage.com/custom/abw");
+			BLOCKCHAININFO_URL = new URL("https://blockchain.info/ticker");
+		}
+		catch (final MalformedURLException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+
+	private static final long HEDGE_DELAY_MS = 3 * DateUtils.SECOND_IN_MILLIS;
+	private static final long DEADLINE_MS = Constants.HTTP_TIMEOUT_MS;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable)
+		{
+			final Thread thread = new Thread(runnable, "exchange-rates-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesFetcher.class);
+
+	private final String userAgent;
+	private final List<Callable<CoinRate>> coinSources;
+	private final List<Callable<FiatRates>> fiatSources;
+
+	public ExchangeRatesFetcher(@Nonnull final String userAgent)
+	{
+		this.userAgent = userAgent;
+
+		this.coinSources = Arrays.<Callable<CoinRate>> asList(new Callable<CoinRate>()
+		{
+			@Override
+			public CoinRate call() throws Exception
+			{
+				return requestCoinRateCryptsy();
+			}
+		}, new Callable<CoinRate>()
+		{
+			@Override
+			public CoinRate call() throws Exception
+			{
+				return requestCoinRateBter();
+			}
+		});
+
+		this.fiatSources = Arrays.<Callable<FiatRates>> asList(new Callable<FiatRates>()
+		{
+			@Override
+			public FiatRates call() throws Exception
+			{
+				return requestFiatRates(BITCOINAVERAGE_URL, BITCOINAVERAGE_SOURCE, BITCOINAVERAGE_FIELDS);
+			}
+		}, new Callable<FiatRates>()
+		{
+			@Override
+			public FiatRates call() throws Exception
+			{
+				return requestFiatRates(BLOCKCHAININFO_URL, BLOCKCHAININFO_SOURCE, BLOCKCHAININFO_FIELDS);
+			}
+		});
+	}
+
+	public void fetchInBackground(@Nonnull final Callback callback)
+	{
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				callback.onFetched(fetch());
+			}
+		});
+	}
+
+	/**
+	 * Blocks for at most {@link #DEADLINE_MS}.
+	 *
+	 * @return rates by currency code, or null if either the coin price or the fiat prices could not be fetched in time
+	 */
+	@CheckForNull
+	public Map<String, ExchangeRate> fetch()
+	{
+		final long start = System.currentTimeMillis();
+		final long deadline = start + DEADLINE_MS;
+
+		// the coin price is needed for every fiat rate, so it is fetched once and concurrently with the fiat prices
+		final Future<List<CoinRate>> coinRace = executor.submit(new Callable<List<CoinRate>>()
+		{
+			@Override
+			public List<CoinRate> call() throws Exception
+			{
+				return race(coinSources, deadline);
+			}
+		});
+
+		final List<FiatRates> fiatRates;
+		final List<CoinRate> coinRates;
+		try
+		{
+			fiatRates = race(fiatSources, deadline);
+			coinRates = coinRace.get(Math.max(deadline - System.currentTimeMillis(), 0) + DateUtils.SECOND_IN_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		catch (final InterruptedException x)
+		{
+			coinRace.cancel(true);
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (final ExecutionException x)
+		{
+			log.warn("problem fetching coin price", x.getCause());
+			return null;
+		}
+		catch (final TimeoutException x)
+		{
+			coinRace.cancel(true);
+			log.warn("timeout fetching coin price");
+			return null;
+		}
+
+		if (coinRates.isEmpty() || fiatRates.isEmpty())
+		{
+			log.warn("could not fetch exchange rates within {} ms: {} coin prices, {} fiat tables", DEADLINE_MS, coinRates.size(),
+					fiatRates.size());
+			return null;
+		}
+
+		final Map<String, ExchangeRate> rates = merge(coinRates.get(0), fiatRates);
+
+		log.info("fetched {} exchange rates, took {} ms", rates.size(), System.currentTimeMillis() - start);
+
+		return rates;
+	}
+
+	/**
+	 * Fiat tables are merged in order of arrival, so a currency missing from the winning table can still be filled from
+	 * a table that arrived at the same time.
+	 */
+	private static Map<String, ExchangeRate> merge(@Nonnull final CoinRate coinRate, @Nonnull final List<FiatRates> fiatRates)
+	{
+		final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+
+		for (final FiatRates table : fiatRates)
+		{
+			for (final Map.Entry<String, Double> entry : table.rates.entrySet())
+			{
+				final String currencyCode = entry.getKey();
+				if (rates.containsKey(currencyCode))
+					continue;
+
+				try
+				{
+					final BigInteger rate = toNanoCoins(entry.getValue() * coinRate.rate, 8);
+					if (rate.signum() > 0)
+						rates.put(currencyCode, new ExchangeRate(currencyCode, rate, table.source));
+				}
+				catch (final ArithmeticException x)
+				{
+					log.warn("problem converting {} exchange rate from {}: {}", currencyCode, table.source, x.getMessage());
+				}
+			}
+		}
+
+		final String btc = CoinDefinition.cryptsyMarketCurrency;
+		rates.put(btc, new ExchangeRate(btc, toNanoCoins(coinRate.rate, 8), coinRate.source));
+		rates.put("m" + btc, new ExchangeRate("m" + btc, toNanoCoins(coinRate.rate * 1000, 5), coinRate.source));
+
+		return rates;
+	}
+
+	private static BigInteger toNanoCoins(final double value, final int decimals)
+	{
+		return GenericUtils.toNanoCoins_BTC(String.format(Locale.US, "%." + decimals + "f", value), 0);
+	}
+
+	/**
+	 * Starts the first source, then the next one whenever the running ones have all failed or none has answered within
+	 * {@link #HEDGE_DELAY_MS}. Sources that are still running when a winner is found or the deadline passes are
+	 * cancelled.
+	 *
+	 * @return the first successful result, followed by any others that had arrived by then; empty if all failed or the
+	 *         deadline passed
+	 */
+	private static <T> List<T> race(@Nonnull final List<Callable<T>> sources, final long deadline) throws InterruptedException
+	{
+		final CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+		final List<Future<T>> futures = new ArrayList<Future<T>>(sources.size());
+
+		try
+		{
+			futures.add(completion.submit(sources.get(0)));
+			int finished = 0;
+
+			while (finished < futures.size())
+			{
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					break;
+
+				final boolean canHedge = futures.size() < sources.size();
+				final Future<T> future = completion.poll(canHedge ? Math.min(HEDGE_DELAY_MS, remaining) : remaining, TimeUnit.MILLISECONDS);
+
+				if (future != null)
+				{
+					finished++;
+
+					final T result = result(future);
+					if (result != null)
+					{
+						final List<T> results = new ArrayList<T>(sources.size());
+						results.add(result);
+
+						for (Future<T> other; (other = completion.poll()) != null;)
+						{
+							final T otherResult = result(other);
+							if (otherResult != null)
+								results.add(otherResult);
+						}
+
+						return results;
+					}
+
+					// failed, fall back at once if nothing else is running
+					if (canHedge && finished == futures.size())
+						futures.add(completion.submit(sources.get(futures.size())));
+				}
+				else if (canHedge)
+				{
+					// slow, hedge with the next source
+					futures.add(completion.submit(sources.get(futures.size())));
+				}
+			}
+
+			return Collections.emptyList();
+		}
+		finally
+		{
+			for (final Future<T> future : futures)
+				future.cancel(true);
+		}
+	}
+
+	@CheckForNull
+	private static <T> T result(@Nonnull final Future<T> future) throws InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (final ExecutionException x)
+		{
+			log.warn("exchange rate source failed", x.getCause());
+			return null;
+		}
+	}
+
+	private interface ResponseParser<T>
+	{
+		@CheckForNull
+		T parse(@Nonnull JsonStreamReader reader) throws IOException;
+	}
+
+	@CheckForNull
+	private CoinRate requestCoinRateCryptsy() throws IOException
+	{
+		if (!"BTC".equalsIgnoreCase(CoinDefinition.cryptsyMarketCurrency))
+			return null;
+
+		return request(CRYPTSY_URL, true, new ResponseParser<CoinRate>()
+		{
+			@Override
+			public CoinRate parse(final JsonStreamReader reader) throws IOException
+			{
+				// {"return":{"markets":{"<ticker>":{"recenttrades":[{"total":..,"quantity":..},..],..}}}}
+				reader.beginObject();
+				if (!reader.skipToName("return"))
+					return null;
+				reader.beginObject();
+				if (!reader.skipToName("markets"))
+					return null;
+				reader.beginObject();
+				if (!reader.skipToName(CoinDefinition.coinTicker))
+					return null;
+				reader.beginObject();
+				if (!reader.skipToName("recenttrades"))
+					return null;
+
+				double btcTraded = 0.0;
+				double coinTraded = 0.0;
+
+				reader.beginArray();
+				while (reader.hasNext())
+				{
+					reader.beginObject();
+					while (reader.hasNext())
+					{
+						final String name = reader.nextName();
+						if ("total".equals(name))
+							btcTraded += reader.nextDouble();
+						else if ("quantity".equals(name))
+							coinTraded += reader.nextDouble();
+						else
+							reader.skipValue();
+					}
+					reader.endObject();
+				}
+				reader.endArray();
+
+				final double averageTrade = btcTraded / coinTraded;
+
+				return averageTrade > 0 ? new CoinRate(averageTrade, CRYPTSY_SOURCE) : null;
+			}
+		});
+	}
+
+	@CheckForNull
+	private CoinRate requestCoinRateBter() throws IOException
+	{
+		if (!"BTC".equalsIgnoreCase(CoinDefinition.cryptsyMarketCurrency))
+			return null;
+
+		return request(BTER_URL, true, new ResponseParser<CoinRate>()
+		{
+			@Override
+			public CoinRate parse(final JsonStreamReader reader) throws IOException
+			{
+				// {"result":"true","avg":..,..}
+				boolean result = false;
+				double averageTrade = 0;
+
+				reader.beginObject();
+				while (reader.hasNext())
+				{
+					final String name = reader.nextName();
+					if ("result".equals(name))
+						result = reader.peek() == JsonStreamReader.Token.BOOLEAN ? reader.nextBoolean() : "true".equals(reader.nextString());
+					else if ("avg".equals(name))
+						averageTrade = reader.nextDouble();
+					else
+						reader.skipValue();
+				}
+				reader.endObject();
+
+				return result && averageTrade > 0 ? new CoinRate(averageTrade, BTER_SOURCE) : null;
+			}
+		});
+	}
+
+	@CheckForNull
+	private FiatRates requestFiatRates(@Nonnull final URL url, @Nonnull final String source, @Nonnull final String... fields)
+			throws IOException
+	{
+		return request(url, false, new ResponseParser<FiatRates>()
+		{
+			@Override
+			public FiatRates parse(final JsonStreamReader reader) throws IOException
+			{
+				// {"<currency>":{"<field>":..,..},..,"timestamp":..}
+				final Map<String, Double> rates = new HashMap<String, Double>();
+				final List<String> fieldList = Arrays.asList(fields);
+				final double[] values = new double[fields.length];
+
+				reader.beginObject();
+				while (reader.hasNext())
+				{
+					final String currencyCode = reader.nextName();
+					if (reader.peek() != JsonStreamReader.Token.BEGIN_OBJECT)
+					{
+						reader.skipValue();
+						continue;
+					}
+
+					Arrays.fill(values, 0);
+
+					reader.beginObject();
+					while (reader.hasNext())
+					{
+						final int index = fieldList.indexOf(reader.nextName());
+						final JsonStreamReader.Token token = reader.peek();
+						if (index >= 0 && (token == JsonStreamReader.Token.NUMBER || token == JsonStreamReader.Token.STRING))
+							values[index] = reader.nextDouble();
+						else
+							reader.skipValue();
+					}
+					reader.endObject();
+
+					// fields are in order of preference
+					for (final double value : values)
+					{
+						if (value > 0)
+						{
+							rates.put(currencyCode, value);
+							break;
+						}
+					}
+				}
+				reader.endObject();
+
+				return !rates.isEmpty() ? new FiatRates(rates, source) : null;
+			}
+		});
+	}
+
+	@CheckForNull
+	private <T> T request(@Nonnull final URL url, final boolean followRedirects, @Nonnull final ResponseParser<T> parser) throws IOException
+	{
+		final long start = System.currentTimeMillis();
+
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		JsonStreamReader reader = null;
+
+		try
+		{
+			connection.setInstanceFollowRedirects(followRedirects);
+			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
+			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
+			connection.addRequestProperty("User-Agent", userAgent);
+			connection.addRequestProperty("Accept-Encoding", "gzip");
+			connection.connect();
+
+			final int responseCode = connection.getResponseCode();
+			if (responseCode != HttpURLConnection.HTTP_OK)
+				throw new IOException("http status " + responseCode + " when fetching " + url);
+
+			final String contentEncoding = connection.getContentEncoding();
+
+			InputStream is = new BufferedInputStream(connection.getInputStream(), 1024);
+			if ("gzip".equalsIgnoreCase(contentEncoding))
+				is = new GZIPInputStream(is);
+
+			reader = new JsonStreamReader(new InputStreamReader(is, Constants.UTF_8));
+			final T result = parser.parse(reader);
+
+			log.info("fetched {} ({}), took {} ms", url, contentEncoding, System.currentTimeMillis() - start);
+
+			return result;
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+
+			connection.disconnect();
+		}
+	}
+}
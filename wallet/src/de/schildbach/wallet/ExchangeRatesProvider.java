@@ -17,31 +17,21 @@
 
 package de.schildbach.wallet;
 
-import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.math.BigInteger;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-
+import java.util.Collections;
 import java.util.Currency;
-import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.zip.GZIPInputStream;
-
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
-import com.google.bitcoin.core.CoinDefinition;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,7 +41,6 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
-import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.text.format.DateUtils;
 import de.schildbach.wallet.util.GenericUtils;
@@ -90,36 +79,21 @@ public class ExchangeRatesProvider extends ContentProvider
 	private static final String KEY_RATE = "rate";
 	private static final String KEY_SOURCE = "source";
 
-	private Configuration config;
-	private String userAgent;
+	private ExchangeRatesFetcher fetcher;
+	private File exchangeRatesFile;
 
+	private final Object lock = new Object();
 	@CheckForNull
-	private Map<String, ExchangeRate> exchangeRates = null;
+	private Map<String, ExchangeRate> exchangeRates = null; // loaded lazily, replaced as a whole
 	private long lastUpdated = 0;
-
-	private static final URL BITCOINAVERAGE_URL;
-	private static final String[] BITCOINAVERAGE_FIELDS = new String[] { "24h_avg", "last" };
-	private static final String BITCOINAVERAGE_SOURCE = "BitcoinAverage.com";
-	private static final URL BLOCKCHAININFO_URL;
-	private static final String[] BLOCKCHAININFO_FIELDS = new String[] { "15m" };
-	private static final String BLOCKCHAININFO_SOURCE = "blockchain.info";
-
-	// https://bitmarket.eu/api/ticker
-
-	static
-	{
-		try
-		{
-			BITCOINAVERAGE_URL = new URL("https://api.bitcoinaverage.com/custom/abw");
-			BLOCKCHAININFO_URL = new URL("https://blockchain.info/ticker");
-		}
-		catch (final MalformedURLException x)
-		{
-			throw new RuntimeException(x); // cannot happen
-		}
-	}
+	private long lastAttempt = 0;
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
 
 	private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+	private static final long RETRY_FREQ_MS = DateUtils.MINUTE_IN_MILLIS;
+
+	private static final String EXCHANGE_RATES_FILENAME = "exchange-rates";
+	private static final int EXCHANGE_RATES_FILE_VERSION = 1;
 
 	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
 
@@ -128,16 +102,9 @@ public class ExchangeRatesProvider extends ContentProvider
 	{
 		final Context context = getContext();
 
-		this.config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context));
-
-		this.userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
+		this.fetcher = new ExchangeRatesFetcher(WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName));
 
-		final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
-		if (cachedExchangeRate != null)
-		{
-			exchangeRates = new TreeMap<String, ExchangeRate>();
-			exchangeRates.put(cachedExchangeRate.currencyCode, cachedExchangeRate);
-		}
+		this.exchangeRatesFile = context.getFileStreamPath(EXCHANGE_RATES_FILENAME);
 
 		return true;
 	}
@@ -147,37 +114,31 @@ public class ExchangeRatesProvider extends ContentProvider
 		return Uri.parse("content://" + packageName + '.' + "exchange_rates");
 	}
 
+	/**
+	 * Never blocks on the network. Answers from the last known rates, and if these are stale, triggers a refresh in the
+	 * background. Observers of {@link #contentUri(String)} are notified once the refresh has landed.
+	 */
 	@Override
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
 	{
 		if (Constants.BUG_OPENSSL_HEARTBLEED)
 			return null;
 
-		final long now = System.currentTimeMillis();
-
-		if (lastUpdated == 0 || now - lastUpdated > UPDATE_FREQ_MS)
+		final Map<String, ExchangeRate> exchangeRates;
+		synchronized (lock)
 		{
-			Map<String, ExchangeRate> newExchangeRates = null;
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(BITCOINAVERAGE_URL, userAgent, BITCOINAVERAGE_SOURCE, BITCOINAVERAGE_FIELDS);
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(BLOCKCHAININFO_URL, userAgent, BLOCKCHAININFO_SOURCE, BLOCKCHAININFO_FIELDS);
+			if (this.exchangeRates == null)
+				load();
 
-			if (newExchangeRates != null)
-			{
-				exchangeRates = newExchangeRates;
-				lastUpdated = now;
+			exchangeRates = this.exchangeRates;
 
-				final ExchangeRate exchangeRateToCache = bestExchangeRate(config.getExchangeCurrencyCode());
-				if (exchangeRateToCache != null)
-					config.setCachedExchangeRate(exchangeRateToCache);
-			}
+			final long now = System.currentTimeMillis();
+			if ((lastUpdated == 0 || now - lastUpdated > UPDATE_FREQ_MS) && now - lastAttempt > RETRY_FREQ_MS)
+				refresh();
 		}
 
-		if (exchangeRates == null)
-			return null;
-
 		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE, KEY_SOURCE });
+		cursor.setNotificationUri(getContext().getContentResolver(), contentUri(getContext().getPackageName()));
 
 		if (selection == null)
 		{
@@ -189,17 +150,119 @@ public class ExchangeRatesProvider extends ContentProvider
 		}
 		else if (selection.equals(KEY_CURRENCY_CODE))
 		{
-			final ExchangeRate rate = bestExchangeRate(selectionArgs[0]);
-
-            if (rate != null)
-			    cursor.newRow().add(rate.currencyCode.hashCode()).add(rate.currencyCode).add(rate.rate.longValue()).add(rate.source);
+			final ExchangeRate rate = bestExchangeRate(exchangeRates, selectionArgs[0]);
 
+			if (rate != null)
+				cursor.newRow().add(rate.currencyCode.hashCode()).add(rate.currencyCode).add(rate.rate.longValue()).add(rate.source);
 		}
 
 		return cursor;
 	}
 
-	private ExchangeRate bestExchangeRate(final String currencyCode)
+	private void refresh()
+	{
+		if (!refreshing.compareAndSet(false, true))
+			return;
+
+		lastAttempt = System.currentTimeMillis();
+
+		fetcher.fetchInBackground(new ExchangeRatesFetcher.Callback()
+		{
+			@Override
+			public void onFetched(@CheckForNull final Map<String, ExchangeRate> newExchangeRates)
+			{
+				try
+				{
+					if (newExchangeRates != null)
+					{
+						final long now = System.currentTimeMillis();
+
+						synchronized (lock)
+						{
+							exchangeRates = Collections.unmodifiableMap(newExchangeRates);
+							lastUpdated = now;
+						}
+
+						save(newExchangeRates, now);
+
+						final Context context = getContext();
+						context.getContentResolver().notifyChange(contentUri(context.getPackageName()), null);
+					}
+				}
+				finally
+				{
+					refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	private void load()
+	{
+		final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+
+		try
+		{
+			final boolean loaded = Io.readDataFile(exchangeRatesFile, EXCHANGE_RATES_FILE_VERSION, new Io.DataReader()
+			{
+				@Override
+				public void read(final DataInputStream is) throws IOException
+				{
+					final long updated = is.readLong();
+					final int count = is.readInt();
+					for (int i = 0; i < count; i++)
+					{
+						final String currencyCode = is.readUTF();
+						final BigInteger rate = BigInteger.valueOf(is.readLong());
+						final String source = is.readBoolean() ? is.readUTF() : null;
+						rates.put(currencyCode, new ExchangeRate(currencyCode, rate, source));
+					}
+
+					lastUpdated = updated;
+				}
+			});
+
+			if (loaded)
+				log.info("loaded {} exchange rates from {}", rates.size(), exchangeRatesFile);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading exchange rates from " + exchangeRatesFile, x);
+			rates.clear();
+		}
+
+		exchangeRates = Collections.unmodifiableMap(rates);
+	}
+
+	private void save(@Nonnull final Map<String, ExchangeRate> rates, final long updated)
+	{
+		try
+		{
+			Io.writeDataFile(exchangeRatesFile, EXCHANGE_RATES_FILE_VERSION, new Io.DataWriter()
+			{
+				@Override
+				public void write(final DataOutputStream os) throws IOException
+				{
+					os.writeLong(updated);
+					os.writeInt(rates.size());
+					for (final ExchangeRate rate : rates.values())
+					{
+						os.writeUTF(rate.currencyCode);
+						os.writeLong(rate.rate.longValue());
+						os.writeBoolean(rate.source != null);
+						if (rate.source != null)
+							os.writeUTF(rate.source);
+					}
+				}
+			});
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving exchange rates to " + exchangeRatesFile, x);
+		}
+	}
+
+	private ExchangeRate bestExchangeRate(@Nonnull final Map<String, ExchangeRate> exchangeRates, final String currencyCode)
 	{
 		ExchangeRate rate = currencyCode != null ? exchangeRates.get(currencyCode) : null;
 		if (rate != null)
@@ -258,286 +321,4 @@ public class ExchangeRatesProvider extends ContentProvider
 	{
 		throw new UnsupportedOperationException();
 	}
-
-
-    private static Object getCoinValueBTC()
-    {
-
-
-
-
-        //final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-        // Keep the LTC rate around for a bit
-        Double btcRate = 0.0;
-        String currencyCryptsy = CoinDefinition.cryptsyMarketCurrency;
-        String urlCryptsy = "http://pubapi.cryptsy.com/api.php?method=singlemarketdata&marketid="+ CoinDefinition.cryptsyMarketId;
-
-
-
-
-        try {
-            // final String currencyCode = currencies[i];
-            final URL URLCryptsy = new URL(urlCryptsy);
-            final HttpURLConnection connectionCryptsy = (HttpURLConnection)URLCryptsy.openConnection();
-            connectionCryptsy.setConnectTimeout(Constants.HTTP_TIMEOUT_MS * 2);
-            connectionCryptsy.setReadTimeout(Constants.HTTP_TIMEOUT_MS * 2);
-            connectionCryptsy.connect();
-
-            final StringBuilder contentCryptsy = new StringBuilder();
-
-            Reader reader = null;
-            try
-            {
-                reader = new InputStreamReader(new BufferedInputStream(connectionCryptsy.getInputStream(), 1024));
-                Io.copy(reader, contentCryptsy);
-                final JSONObject head = new JSONObject(contentCryptsy.toString());
-                JSONObject returnObject = head.getJSONObject("return");
-                JSONObject markets = returnObject.getJSONObject("markets");
-                JSONObject coinInfo = markets.getJSONObject(CoinDefinition.coinTicker);
-
-
-
-                JSONArray recenttrades = coinInfo.getJSONArray("recenttrades");
-
-                double btcTraded = 0.0;
-                double coinTraded = 0.0;
-
-                for(int i = 0; i < recenttrades.length(); ++i)
-                {
-                    JSONObject trade = (JSONObject)recenttrades.get(i);
-
-                    btcTraded += trade.getDouble("total");
-                    coinTraded += trade.getDouble("quantity");
-
-                }
-
-                Double averageTrade = btcTraded / coinTraded;
-
-
-
-                //Double lastTrade = GLD.getDouble("lasttradeprice");
-
-
-
-                //String euros = String.format("%.7f", averageTrade);
-                // Fix things like 3,1250
-                //euros = euros.replace(",", ".");
-                //rates.put(currencyCryptsy, new ExchangeRate(currencyCryptsy, Utils.toNanoCoins(euros), URLCryptsy.getHost()));
-                if(currencyCryptsy.equalsIgnoreCase("BTC")) btcRate = averageTrade;
-                return btcRate;
-            }
-            finally
-            {
-                if (reader != null)
-                    reader.close();
-            }
-
-        }
-        catch (final IOException x)
-        {
-            x.printStackTrace();
-        }
-        catch (final JSONException x)
-        {
-            x.printStackTrace();
-        }
-
-        return null;
-    }
-
-    private static Object getCoinValueBTC_BTER()
-    {
-        //final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-        // Keep the LTC rate around for a bit
-        Double btcRate = 0.0;
-        String currency = CoinDefinition.cryptsyMarketCurrency;
-        String url = "http://data.bter.com/api/1/ticker/"+ CoinDefinition.coinTicker.toLowerCase() + "_" + CoinDefinition.cryptsyMarketCurrency.toLowerCase();
-
-
-
-
-
-        try {
-            // final String currencyCode = currencies[i];
-            final URL URL_bter = new URL(url);
-            final HttpURLConnection connection = (HttpURLConnection)URL_bter.openConnection();
-            connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS * 2);
-            connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS * 2);
-            connection.connect();
-
-            final StringBuilder content = new StringBuilder();
-
-            Reader reader = null;
-            try
-            {
-                reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024));
-                Io.copy(reader, content);
-                final JSONObject head = new JSONObject(content.toString());
-                String result = head.getString("result");
-                if(result.equals("true"))
-                {
-
-                    Double averageTrade = head.getDouble("avg");
-
-
-                    if(currency.equalsIgnoreCase("BTC"))
-                        btcRate = averageTrade;
-                }
-                return btcRate;
-            }
-            finally
-            {
-                if (reader != null)
-                    reader.close();
-            }
-
-        }
-        catch (final IOException x)
-        {
-            x.printStackTrace();
-        }
-        catch (final JSONException x)
-        {
-            x.printStackTrace();
-        }
-
-        return null;
-    }
-
-
-	private static Map<String, ExchangeRate> requestExchangeRates(final URL url, final String userAgent, final String source, final String... fields)
-	{
-		final long start = System.currentTimeMillis();
-
-		HttpURLConnection connection = null;
-		Reader reader = null;
-
-		try
-		{
-
-            Double btcRate = 0.0;
-            boolean cryptsyValue = true;
-            Object result = getCoinValueBTC();
-
-            if(result == null)
-            {
-                result = getCoinValueBTC_BTER();
-                cryptsyValue = false;
-                if(result == null)
-                    return null;
-            }
-
-            btcRate = (Double)result;
-
-
-			connection = (HttpURLConnection) url.openConnection();
-
-			connection.setInstanceFollowRedirects(false);
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.addRequestProperty("User-Agent", userAgent);
-			connection.addRequestProperty("Accept-Encoding", "gzip");
-			connection.connect();
-
-			final int responseCode = connection.getResponseCode();
-			if (responseCode == HttpURLConnection.HTTP_OK)
-			{
-				final String contentEncoding = connection.getContentEncoding();
-
-				InputStream is = new BufferedInputStream(connection.getInputStream(), 1024);
-				if ("gzip".equalsIgnoreCase(contentEncoding))
-					is = new GZIPInputStream(is);
-
-				reader = new InputStreamReader(is, Constants.UTF_8);
-				final StringBuilder content = new StringBuilder();
-				final long length = Io.copy(reader, content);
-
-				final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-
-				final JSONObject head = new JSONObject(content.toString());
-				for (final Iterator<String> i = head.keys(); i.hasNext();)
-				{
-					final String currencyCode = i.next();
-					if (!"timestamp".equals(currencyCode))
-					{
-						final JSONObject o = head.getJSONObject(currencyCode);
-
-						for (final String field : fields)
-						{
-							String rateStr = o.optString(field, null);
-
-							if (rateStr != null)
-							{
-								try
-								{
-                                    double rateForBTC = Double.parseDouble(rateStr);
-
-                                    rateStr = String.format("%.8f", rateForBTC * btcRate).replace(",", ".");
-
-									final BigInteger rate = GenericUtils.toNanoCoins_BTC(rateStr, 0);
-
-									if (rate.signum() > 0)
-									{
-										rates.put(currencyCode, new ExchangeRate(currencyCode, rate, source));
-										break;
-									}
-								}
-								catch (final ArithmeticException x)
-								{
-									log.warn("problem fetching {} exchange rate from {} ({}): {}", currencyCode, url, contentEncoding, x.getMessage());
-								}
-
-							}
-						}
-					}
-				}
-
-				log.info("fetched exchange rates from {} ({}), {} chars, took {} ms", url, contentEncoding, length, System.currentTimeMillis()
-						- start);
-
-                //Add Bitcoin information
-                if(rates.size() == 0)
-                {
-                    int i = 0;
-                    i++;
-                }
-                else
-                {
-                    rates.put(CoinDefinition.cryptsyMarketCurrency, new ExchangeRate(CoinDefinition.cryptsyMarketCurrency, GenericUtils.toNanoCoins_BTC(String.format("%.8f", btcRate).replace(",", "."), 0), cryptsyValue ? "pubapi.cryptsy.com" : "data.bter.com"));
-                    rates.put("m" + CoinDefinition.cryptsyMarketCurrency, new ExchangeRate("m" + CoinDefinition.cryptsyMarketCurrency, GenericUtils.toNanoCoins_BTC(String.format("%.5f", btcRate*1000).replace(",", "."), 0), cryptsyValue ? "pubapi.cryptsy.com" : "data.bter.com"));
-                }
-
-
-                return rates;
-			}
-			else
-			{
-				log.warn("http status {} when fetching {}", responseCode, url);
-			}
-		}
-		catch (final Exception x)
-		{
-			log.warn("problem fetching exchange rates from " + url, x);
-		}
-		finally
-		{
-
-			if (reader != null)
-			{
-				try
-				{
-					reader.close();
-				}
-				catch (final IOException x)
-				{
-					// swallow
-				}
-			}
-
-			if (connection != null)
-				connection.disconnect();
-		}
-
-		return null;
-	}
 }
@@ -18,13 +18,17 @@
 package de.schildbach.wallet;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import javax.annotation.Nonnull;
 
@@ -41,6 +45,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
@@ -80,20 +86,30 @@ public class WalletApplication extends Application
 {
 	private Configuration config;
 	private ActivityManager activityManager;
+	private AddressBookLabels addressBookLabels;
 
 	private Intent blockchainServiceIntent;
 	private Intent blockchainServiceCancelCoinsReceivedIntent;
 	private Intent blockchainServiceResetBlockchainIntent;
 
 	private File walletFile;
+	private WalletJournal walletJournal;
 	private Wallet wallet;
 	private PackageInfo packageInfo;
 
+	private final CountDownLatch walletReady = new CountDownLatch(1);
+	private volatile Throwable walletLoadFailure;
+	private final List<Runnable> walletReadyRunnables = new LinkedList<Runnable>();
+	private final Map<String, Long> startupPhases = new LinkedHashMap<String, Long>();
+	private final Handler handler = new Handler();
+
 	private static final Logger log = LoggerFactory.getLogger(WalletApplication.class);
 
 	@Override
 	public void onCreate()
 	{
+		final long start = System.currentTimeMillis();
+
 		new LinuxSecureRandom(); // init proper random number generator
 
 		initLogging();
@@ -122,6 +138,7 @@ public class WalletApplication extends Application
 
 		config = new Configuration(PreferenceManager.getDefaultSharedPreferences(this));
 		activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+		addressBookLabels = new AddressBookLabels(this);
 
 		blockchainServiceIntent = new Intent(this, BlockchainServiceImpl.class);
 		blockchainServiceCancelCoinsReceivedIntent = new Intent(BlockchainService.ACTION_CANCEL_COINS_RECEIVED, null, this,
@@ -129,18 +146,133 @@ public class WalletApplication extends Application
 		blockchainServiceResetBlockchainIntent = new Intent(BlockchainService.ACTION_RESET_BLOCKCHAIN, null, this, BlockchainServiceImpl.class);
 
 		walletFile = getFileStreamPath(Constants.WALLET_FILENAME_PROTOBUF);
+		walletJournal = new WalletJournal(Constants.NETWORK_PARAMETERS, walletFile, new WalletAutosaveEventListener());
 
-		loadWalletFromProtobuf();
-		wallet.autosaveToFile(walletFile, 1, TimeUnit.SECONDS, new WalletAutosaveEventListener());
+		config.updateLastVersionCode(packageInfo.versionCode);
 
-		// clean up spam
-		wallet.cleanup();
+		recordStartupPhase("init", start);
 
-		config.updateLastVersionCode(packageInfo.versionCode);
+		// the wallet can take seconds to parse, so don't keep the main thread from drawing meanwhile
+		final Thread walletLoader = new Thread("wallet loader")
+		{
+			@Override
+			public void run()
+			{
+				loadWallet(start);
+			}
+		};
+		walletLoader.setPriority(Thread.NORM_PRIORITY + 1);
+		walletLoader.start();
+	}
+
+	private void loadWallet(final long startedAt)
+	{
+		try
+		{
+			long start = System.currentTimeMillis();
+			loadWalletFromProtobuf();
+			recordStartupPhase("load", start);
+
+			// clean up spam
+			start = System.currentTimeMillis();
+			wallet.cleanup();
+			recordStartupPhase("cleanup", start);
+
+			start = System.currentTimeMillis();
+			try
+			{
+				walletJournal.start(wallet);
+			}
+			catch (final IOException x)
+			{
+				throw new Error("cannot write wallet", x);
+			}
+			recordStartupPhase("journal", start);
+
+			start = System.currentTimeMillis();
+			ensureKey();
+			migrateBackup();
+			recordStartupPhase("keys", start);
+
+			recordStartupPhase("ready", startedAt);
+			log.info("wallet ready, startup phases: {}", getStartupPhases());
+		}
+		catch (final RuntimeException x)
+		{
+			walletLoadFailure = x;
+			throw x;
+		}
+		catch (final Error x)
+		{
+			walletLoadFailure = x;
+			throw x;
+		}
+		finally
+		{
+			walletReady.countDown();
+
+			final List<Runnable> runnables;
+			synchronized (walletReadyRunnables)
+			{
+				runnables = new ArrayList<Runnable>(walletReadyRunnables);
+				walletReadyRunnables.clear();
+			}
+			if (walletLoadFailure == null)
+				for (final Runnable runnable : runnables)
+					handler.post(runnable);
+		}
+	}
+
+	private void recordStartupPhase(@Nonnull final String phase, final long start)
+	{
+		final long duration = System.currentTimeMillis() - start;
 
-		ensureKey();
+		synchronized (startupPhases)
+		{
+			startupPhases.put(phase, duration);
+		}
 
-		migrateBackup();
+		log.debug("startup phase {} took {} ms", phase, duration);
+	}
+
+	/**
+	 * @return durations of the startup phases completed so far, in the order they completed, e.g.
+	 *         {@code init=40ms load=1830ms cleanup=12ms journal=25ms keys=1ms ready=1910ms}, with {@code ready} counting
+	 *         from the start of {@link #onCreate()} until the wallet could be handed out
+	 */
+	public String getStartupPhases()
+	{
+		final StringBuilder builder = new StringBuilder();
+
+		synchronized (startupPhases)
+		{
+			for (final Map.Entry<String, Long> entry : startupPhases.entrySet())
+			{
+				if (builder.length() > 0)
+					builder.append(' ');
+				builder.append(entry.getKey()).append('=').append(entry.getValue()).append("ms");
+			}
+		}
+
+		return builder.toString();
+	}
+
+	@Override
+	public void onLowMemory()
+	{
+		super.onLowMemory();
+
+		// the process may be killed next
+		walletJournal.sync();
+	}
+
+	@Override
+	public void onTerminate()
+	{
+		// only called on emulators
+		walletJournal.stop();
+
+		super.onTerminate();
 	}
 
 	private void initLogging()
@@ -192,19 +324,45 @@ public class WalletApplication extends Application
 		log.setLevel(Level.INFO);
 	}
 
+	/**
+	 * Counts and times writes of the wallet snapshot and syncs of its journal, separately per file.
+	 */
 	private static final class WalletAutosaveEventListener implements WalletFiles.Listener
 	{
+		// per file name: start of the current write, number of writes, total milliseconds
+		private final Map<String, long[]> stats = new HashMap<String, long[]>();
+
+		private static final int SYNC_REPORT_INTERVAL = 60;
+
 		@Override
-		public void onBeforeAutoSave(final File file)
+		public synchronized void onBeforeAutoSave(final File file)
 		{
+			long[] fileStats = stats.get(file.getName());
+			if (fileStats == null)
+			{
+				fileStats = new long[3];
+				stats.put(file.getName(), fileStats);
+			}
+			fileStats[0] = System.currentTimeMillis();
 		}
 
 		@Override
-		public void onAfterAutoSave(final File file)
+		public synchronized void onAfterAutoSave(final File file)
 		{
 			// make wallets world accessible in test mode
 			if (Constants.TEST)
 				Io.chmod(file, 0777);
+
+			final long[] fileStats = stats.get(file.getName());
+			final long duration = System.currentTimeMillis() - fileStats[0];
+			fileStats[1]++;
+			fileStats[2] += duration;
+
+			// snapshots are rare, journal syncs are not
+			if (file.getName().equals(Constants.WALLET_FILENAME_PROTOBUF) || fileStats[1] % SYNC_REPORT_INTERVAL == 0)
+				log.info("{} saved, took {} ms, {} saves so far taking {} ms", file.getName(), duration, fileStats[1], fileStats[2]);
+			else
+				log.debug("{} saved, took {} ms", file.getName(), duration);
 		}
 	}
 
@@ -213,32 +371,111 @@ public class WalletApplication extends Application
 		return config;
 	}
 
+	/**
+	 * Waits for the wallet to be loaded, if it isn't yet. Callers on the main thread should check
+	 * {@link #isWalletReady()} first, or defer their work with {@link #onWalletReady(Runnable)}.
+	 */
 	public Wallet getWallet()
 	{
+		if (walletReady.getCount() > 0)
+		{
+			final long start = System.currentTimeMillis();
+			boolean interrupted = false;
+
+			while (true)
+			{
+				try
+				{
+					walletReady.await();
+					break;
+				}
+				catch (final InterruptedException x)
+				{
+					interrupted = true;
+				}
+			}
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+
+			log.info("thread '{}' waited {} ms for the wallet", Thread.currentThread().getName(), System.currentTimeMillis() - start);
+		}
+
+		if (walletLoadFailure != null)
+			throw new IllegalStateException("wallet failed to load", walletLoadFailure);
+
 		return wallet;
 	}
 
+	public boolean isWalletReady()
+	{
+		return walletReady.getCount() == 0 && walletLoadFailure == null;
+	}
+
+	/**
+	 * Runs the given runnable on the main thread once the wallet is loaded. If it is already and the caller is on the main
+	 * thread, runs it right away.
+	 */
+	public void onWalletReady(@Nonnull final Runnable runnable)
+	{
+		synchronized (walletReadyRunnables)
+		{
+			if (walletReady.getCount() > 0)
+			{
+				walletReadyRunnables.add(runnable);
+				return;
+			}
+		}
+
+		if (walletLoadFailure != null)
+			return;
+
+		if (Looper.myLooper() == Looper.getMainLooper())
+			runnable.run();
+		else
+			handler.post(runnable);
+	}
+
+	/**
+	 * Drops a runnable passed to {@link #onWalletReady(Runnable)} that has not run yet.
+	 */
+	public void cancelWalletReady(@Nonnull final Runnable runnable)
+	{
+		synchronized (walletReadyRunnables)
+		{
+			walletReadyRunnables.remove(runnable);
+		}
+
+		handler.removeCallbacks(runnable);
+	}
+
+	public WalletJournal getWalletJournal()
+	{
+		return walletJournal;
+	}
+
+	public AddressBookLabels getAddressBookLabels()
+	{
+		return addressBookLabels;
+	}
+
 	private void loadWalletFromProtobuf()
 	{
 		if (walletFile.exists())
 		{
 			final long start = System.currentTimeMillis();
 
-			FileInputStream walletStream = null;
-
 			try
 			{
-				walletStream = new FileInputStream(walletFile);
-
-				wallet = new WalletProtobufSerializer().readWallet(walletStream);
+				wallet = walletJournal.load();
 
 				log.info("wallet loaded from: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
 			}
-			catch (final FileNotFoundException x)
+			catch (final IOException x)
 			{
 				log.error("problem loading wallet", x);
 
-				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+				longToast(x.getClass().getName());
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -246,28 +483,14 @@ public class WalletApplication extends Application
 			{
 				log.error("problem loading wallet", x);
 
-				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+				longToast(x.getClass().getName());
 
 				wallet = restoreWalletFromBackup();
 			}
-			finally
-			{
-				if (walletStream != null)
-				{
-					try
-					{
-						walletStream.close();
-					}
-					catch (final IOException x)
-					{
-						// swallow
-					}
-				}
-			}
 
 			if (!wallet.isConsistent())
 			{
-				Toast.makeText(this, "inconsistent wallet: " + walletFile, Toast.LENGTH_LONG).show();
+				longToast("inconsistent wallet: " + walletFile);
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -288,6 +511,19 @@ public class WalletApplication extends Application
 				throw new Error("found read-only key, but wallet is likely an encrypted wallet from the future");
 	}
 
+	private void longToast(@Nonnull final String text)
+	{
+		// the wallet is loaded off the main thread
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Toast.makeText(WalletApplication.this, text, Toast.LENGTH_LONG).show();
+			}
+		});
+	}
+
 	private Wallet restoreWalletFromBackup()
 	{
 		InputStream is = null;
@@ -303,7 +539,7 @@ public class WalletApplication extends Application
 
 			resetBlockchain();
 
-			Toast.makeText(this, R.string.toast_wallet_reset, Toast.LENGTH_LONG).show();
+			longToast(getString(R.string.toast_wallet_reset));
 
 			log.info("wallet restored from backup: '" + Constants.WALLET_KEY_BACKUP_PROTOBUF + "'");
 
@@ -337,10 +573,15 @@ public class WalletApplication extends Application
 				return; // found
 
 		log.info("wallet has no usable key - creating");
-		addNewKeyToWallet();
+		addNewKeyToWallet(wallet);
 	}
 
 	public void addNewKeyToWallet()
+	{
+		addNewKeyToWallet(getWallet());
+	}
+
+	private void addNewKeyToWallet(@Nonnull final Wallet wallet)
 	{
 		wallet.addKey(new ECKey());
 
@@ -353,7 +594,7 @@ public class WalletApplication extends Application
 	{
 		try
 		{
-			protobufSerializeWallet(wallet);
+			protobufSerializeWallet();
 		}
 		catch (final IOException x)
 		{
@@ -361,15 +602,12 @@ public class WalletApplication extends Application
 		}
 	}
 
-	private void protobufSerializeWallet(@Nonnull final Wallet wallet) throws IOException
+	private void protobufSerializeWallet() throws IOException
 	{
 		final long start = System.currentTimeMillis();
 
-		wallet.saveToFile(walletFile);
-
-		// make wallets world accessible in test mode
-		if (Constants.TEST)
-			Io.chmod(walletFile, 0777);
+		// snapshot listener makes wallets world accessible in test mode
+		walletJournal.compact();
 
 		log.debug("wallet saved to: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
 	}
@@ -451,6 +689,7 @@ public class WalletApplication extends Application
 	public Address determineSelectedAddress()
 	{
 		final String selectedAddress = config.getSelectedAddress();
+		final Wallet wallet = getWallet();
 
 		Address firstAddress = null;
 		for (final ECKey key : wallet.getKeys())
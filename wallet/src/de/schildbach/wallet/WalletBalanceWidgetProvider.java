@@ -62,7 +62,8 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 			@Nonnull final BigInteger balance)
 	{
 		final Configuration config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context));
-		final Editable balanceStr = new SpannableStringBuilder(GenericUtils.formatValue(balance, config.getBtcPrecision(), config.getBtcShift()));
+		final Editable balanceStr = new SpannableStringBuilder(GenericUtils.formatValue(new StringBuilder(), balance.longValue(), "", "-",
+				config.getBtcPrecision(), config.getBtcShift()));
 		WalletUtils.formatSignificant(balanceStr, WalletUtils.SMALLER_SPAN);
 
 		for (final int appWidgetId : appWidgetIds)
@@ -0,0 +1,929 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.BlockChain;
+import com.google.bitcoin.core.BlockChainListener;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.store.UnreadableWalletException;
+import com.google.bitcoin.store.WalletProtobufSerializer;
+import com.google.bitcoin.wallet.WalletFiles;
+
+/**
+ * Persists the wallet as a protobuf snapshot plus an append-only journal of what changed it since: the block chain
+ * callbacks it got and the pending transactions it learned about. Appending a record is cheap, so the wallet no longer
+ * needs to be serialized in full whenever it changes, which during a chain replay is about once a second.
+ *
+ * On load, the journal is replayed into the wallet read from the snapshot, through the same methods that received the
+ * changes in the first place. A new snapshot is written in the background once the journal has grown enough, when keys
+ * were added, or every few minutes if the wallet changed in ways the journal does not cover. The snapshot keeps the
+ * format and file name of a plain wallet file.
+ *
+ * Every journal starts with the hash of the snapshot it applies to. Compaction renames the current journal aside and
+ * opens a new one before the new snapshot is written, and deletes the old journal only once the snapshot has replaced
+ * the previous one. So after a crash at any point, load can tell which journals belong to the snapshot on disk. A torn
+ * record at the end of a journal is detected by its checksum and cut off.
+ *
+ * A journal that was renamed aside is kept until a snapshot containing it is in place, also across restarts. While it
+ * exists, compaction never renames over it, but writes the snapshot first and only then starts a new journal.
+ */
+public final class WalletJournal
+{
+	private final NetworkParameters params;
+	private final File snapshotFile;
+	private final File journalFile;
+	private final File compactingFile;
+	@CheckForNull
+	private final WalletFiles.Listener listener;
+
+	@CheckForNull
+	private Wallet wallet;
+	@CheckForNull
+	private Wallet loadedWallet;
+	@CheckForNull
+	private Sha256Hash loadedBase;
+	private long loadedLength;
+	private boolean compactingInUse = false; // compacting file holds records the snapshot on disk does not
+
+	@CheckForNull
+	private DataOutputStream journal;
+	@CheckForNull
+	private FileOutputStream journalStream;
+	private int records = 0;
+	private long bytes = 0;
+	private boolean unsynced = false;
+	private int unsyncedBlocks = 0;
+	private long lastSync = System.currentTimeMillis();
+	private volatile boolean replaying = false;
+	private boolean changedSinceSnapshot = false;
+	private boolean midBlock = false; // transactions of a best chain block seen, but not the block itself yet
+	private final Object compactionLock = new Object();
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(final Runnable runnable)
+		{
+			final Thread thread = new Thread(runnable, "wallet journal");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final int FILE_MAGIC = 0x514a524e; // "QJRN"
+	private static final int FILE_VERSION = 1;
+	private static final int FILE_HEADER_SIZE = 4 + 4 + 32;
+	private static final int MAX_RECORD_SIZE = 4 * 1024 * 1024;
+
+	private static final byte RECORD_BLOCK_TRANSACTION = 1;
+	private static final byte RECORD_TRANSACTION_IN_BLOCK = 2;
+	private static final byte RECORD_NEW_BEST_BLOCK = 3;
+	private static final byte RECORD_REORGANIZE = 4;
+	private static final byte RECORD_PENDING_TRANSACTION = 5;
+	private static final byte RECORD_TRANSACTION_IN_BLOCK_FULL = 6;
+
+	private static final int COMPACT_RECORDS = 10000;
+	private static final long COMPACT_BYTES = 4 * 1024 * 1024;
+	private static final long COMPACT_INTERVAL_MS = 5 * 60 * 1000;
+	private static final long SYNC_INTERVAL_MS = 1000;
+	private static final int REPLAY_SYNC_BLOCKS = 2000;
+	private static final long REPLAY_SYNC_INTERVAL_MS = 30 * 1000;
+	private static final long MID_BLOCK_WAIT_MS = 10 * 1000;
+
+	private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+	/**
+	 * @param listener
+	 *            called before and after each snapshot is written and each time the journal is synced to disk, with the
+	 *            file concerned
+	 */
+	public WalletJournal(@Nonnull final NetworkParameters params, @Nonnull final File snapshotFile,
+			@CheckForNull final WalletFiles.Listener listener)
+	{
+		this.params = params;
+		this.snapshotFile = snapshotFile;
+		this.journalFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".journal");
+		this.compactingFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".journal-compacting");
+		this.listener = listener;
+	}
+
+	/**
+	 * Reads the snapshot and replays the journals that belong to it.
+	 */
+	public Wallet load() throws IOException, UnreadableWalletException
+	{
+		final long start = System.currentTimeMillis();
+
+		final byte[] snapshot = readFully(snapshotFile);
+		final Sha256Hash snapshotHash = Sha256Hash.create(snapshot);
+		final Wallet wallet = new WalletProtobufSerializer().readWallet(new ByteArrayInputStream(snapshot));
+
+		final Sha256Hash compactingBase = readBase(compactingFile);
+		final Sha256Hash journalBase = readBase(journalFile);
+		int replayed = 0;
+
+		synchronized (this)
+		{
+			loadedWallet = wallet;
+			loadedBase = null;
+			compactingInUse = false;
+
+			if (snapshotHash.equals(compactingBase))
+			{
+				// died while compacting, before the new snapshot was in place; both journals stay until one is
+				replayed += replay(compactingFile, wallet)[0];
+				if (journalBase != null)
+					replayed += replay(journalFile, wallet)[0];
+				compactingInUse = true;
+			}
+			else if (snapshotHash.equals(journalBase))
+			{
+				final long[] result = replay(journalFile, wallet);
+				replayed += result[0];
+				loadedBase = snapshotHash;
+				loadedLength = result[1];
+			}
+			else if (journalBase != null || compactingBase != null)
+			{
+				log.warn("wallet journal does not belong to snapshot, ignoring it");
+			}
+		}
+
+		log.info("wallet loaded from snapshot plus {} journal records, took {} ms", replayed, System.currentTimeMillis() - start);
+
+		return wallet;
+	}
+
+	/**
+	 * Starts journaling changes of the given wallet. If it is not the one returned by {@link #load}, or the journal could
+	 * not be continued, a snapshot is written first.
+	 */
+	public void start(@Nonnull final Wallet wallet) throws IOException
+	{
+		final boolean continueJournal;
+
+		synchronized (this)
+		{
+			this.wallet = wallet;
+			continueJournal = wallet == loadedWallet && loadedBase != null;
+			loadedWallet = null;
+
+			if (continueJournal)
+				openJournal(loadedLength);
+		}
+
+		if (!continueJournal)
+			compact();
+		else if (loadedLength > FILE_HEADER_SIZE)
+			requestCompaction(); // so the records are not replayed again on the next load
+
+		wallet.addEventListener(walletListener);
+
+		executor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				maybeSync();
+			}
+		}, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+		executor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final boolean changed;
+				synchronized (WalletJournal.this)
+				{
+					// during a replay, only the size of the journal triggers a snapshot
+					changed = changedSinceSnapshot && !replaying;
+				}
+
+				if (changed)
+					compactQuietly();
+			}
+		}, COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops journaling, after waiting for background work to finish, and closes the journal. Later changes of the wallet
+	 * are not persisted.
+	 */
+	public void stop()
+	{
+		executor.shutdown();
+		try
+		{
+			executor.awaitTermination(2 * MID_BLOCK_WAIT_MS, TimeUnit.MILLISECONDS);
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (compactionLock)
+		{
+			synchronized (this)
+			{
+				if (wallet != null)
+					wallet.removeEventListener(walletListener);
+
+				try
+				{
+					closeJournal();
+				}
+				catch (final IOException x)
+				{
+					log.warn("problem closing wallet journal", x);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return listener to add to the block chain instead of the wallet itself, passing everything on to the wallet
+	 */
+	public BlockChainListener getBlockChainListener()
+	{
+		return blockChainListener;
+	}
+
+	/**
+	 * Writes a snapshot of the wallet and starts a new journal on top of it. Blocks until the snapshot is on disk.
+	 */
+	public void compact() throws IOException
+	{
+		synchronized (compactionLock)
+		{
+			final long start = System.currentTimeMillis();
+			final byte[] snapshot;
+			final int compactedRecords;
+
+			synchronized (this)
+			{
+				// a snapshot in the middle of a block would count the block twice on replay
+				final long deadline = System.currentTimeMillis() + MID_BLOCK_WAIT_MS;
+				while (midBlock && System.currentTimeMillis() < deadline)
+				{
+					try
+					{
+						wait(deadline - System.currentTimeMillis());
+					}
+					catch (final InterruptedException x)
+					{
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+
+				snapshot = new WalletProtobufSerializer().walletToProto(wallet).toByteArray();
+				compactedRecords = records;
+
+				if (compactingInUse)
+				{
+					// a previous compaction did not finish, so the journal cannot be renamed aside; changes are held off
+					// until the snapshot is in place, and both journals are dropped only then
+					writeSnapshot(snapshot);
+
+					closeJournal();
+					createJournal(Sha256Hash.create(snapshot));
+					compactingFile.delete();
+					compactingInUse = false;
+					changedSinceSnapshot = false;
+
+					log.info("wallet snapshot of {} bytes written over unfinished compaction, took {} ms", snapshot.length,
+							System.currentTimeMillis() - start);
+					return;
+				}
+
+				// left over from a compaction that did finish
+				compactingFile.delete();
+
+				if (journal != null)
+				{
+					closeJournal();
+					if (!journalFile.renameTo(compactingFile))
+					{
+						// keep journaling on top of the snapshot on disk
+						openJournal(journalFile.length());
+						throw new IOException("cannot rename " + journalFile + " to " + compactingFile);
+					}
+					compactingInUse = true;
+				}
+				createJournal(Sha256Hash.create(snapshot));
+				changedSinceSnapshot = false;
+			}
+
+			writeSnapshot(snapshot);
+
+			synchronized (this)
+			{
+				compactingFile.delete();
+				compactingInUse = false;
+			}
+
+			log.info("wallet snapshot of {} bytes written, {} journal records compacted, took {} ms", snapshot.length, compactedRecords,
+					System.currentTimeMillis() - start);
+		}
+	}
+
+	private void writeSnapshot(@Nonnull final byte[] snapshot) throws IOException
+	{
+		if (listener != null)
+			listener.onBeforeAutoSave(snapshotFile);
+
+		final File tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+		final FileOutputStream os = new FileOutputStream(tempFile);
+		try
+		{
+			os.write(snapshot);
+			os.flush();
+			os.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+		if (!tempFile.renameTo(snapshotFile))
+			throw new IOException("cannot rename " + tempFile + " to " + snapshotFile);
+
+		if (listener != null)
+			listener.onAfterAutoSave(snapshotFile);
+	}
+
+	/**
+	 * While the block chain is replaying blocks the wallet has seen before, the journal is synced to disk only every
+	 * {@link #REPLAY_SYNC_BLOCKS} blocks or {@link #REPLAY_SYNC_INTERVAL_MS}, rather than every second, and the wallet is
+	 * not snapshotted for changes the journal does not cover. Pending transactions are synced right away regardless.
+	 * 
+	 * Does not block, so it can be called on the main thread. The sync on leaving replay mode happens in the background.
+	 */
+	public void setReplaying(final boolean replaying)
+	{
+		if (replaying == this.replaying)
+			return;
+
+		log.info("wallet journal {} replay mode", replaying ? "entering" : "leaving");
+		this.replaying = replaying;
+
+		if (!replaying)
+		{
+			try
+			{
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						sync();
+					}
+				});
+			}
+			catch (final RejectedExecutionException x)
+			{
+				// stopped, the journal is closed already
+			}
+		}
+	}
+
+	/**
+	 * Forces journal records written so far to disk.
+	 */
+	public synchronized void sync()
+	{
+		if (!unsynced || journal == null)
+			return;
+
+		if (listener != null)
+			listener.onBeforeAutoSave(journalFile);
+
+		try
+		{
+			journal.flush();
+			journalStream.getFD().sync();
+			unsynced = false;
+			unsyncedBlocks = 0;
+			lastSync = System.currentTimeMillis();
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem syncing wallet journal", x);
+		}
+
+		if (listener != null)
+			listener.onAfterAutoSave(journalFile);
+	}
+
+	private synchronized void maybeSync()
+	{
+		if (!replaying || unsyncedBlocks >= REPLAY_SYNC_BLOCKS || System.currentTimeMillis() - lastSync >= REPLAY_SYNC_INTERVAL_MS)
+			sync();
+	}
+
+	private void compactQuietly()
+	{
+		try
+		{
+			compact();
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem compacting wallet journal", x);
+		}
+	}
+
+	private void requestCompaction()
+	{
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				compactQuietly();
+			}
+		});
+	}
+
+	private final BlockChainListener blockChainListener = new BlockChainListener()
+	{
+		@Override
+		public void notifyNewBestBlock(final StoredBlock block) throws VerificationException
+		{
+			synchronized (WalletJournal.this)
+			{
+				wallet.notifyNewBestBlock(block);
+
+				final ByteBuffer record = record(RECORD_NEW_BEST_BLOCK, StoredBlock.COMPACT_SERIALIZED_SIZE);
+				block.serializeCompact(record);
+				append(record);
+				unsyncedBlocks++;
+
+				midBlock = false;
+				WalletJournal.this.notifyAll();
+			}
+		}
+
+		@Override
+		public void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks, final List<StoredBlock> newBlocks)
+				throws VerificationException
+		{
+			synchronized (WalletJournal.this)
+			{
+				wallet.reorganize(splitPoint, oldBlocks, newBlocks);
+
+				final ByteBuffer record = record(RECORD_REORGANIZE, (1 + oldBlocks.size() + newBlocks.size()) * StoredBlock.COMPACT_SERIALIZED_SIZE
+						+ 4 + 4);
+				splitPoint.serializeCompact(record);
+				putBlocks(record, oldBlocks);
+				putBlocks(record, newBlocks);
+				append(record);
+
+				midBlock = false;
+				WalletJournal.this.notifyAll();
+			}
+		}
+
+		@Override
+		public boolean isTransactionRelevant(final Transaction tx) throws ScriptException
+		{
+			return wallet.isTransactionRelevant(tx);
+		}
+
+		@Override
+		public void receiveFromBlock(final Transaction tx, final StoredBlock block, final BlockChain.NewBlockType blockType,
+				final int relativityOffset) throws VerificationException
+		{
+			synchronized (WalletJournal.this)
+			{
+				wallet.receiveFromBlock(tx, block, blockType, relativityOffset);
+
+				final byte[] txBytes = tx.bitcoinSerialize();
+				final ByteBuffer record = record(RECORD_BLOCK_TRANSACTION, StoredBlock.COMPACT_SERIALIZED_SIZE + 1 + 4 + txBytes.length);
+				block.serializeCompact(record);
+				record.put((byte) blockType.ordinal());
+				record.putInt(relativityOffset);
+				record.put(txBytes);
+				append(record);
+
+				if (blockType == BlockChain.NewBlockType.BEST_CHAIN)
+					midBlock = true;
+			}
+		}
+
+		@Override
+		public boolean notifyTransactionIsInBlock(final Sha256Hash txHash, final StoredBlock block, final BlockChain.NewBlockType blockType,
+				final int relativityOffset) throws VerificationException
+		{
+			synchronized (WalletJournal.this)
+			{
+				final boolean found = wallet.notifyTransactionIsInBlock(txHash, block, blockType, relativityOffset);
+				if (found)
+				{
+					// the whole transaction, as its pending record may be written late or not at all
+					final byte[] txBytes = wallet.getTransaction(txHash).bitcoinSerialize();
+					final ByteBuffer record = record(RECORD_TRANSACTION_IN_BLOCK_FULL, StoredBlock.COMPACT_SERIALIZED_SIZE + 1 + 4
+							+ txBytes.length);
+					block.serializeCompact(record);
+					record.put((byte) blockType.ordinal());
+					record.putInt(relativityOffset);
+					record.put(txBytes);
+					append(record);
+
+					if (blockType == BlockChain.NewBlockType.BEST_CHAIN)
+						midBlock = true;
+				}
+				return found;
+			}
+		}
+	};
+
+	private final AbstractWalletEventListener walletListener = new AbstractWalletEventListener()
+	{
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			maybeAppendPending(tx);
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			maybeAppendPending(tx);
+		}
+
+		@Override
+		public void onKeysAdded(final Wallet wallet, final List<ECKey> keys)
+		{
+			// keys are too valuable to leave to a journal, and rarely added
+			requestCompaction();
+		}
+
+		@Override
+		public void onWalletChanged(final Wallet wallet)
+		{
+			synchronized (WalletJournal.this)
+			{
+				changedSinceSnapshot = true;
+			}
+		}
+
+		private void maybeAppendPending(final Transaction tx)
+		{
+			if (tx.getConfidence().getConfidenceType() != ConfidenceType.PENDING)
+				return;
+
+			synchronized (WalletJournal.this)
+			{
+				final byte[] txBytes = tx.bitcoinSerialize();
+				final ByteBuffer record = record(RECORD_PENDING_TRANSACTION, txBytes.length);
+				record.put(txBytes);
+				append(record);
+
+				// own sends and fresh receives are not left to the timer
+				sync();
+			}
+		}
+	};
+
+	private static ByteBuffer record(final byte type, final int size)
+	{
+		final ByteBuffer record = ByteBuffer.allocate(1 + size);
+		record.put(type);
+		return record;
+	}
+
+	private static void putBlocks(@Nonnull final ByteBuffer record, @Nonnull final List<StoredBlock> blocks)
+	{
+		record.putInt(blocks.size());
+		for (final StoredBlock block : blocks)
+			block.serializeCompact(record);
+	}
+
+	private void append(@Nonnull final ByteBuffer record)
+	{
+		if (journal == null)
+		{
+			// the next snapshot will contain the change
+			changedSinceSnapshot = true;
+			return;
+		}
+
+		final byte[] payload = record.array();
+		final CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		try
+		{
+			journal.writeInt(payload.length);
+			journal.writeInt((int) crc.getValue());
+			journal.write(payload);
+			// survives the process being killed, syncing to disk is left to the timer
+			journal.flush();
+
+			records++;
+			bytes += 8 + payload.length;
+			unsynced = true;
+		}
+		catch (final IOException x)
+		{
+			// the next snapshot will contain the change
+			log.warn("problem appending to wallet journal", x);
+			changedSinceSnapshot = true;
+		}
+
+		if (records == COMPACT_RECORDS || (bytes >= COMPACT_BYTES && bytes - 8 - payload.length < COMPACT_BYTES))
+			requestCompaction();
+	}
+
+	/**
+	 * @return number of records replayed and length of the intact part of the journal
+	 */
+	private long[] replay(@Nonnull final File file, @Nonnull final Wallet wallet) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		long length = FILE_HEADER_SIZE;
+		int replayed = 0;
+
+		try
+		{
+			is.skipBytes(FILE_HEADER_SIZE);
+
+			while (true)
+			{
+				final int size;
+				try
+				{
+					size = is.readInt();
+				}
+				catch (final EOFException x)
+				{
+					break;
+				}
+
+				if (size <= 0 || size > MAX_RECORD_SIZE)
+				{
+					log.warn("wallet journal {} has a bad record at {}, ignoring the rest", file, length);
+					break;
+				}
+
+				final int checksum;
+				final byte[] payload = new byte[size];
+				try
+				{
+					checksum = is.readInt();
+					is.readFully(payload);
+				}
+				catch (final EOFException x)
+				{
+					log.info("wallet journal {} ends with a torn record at {}", file, length);
+					break;
+				}
+
+				final CRC32 crc = new CRC32();
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum)
+				{
+					log.warn("wallet journal {} has a corrupt record at {}, ignoring the rest", file, length);
+					break;
+				}
+
+				try
+				{
+					apply(ByteBuffer.wrap(payload), wallet);
+				}
+				catch (final VerificationException x)
+				{
+					log.warn("wallet journal " + file + " has a record at " + length + " that cannot be applied, ignoring the rest", x);
+					break;
+				}
+				catch (final RuntimeException x)
+				{
+					log.warn("wallet journal " + file + " has a record at " + length + " that cannot be applied, ignoring the rest", x);
+					break;
+				}
+
+				length += 8 + size;
+				replayed++;
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+
+		return new long[] { replayed, length };
+	}
+
+	private void apply(@Nonnull final ByteBuffer record, @Nonnull final Wallet wallet) throws VerificationException
+	{
+		final byte type = record.get();
+
+		if (type == RECORD_BLOCK_TRANSACTION)
+		{
+			final StoredBlock block = StoredBlock.deserializeCompact(params, record);
+			final BlockChain.NewBlockType blockType = BlockChain.NewBlockType.values()[record.get()];
+			final int relativityOffset = record.getInt();
+			wallet.receiveFromBlock(new Transaction(params, remaining(record)), block, blockType, relativityOffset);
+		}
+		else if (type == RECORD_TRANSACTION_IN_BLOCK)
+		{
+			final StoredBlock block = StoredBlock.deserializeCompact(params, record);
+			final BlockChain.NewBlockType blockType = BlockChain.NewBlockType.values()[record.get()];
+			final int relativityOffset = record.getInt();
+			wallet.notifyTransactionIsInBlock(new Sha256Hash(remaining(record)), block, blockType, relativityOffset);
+		}
+		else if (type == RECORD_TRANSACTION_IN_BLOCK_FULL)
+		{
+			final StoredBlock block = StoredBlock.deserializeCompact(params, record);
+			final BlockChain.NewBlockType blockType = BlockChain.NewBlockType.values()[record.get()];
+			final int relativityOffset = record.getInt();
+			final Transaction tx = new Transaction(params, remaining(record));
+			if (wallet.getTransaction(tx.getHash()) != null)
+				wallet.notifyTransactionIsInBlock(tx.getHash(), block, blockType, relativityOffset);
+			else
+				wallet.receiveFromBlock(tx, block, blockType, relativityOffset);
+		}
+		else if (type == RECORD_NEW_BEST_BLOCK)
+		{
+			wallet.notifyNewBestBlock(StoredBlock.deserializeCompact(params, record));
+		}
+		else if (type == RECORD_REORGANIZE)
+		{
+			final StoredBlock splitPoint = StoredBlock.deserializeCompact(params, record);
+			final List<StoredBlock> oldBlocks = getBlocks(record);
+			final List<StoredBlock> newBlocks = getBlocks(record);
+			wallet.reorganize(splitPoint, oldBlocks, newBlocks);
+		}
+		else if (type == RECORD_PENDING_TRANSACTION)
+		{
+			final Transaction tx = new Transaction(params, remaining(record));
+			// may have been confirmed, also by a record written before this one, or be in the snapshot already
+			if (wallet.getTransaction(tx.getHash()) == null)
+				wallet.receivePending(tx, null);
+		}
+		else
+		{
+			throw new ProtocolException("unknown wallet journal record type: " + type);
+		}
+	}
+
+	private List<StoredBlock> getBlocks(@Nonnull final ByteBuffer record) throws ProtocolException
+	{
+		final int count = record.getInt();
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(count);
+		for (int i = 0; i < count; i++)
+			blocks.add(StoredBlock.deserializeCompact(params, record));
+		return blocks;
+	}
+
+	private static byte[] remaining(@Nonnull final ByteBuffer record)
+	{
+		final byte[] bytes = new byte[record.remaining()];
+		record.get(bytes);
+		return bytes;
+	}
+
+	private void createJournal(@Nonnull final Sha256Hash base) throws IOException
+	{
+		final DataOutputStream os = new DataOutputStream(new FileOutputStream(journalFile));
+		try
+		{
+			os.writeInt(FILE_MAGIC);
+			os.writeInt(FILE_VERSION);
+			os.write(base.getBytes());
+		}
+		finally
+		{
+			os.close();
+		}
+
+		openJournal(FILE_HEADER_SIZE);
+	}
+
+	private void openJournal(final long length) throws IOException
+	{
+		// cut off a torn record
+		final RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+		try
+		{
+			file.setLength(length);
+		}
+		finally
+		{
+			file.close();
+		}
+
+		journalStream = new FileOutputStream(journalFile, true);
+		journal = new DataOutputStream(new BufferedOutputStream(journalStream));
+		records = 0;
+		bytes = length - FILE_HEADER_SIZE;
+		unsynced = false;
+	}
+
+	private void closeJournal() throws IOException
+	{
+		if (journal == null)
+			return;
+
+		journal.flush();
+		journalStream.getFD().sync();
+		journal.close();
+		journal = null;
+		journalStream = null;
+	}
+
+	@CheckForNull
+	private static Sha256Hash readBase(@Nonnull final File file) throws IOException
+	{
+		if (!file.exists())
+			return null;
+
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			if (is.readInt() != FILE_MAGIC || is.readInt() != FILE_VERSION)
+				return null;
+
+			final byte[] base = new byte[32];
+			is.readFully(base);
+			return new Sha256Hash(base);
+		}
+		catch (final EOFException x)
+		{
+			return null;
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static byte[] readFully(@Nonnull final File file) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			final byte[] bytes = new byte[(int) file.length()];
+			is.readFully(bytes);
+			return bytes;
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+}
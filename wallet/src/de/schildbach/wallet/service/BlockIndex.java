@@ -0,0 +1,625 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.AbstractBlockChainListener;
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+
+import de.schildbach.wallet.util.QuarkHash;
+
+/**
+ * Index of all headers of the best chain since it was created, kept next to the {@link com.google.bitcoin.store.SPVBlockStore}
+ * which only holds a window of recent headers.
+ *
+ * The records file holds one fixed-size record per height: the block hash followed by the compact serialization of the
+ * stored block. It only ever grows at the end; a reorganization rewrites the records above the split point. A second
+ * file is an open-addressing hash table from block hash to height. Both files are memory-mapped, so lookups by height
+ * and by hash are O(1). Stale hash table entries left behind by a reorganization are detected by comparing with the
+ * record, and the table is rebuilt from the records whenever it is missing or gets too full.
+ *
+ * Blocks read from the index carry the hash stored in their record. Unlike {@link StoredBlock#deserializeCompact}, which
+ * parses the header and thereby runs the proof of work hash again, reading a block never hashes. Because of that, lookups
+ * by hash only trust records that are known to be intact: records written before the last clean {@link #close}, records
+ * written since opening, and records checked by {@link #verify}. Records left behind by a process that was killed are
+ * hashed again in batches before they are trusted.
+ */
+public final class BlockIndex extends AbstractBlockChainListener
+{
+	private final NetworkParameters params;
+	private final File recordsFile;
+	private final File hashesFile;
+
+	private RandomAccessFile records;
+	private MappedByteBuffer recordsBuffer;
+	private RandomAccessFile hashes;
+	private MappedByteBuffer hashesBuffer;
+	private int hashesMask;
+
+	private int baseHeight;
+	private int count;
+	private int verified; // records below are trusted
+	private int durable; // records below were forced to disk by a clean close
+	private int generation; // bumped whenever records are rewritten
+	private boolean closed = false;
+	@CheckForNull
+	private BlockStore blockStore; // to fill gaps from
+
+	private static final int FILE_MAGIC = 0x51494458; // "QIDX"
+	private static final int FILE_VERSION = 2;
+	private static final int HASH_SIZE = 32;
+	private static final int RECORD_SIZE = HASH_SIZE + StoredBlock.COMPACT_SERIALIZED_SIZE;
+	private static final int HEADER_SIZE = RECORD_SIZE; // keeps records aligned
+	private static final int GROW_RECORDS = 16384;
+	private static final int MIN_HASH_SLOTS = 32768;
+	private static final int VERIFY_BATCH = 256;
+
+	private static final Logger log = LoggerFactory.getLogger(BlockIndex.class);
+
+	public BlockIndex(@Nonnull final NetworkParameters params, @Nonnull final File file) throws IOException
+	{
+		this.params = params;
+		this.recordsFile = file;
+		this.hashesFile = hashesFile(file);
+
+		openRecords();
+		openHashes();
+	}
+
+	/**
+	 * Fills an empty index with whatever the block store still has, walking back from the given chain head. The block
+	 * store is also used later on to fill gaps, e.g. after {@link #verify} truncated the index.
+	 */
+	public synchronized void seed(@Nonnull final StoredBlock chainHead, @Nonnull final BlockStore blockStore)
+	{
+		this.blockStore = blockStore;
+
+		if (count > 0)
+			return;
+
+		final LinkedList<StoredBlock> blocks = new LinkedList<StoredBlock>();
+		try
+		{
+			for (StoredBlock block = chainHead; block != null; block = block.getPrev(blockStore))
+				blocks.addFirst(block);
+		}
+		catch (final BlockStoreException x)
+		{
+			// end of what the store keeps
+		}
+
+		for (final StoredBlock block : blocks)
+			put(block);
+
+		log.info("seeded block index with {} blocks from height {}", count, baseHeight);
+	}
+
+	@Override
+	public void notifyNewBestBlock(final StoredBlock block) throws VerificationException
+	{
+		put(block);
+	}
+
+	@Override
+	public synchronized void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks, final List<StoredBlock> newBlocks)
+			throws VerificationException
+	{
+		// new blocks come top first
+		for (int i = newBlocks.size() - 1; i >= 0; i--)
+			put(newBlocks.get(i));
+	}
+
+	/**
+	 * @return height of the newest indexed block, or -1 if the index is empty
+	 */
+	public synchronized int getBestHeight()
+	{
+		return count > 0 ? baseHeight + count - 1 : -1;
+	}
+
+	/**
+	 * @return height of the oldest indexed block, or -1 if the index is empty
+	 */
+	public synchronized int getBaseHeight()
+	{
+		return count > 0 ? baseHeight : -1;
+	}
+
+	@CheckForNull
+	public synchronized StoredBlock get(final int height)
+	{
+		if (height < baseHeight || height >= baseHeight + count)
+			return null;
+
+		return read(height - baseHeight);
+	}
+
+	/**
+	 * @return the block in the best chain with the given hash, or null if it is not indexed or not verified yet
+	 */
+	@CheckForNull
+	public synchronized StoredBlock get(@Nonnull final Sha256Hash hash)
+	{
+		final int height = getHeight(hash);
+		return height >= 0 && height - baseHeight < verified ? read(height - baseHeight) : null;
+	}
+
+	/**
+	 * @return up to the given number of blocks at or below the given height, newest first
+	 */
+	public synchronized List<StoredBlock> get(final int fromHeight, final int maxBlocks)
+	{
+		final int top = Math.min(fromHeight, baseHeight + count - 1);
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(Math.max(0, Math.min(maxBlocks, top - baseHeight + 1)));
+		for (int height = top; height >= baseHeight && blocks.size() < maxBlocks; height--)
+			blocks.add(get(height));
+		return blocks;
+	}
+
+	/**
+	 * @return height of the block in the best chain, or -1 if it is not indexed
+	 */
+	public synchronized int getHeight(@Nonnull final Sha256Hash hash)
+	{
+		final byte[] hashBytes = hash.getBytes();
+
+		for (int slot = slot(hashBytes);; slot = (slot + 1) & hashesMask)
+		{
+			final int value = hashesBuffer.getInt(slot * 4);
+			if (value == 0)
+				return -1;
+
+			final int index = value - 1;
+			if (index < count && hashEquals(index, hashBytes))
+				return baseHeight + index;
+		}
+	}
+
+	/**
+	 * Hashes the records that are not trusted yet, in batches, and checks them against their stored hash, the target
+	 * encoded in their header and the hash of their predecessor. The index is truncated at the first record that fails.
+	 * Blocks while hashing, so call it on a background thread. Writes may go on meanwhile.
+	 *
+	 * @return number of records that were checked
+	 */
+	public int verify()
+	{
+		final byte[] headers = new byte[VERIFY_BATCH * Block.HEADER_SIZE];
+		final byte[][] hashes = new byte[VERIFY_BATCH + 1][HASH_SIZE];
+		final long[] difficultyTargets = new long[VERIFY_BATCH];
+		final ByteBuffer digests = ByteBuffer.allocateDirect(VERIFY_BATCH * QuarkHash.DIGEST_LENGTH);
+		final long start = System.currentTimeMillis();
+		int checked = 0;
+
+		while (true)
+		{
+			final int from, n, batchGeneration;
+			final boolean linked;
+
+			synchronized (this)
+			{
+				if (closed || verified >= count)
+					break;
+
+				from = verified;
+				n = Math.min(VERIFY_BATCH, count - from);
+				batchGeneration = generation;
+				linked = from > 0;
+
+				final ByteBuffer buffer = recordsBuffer.duplicate();
+				if (linked)
+				{
+					buffer.position(HEADER_SIZE + (from - 1) * RECORD_SIZE);
+					buffer.get(hashes[0]);
+				}
+				for (int i = 0; i < n; i++)
+				{
+					buffer.position(HEADER_SIZE + (from + i) * RECORD_SIZE);
+					buffer.get(hashes[i + 1]);
+					buffer.position(buffer.position() + StoredBlock.CHAIN_WORK_BYTES + 4);
+					buffer.get(headers, i * Block.HEADER_SIZE, Block.HEADER_SIZE);
+					difficultyTargets[i] = Utils.readUint32(headers, i * Block.HEADER_SIZE + 72);
+				}
+			}
+
+			digests.clear();
+			QuarkHash.digest(headers, 0, n, digests);
+
+			int bad = -1;
+			for (int i = 0; i < n && bad < 0; i++)
+			{
+				final int offset = i * QuarkHash.DIGEST_LENGTH;
+				final int headerOffset = i * Block.HEADER_SIZE;
+				for (int j = 0; j < HASH_SIZE && bad < 0; j++)
+				{
+					// digests and header fields are in wire order, stored hashes are not
+					if (digests.get(offset + j) != hashes[i + 1][HASH_SIZE - 1 - j])
+						bad = i;
+					else if ((i > 0 || linked) && headers[headerOffset + 4 + j] != hashes[i][HASH_SIZE - 1 - j])
+						bad = i;
+				}
+				if (bad < 0 && !QuarkHash.meetsTarget(digests, offset, difficultyTargets[i]))
+					bad = i;
+			}
+
+			synchronized (this)
+			{
+				if (generation != batchGeneration)
+					continue; // rewritten meanwhile, check again
+
+				final int good = bad >= 0 ? bad : n;
+				verified = from + good;
+				checked += good;
+
+				if (bad >= 0)
+				{
+					log.warn("block index record at height {} is corrupt, truncating", baseHeight + from + bad);
+					truncate(from + bad);
+					break;
+				}
+			}
+		}
+
+		if (checked > 0)
+			log.info("verified {} block index records, took {} ms", checked, System.currentTimeMillis() - start);
+
+		return checked;
+	}
+
+	public synchronized void close()
+	{
+		closed = true;
+
+		try
+		{
+			recordsBuffer.force();
+			durable = verified;
+			writeHeader();
+			recordsBuffer.force();
+			hashesBuffer.force();
+			records.close();
+			hashes.close();
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem closing block index", x);
+		}
+	}
+
+	/**
+	 * Removes the index files, e.g. when the block chain is reset.
+	 */
+	public static void delete(@Nonnull final File file)
+	{
+		file.delete();
+		hashesFile(file).delete();
+	}
+
+	private static File hashesFile(@Nonnull final File file)
+	{
+		return new File(file.getParentFile(), file.getName() + "-hashes");
+	}
+
+	private StoredBlock read(final int index)
+	{
+		final ByteBuffer buffer = recordsBuffer.duplicate();
+		buffer.position(HEADER_SIZE + index * RECORD_SIZE);
+
+		final byte[] hash = new byte[HASH_SIZE];
+		buffer.get(hash);
+
+		// same layout as StoredBlock.serializeCompact()
+		final byte[] chainWork = new byte[StoredBlock.CHAIN_WORK_BYTES];
+		buffer.get(chainWork);
+		final int height = buffer.getInt();
+		final byte[] header = new byte[Block.HEADER_SIZE];
+		buffer.get(header);
+
+		return new StoredBlock(HashedHeader.parse(params, header, new Sha256Hash(hash)), new BigInteger(1, chainWork), height);
+	}
+
+	/**
+	 * Header whose hash is known up front. Only lives long enough to be cloned: {@link Block#cloneAsHeader} takes the hash
+	 * from {@link #getHash}, so the clone is a plain header with its hash already set.
+	 */
+	private static final class HashedHeader extends Block
+	{
+		private final Sha256Hash knownHash;
+
+		private HashedHeader(final NetworkParameters params, final long version, final Sha256Hash prevBlockHash, final Sha256Hash merkleRoot,
+				final long time, final long difficultyTarget, final long nonce, final Sha256Hash knownHash)
+		{
+			super(params, version, prevBlockHash, merkleRoot, time, difficultyTarget, nonce, new LinkedList<Transaction>());
+			this.knownHash = knownHash;
+		}
+
+		@Override
+		public Sha256Hash getHash()
+		{
+			return knownHash;
+		}
+
+		public static Block parse(@Nonnull final NetworkParameters params, @Nonnull final byte[] header, @Nonnull final Sha256Hash hash)
+		{
+			final long version = Utils.readUint32(header, 0);
+			final Sha256Hash prevBlockHash = new Sha256Hash(Utils.reverseBytes(Arrays.copyOfRange(header, 4, 36)));
+			final Sha256Hash merkleRoot = new Sha256Hash(Utils.reverseBytes(Arrays.copyOfRange(header, 36, 68)));
+			final long time = Utils.readUint32(header, 68);
+			final long difficultyTarget = Utils.readUint32(header, 72);
+			final long nonce = Utils.readUint32(header, 76);
+
+			return new HashedHeader(params, version, prevBlockHash, merkleRoot, time, difficultyTarget, nonce, hash).cloneAsHeader();
+		}
+	}
+
+	private synchronized void put(@Nonnull final StoredBlock block)
+	{
+		final int height = block.getHeight();
+
+		if (count == 0)
+		{
+			baseHeight = height;
+		}
+		else if (height < baseHeight)
+		{
+			return; // older than the index
+		}
+		else if (height > baseHeight + count && !fillGap(block))
+		{
+			log.warn("gap in block index from height {} to {}, discarding {} indexed blocks and restarting index", baseHeight + count, height,
+					count);
+			truncate(0);
+			baseHeight = height;
+			clearHashes();
+		}
+
+		final int index = height - baseHeight;
+		if (index < count)
+			truncate(index);
+
+		try
+		{
+			ensureRecordCapacity(index + 1);
+
+			final ByteBuffer buffer = recordsBuffer.duplicate();
+			buffer.position(recordOffset(height));
+			buffer.put(block.getHeader().getHash().getBytes());
+			block.serializeCompact(buffer);
+
+			count = index + 1;
+			if (verified == index)
+				verified = count; // comes from the block chain
+			writeHeader();
+
+			if ((count * 2L) > hashesMask + 1)
+				rebuildHashes(count * 4);
+			else
+				insertHash(index);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem writing block index at height " + height, x);
+		}
+	}
+
+	/**
+	 * Puts the blocks between the top of the index and the given block, as far as the block store has them.
+	 *
+	 * @return true if the gap was filled
+	 */
+	private boolean fillGap(@Nonnull final StoredBlock block)
+	{
+		if (blockStore == null)
+			return false;
+
+		final int next = baseHeight + count;
+		final LinkedList<StoredBlock> blocks = new LinkedList<StoredBlock>();
+		try
+		{
+			for (StoredBlock prev = block.getPrev(blockStore); prev != null && prev.getHeight() >= next; prev = prev.getPrev(blockStore))
+				blocks.addFirst(prev);
+		}
+		catch (final BlockStoreException x)
+		{
+			return false;
+		}
+
+		if (blocks.isEmpty() || blocks.getFirst().getHeight() != next)
+			return false;
+
+		for (final StoredBlock missing : blocks)
+			put(missing);
+
+		log.info("filled gap in block index with {} blocks from height {}", blocks.size(), next);
+		return true;
+	}
+
+	private void openRecords() throws IOException
+	{
+		records = new RandomAccessFile(recordsFile, "rw");
+
+		if (records.length() >= HEADER_SIZE)
+		{
+			mapRecords(records.length());
+			if (recordsBuffer.getInt(0) == FILE_MAGIC && recordsBuffer.getInt(4) == FILE_VERSION)
+			{
+				baseHeight = recordsBuffer.getInt(8);
+				count = Math.max(0, Math.min(recordsBuffer.getInt(12), (int) ((records.length() - HEADER_SIZE) / RECORD_SIZE)));
+				durable = Math.max(0, Math.min(recordsBuffer.getInt(16), count));
+				verified = durable;
+				log.info("opened block index with {} blocks from height {}, {} to verify", count, baseHeight, count - verified);
+				return;
+			}
+
+			log.warn("block index {} has unknown format, recreating", recordsFile);
+		}
+
+		baseHeight = 0;
+		count = 0;
+		verified = 0;
+		durable = 0;
+		mapRecords(HEADER_SIZE + (long) GROW_RECORDS * RECORD_SIZE);
+		writeHeader();
+	}
+
+	private void mapRecords(final long length) throws IOException
+	{
+		records.setLength(length);
+		recordsBuffer = records.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+	}
+
+	private void ensureRecordCapacity(final int wanted) throws IOException
+	{
+		final long length = HEADER_SIZE + (long) wanted * RECORD_SIZE;
+		if (length > recordsBuffer.capacity())
+		{
+			recordsBuffer.force();
+			mapRecords(length + (long) GROW_RECORDS * RECORD_SIZE);
+		}
+	}
+
+	private void writeHeader()
+	{
+		recordsBuffer.putInt(0, FILE_MAGIC);
+		recordsBuffer.putInt(4, FILE_VERSION);
+		recordsBuffer.putInt(8, baseHeight);
+		recordsBuffer.putInt(12, count);
+		recordsBuffer.putInt(16, durable);
+	}
+
+	/**
+	 * Drops the records from the given index on. Anything dropped may be rewritten, so it is neither trusted nor durable
+	 * any more.
+	 */
+	private void truncate(final int index)
+	{
+		count = index;
+		verified = Math.min(verified, index);
+		durable = Math.min(durable, index);
+		generation++;
+		writeHeader();
+	}
+
+	private int recordOffset(final int height)
+	{
+		return HEADER_SIZE + (height - baseHeight) * RECORD_SIZE;
+	}
+
+	private void openHashes() throws IOException
+	{
+		hashes = new RandomAccessFile(hashesFile, "rw");
+
+		final long slots = hashes.length() / 4;
+		if (slots >= MIN_HASH_SLOTS && Long.bitCount(slots) == 1 && count * 2L <= slots)
+		{
+			mapHashes((int) slots);
+		}
+		else
+		{
+			rebuildHashes(count * 4);
+		}
+	}
+
+	private void mapHashes(final int slots) throws IOException
+	{
+		hashes.setLength(slots * 4L);
+		hashesBuffer = hashes.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, slots * 4L);
+		hashesMask = slots - 1;
+	}
+
+	private void rebuildHashes(final int wantedSlots) throws IOException
+	{
+		int slots = MIN_HASH_SLOTS;
+		while (slots < wantedSlots)
+			slots <<= 1;
+
+		hashes.setLength(0);
+		mapHashes(slots);
+
+		for (int index = 0; index < count; index++)
+			insertHash(index);
+
+		log.info("rebuilt block index hash table with {} slots for {} blocks", slots, count);
+	}
+
+	private void clearHashes()
+	{
+		for (int slot = 0; slot <= hashesMask; slot++)
+			hashesBuffer.putInt(slot * 4, 0);
+	}
+
+	private void insertHash(final int index)
+	{
+		final byte[] hashBytes = new byte[HASH_SIZE];
+		final ByteBuffer buffer = recordsBuffer.duplicate();
+		buffer.position(HEADER_SIZE + index * RECORD_SIZE);
+		buffer.get(hashBytes);
+
+		for (int slot = slot(hashBytes);; slot = (slot + 1) & hashesMask)
+		{
+			final int value = hashesBuffer.getInt(slot * 4);
+			// take an empty slot, or one left behind by a truncation
+			if (value == 0 || value - 1 >= count || value - 1 == index)
+			{
+				hashesBuffer.putInt(slot * 4, index + 1);
+				return;
+			}
+		}
+	}
+
+	private boolean hashEquals(final int index, @Nonnull final byte[] hashBytes)
+	{
+		final int offset = HEADER_SIZE + index * RECORD_SIZE;
+		for (int i = 0; i < HASH_SIZE; i++)
+			if (recordsBuffer.get(offset + i) != hashBytes[i])
+				return false;
+		return true;
+	}
+
+	private int slot(@Nonnull final byte[] hashBytes)
+	{
+		// block hashes are uniformly distributed, apart from the leading zeros of the proof of work
+		final int h = (hashBytes[28] & 0xff) | (hashBytes[29] & 0xff) << 8 | (hashBytes[30] & 0xff) << 16 | (hashBytes[31] & 0xff) << 24;
+		return h & hashesMask;
+	}
+}
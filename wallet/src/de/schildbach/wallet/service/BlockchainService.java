@@ -53,7 +53,13 @@ public interface BlockchainService
 	@CheckForNull
 	List<Peer> getConnectedPeers();
 
+	/**
+	 * @return up to the given number of blocks of the best chain, newest first; beyond the recent blocks they are read
+	 *         from the block index
+	 */
 	List<StoredBlock> getRecentBlocks(int maxBlocks);
 
+	SyncMetrics getSyncMetrics();
+
     void broadcastSweepTransaction(@Nonnull Transaction tx);
 }
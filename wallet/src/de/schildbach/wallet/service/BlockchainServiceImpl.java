@@ -22,11 +22,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -54,15 +60,16 @@ import android.net.ConnectivityManager;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.Process;
 import android.support.v4.app.NotificationCompat;
 import android.text.format.DateUtils;
 
 import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
 import com.google.bitcoin.core.Wallet.BalanceType;
-import com.google.bitcoin.net.discovery.DnsDiscovery;
 import com.google.bitcoin.net.discovery.PeerDiscovery;
 import com.google.bitcoin.net.discovery.PeerDiscoveryException;
 import com.google.bitcoin.store.BlockStore;
@@ -75,6 +82,7 @@ import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.WalletBalanceWidgetProvider;
+import de.schildbach.wallet.WalletJournal;
 import de.schildbach.wallet.ui.WalletActivity;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.GenericUtils;
@@ -96,14 +104,23 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private BlockStore blockStore;
 	private File blockChainFile;
 	private BlockChain blockChain;
+	private RecentBlocks recentBlocks;
+	@CheckForNull
+	private BlockIndex blockIndex;
 	@CheckForNull
 	private PeerGroup peerGroup;
 
 	private final Handler handler = new Handler();
 	private final Handler delayHandler = new Handler();
+	private HandlerThread backgroundThread;
+	private Handler backgroundHandler;
 	private WakeLock wakeLock;
 
 	private PeerConnectivityListener peerConnectivityListener;
+	private PeerDatabase peerDatabase;
+	private final SyncMetrics syncMetrics = new SyncMetrics();
+	private final DownloadPeerWatchdog downloadPeerWatchdog = new DownloadPeerWatchdog();
+	private PeerCountController peerCountController;
 	private NotificationManager nm;
 	private static final int NOTIFICATION_ID_CONNECTED = 0;
 	private static final int NOTIFICATION_ID_COINS_RECEIVED = 1;
@@ -121,6 +138,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private static final int IDLE_TRANSACTION_TIMEOUT_MIN = 9;
 	private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
 	private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final int KNOWN_PEERS_PER_CONNECTION = 2;
+	private static final long DOWNLOAD_PEER_CHECK_MS = 10 * DateUtils.SECOND_IN_MILLIS;
+	private static final int RECENT_BLOCKS_CAPACITY = 512;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
@@ -135,6 +155,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		@Override
 		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
 		{
+			final long start = System.nanoTime();
+
 			transactionsReceived.incrementAndGet();
 
 			final int bestChainHeight = blockChain.getBestChainHeight();
@@ -156,6 +178,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 						notifyCoinsReceived(from, amount);
 				}
 			});
+
+			syncMetrics.walletCallbackMicros.update((System.nanoTime() - start) / 1000);
 		}
 
 		@Override
@@ -163,6 +187,16 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		{
 			transactionsReceived.incrementAndGet();
 		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			final long start = System.nanoTime();
+
+			super.onTransactionConfidenceChanged(wallet, tx);
+
+			syncMetrics.walletCallbackMicros.update((System.nanoTime() - start) / 1000);
+		}
 	};
 
 	private void notifyCoinsReceived(@Nullable final Address from, @Nonnull final BigInteger amount)
@@ -323,6 +357,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		@Override
 		public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
 		{
+			syncMetrics.blocks.mark(1);
+
 			bestChainHeightEver = Math.max(bestChainHeightEver, blockChain.getChainHead().getHeight());
 
 			delayHandler.removeCallbacksAndMessages(null);
@@ -335,6 +371,16 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				delayHandler.postDelayed(runnable, Constants.BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS);
 		}
 
+		@Override
+		public Message onPreMessageReceived(final Peer peer, final Message m)
+		{
+			// a filtered block arrives as a merkleblock followed by its matching transactions
+			if (m instanceof FilteredBlock || m instanceof Transaction)
+				syncMetrics.filteredBlockBytes.mark(m.getMessageSize());
+
+			return m;
+		}
+
 		private final Runnable runnable = new Runnable()
 		{
 			@Override
@@ -347,6 +393,47 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		};
 	};
 
+	private final PeerEventListener peerDatabaseListener = new AbstractPeerEventListener()
+	{
+		private final Set<InetSocketAddress> connected = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+
+		@Override
+		public void onPeerConnected(final Peer peer, final int peerCount)
+		{
+			final InetSocketAddress address = peer.getAddress().toSocketAddress();
+			connected.add(address);
+			peerDatabase.connected(address, peer.getBestHeight());
+		}
+
+		@Override
+		public void onPeerDisconnected(final Peer peer, final int peerCount)
+		{
+			final InetSocketAddress address = peer.getAddress().toSocketAddress();
+			if (connected.remove(address))
+				peerDatabase.latency(address, peer.getPingTime());
+			else
+				peerDatabase.failed(address); // never completed the handshake
+		}
+	};
+
+	private final Runnable downloadPeerCheck = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			final PeerGroup peerGroup = BlockchainServiceImpl.this.peerGroup;
+			if (peerGroup == null)
+				return;
+
+			final Peer stalledPeer = downloadPeerWatchdog.check(peerGroup.getDownloadPeer(), peerGroup.getConnectedPeers(),
+					blockChain.getBestChainHeight());
+			if (stalledPeer != null)
+				stalledPeer.close(); // peer group will pick the new download peer from the watchdog
+
+			handler.postDelayed(this, DOWNLOAD_PEER_CHECK_MS);
+		}
+	};
+
 	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver()
 	{
 		private boolean hasConnectivity;
@@ -362,7 +449,13 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				hasConnectivity = !intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false);
 				log.info("network is " + (hasConnectivity ? "up" : "down"));
 
+				final ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+				final boolean linkTypeChanged = peerCountController.setConnectivity(cm.getActiveNetworkInfo());
+
 				check();
+
+				if (linkTypeChanged)
+					adjustPeerCount();
 			}
 			else if (Intent.ACTION_DEVICE_STORAGE_LOW.equals(action))
 			{
@@ -402,22 +495,37 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				}
 
 				log.info("starting peergroup");
-				peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain);
+				peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain)
+				{
+					@Override
+					protected Peer selectDownloadPeer(final List<Peer> peers)
+					{
+						final Peer peer = downloadPeerWatchdog.selectDownloadPeer(peers);
+						return peer != null ? peer : super.selectDownloadPeer(peers);
+					}
+				};
 				peerGroup.addWallet(wallet);
 				peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
 				peerGroup.addEventListener(peerConnectivityListener);
+				peerGroup.addEventListener(peerDatabaseListener);
+				peerGroup.addEventListener(downloadPeerWatchdog);
 
-				final int maxConnectedPeers = application.maxConnectedPeers();
+				peerGroup.addEventListener(peerCountController);
+
+				final int maxConnectedPeers = peerCountController.getMaxPeers();
 
 				final String trustedPeerHost = config.getTrustedPeerHost();
 				final boolean hasTrustedPeer = !trustedPeerHost.isEmpty();
 
 				final boolean connectTrustedPeerOnly = hasTrustedPeer && config.getTrustedPeerOnly();
-				peerGroup.setMaxConnections(connectTrustedPeerOnly ? 1 : maxConnectedPeers);
+				peerGroup.setMaxConnections(connectTrustedPeerOnly ? 1 : peerCountController.getTarget());
 
 				peerGroup.addPeerDiscovery(new PeerDiscovery()
 				{
-					private final PeerDiscovery normalPeerDiscovery = new DnsDiscovery(Constants.NETWORK_PARAMETERS);
+					private final PeerDiscovery normalPeerDiscovery = new SeedPeerDiscovery(Constants.NETWORK_PARAMETERS, maxConnectedPeers
+							* KNOWN_PEERS_PER_CONNECTION, getFileStreamPath(Constants.SEED_CACHE_FILENAME));
+					@CheckForNull
+					private FutureTask<InetSocketAddress[]> seeding = null;
                     //private PeerDiscovery dbPeerDiscovery = null;
                     //Random rand = new Random();
                     //int i = 0; //rand.nextInt(50);
@@ -457,8 +565,29 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 						}
 
 						if (!connectTrustedPeerOnly) {
+							if (seeding == null)
+							{
+								// dial the best known peers right away, while the seeds are queried in the background
+								seeding = startSeeding(timeoutValue, timeoutUnit);
+
+								final List<InetSocketAddress> knownPeers = peerDatabase.best(maxConnectedPeers * KNOWN_PEERS_PER_CONNECTION,
+										blockChain.getBestChainHeight());
+								if (!knownPeers.isEmpty())
+								{
+									log.info("dialing {} known peers, seeding in background", knownPeers.size());
+									peers.addAll(knownPeers);
+								}
+								else
+								{
+									peers.addAll(awaitSeeding(timeoutValue, timeoutUnit));
+								}
+							}
+							else
+							{
+								peers.addAll(awaitSeeding(timeoutValue, timeoutUnit));
+							}
+
 							//log.info("Adding dnsdiscovery peers ");
-							peers.addAll(Arrays.asList(normalPeerDiscovery.getPeers(timeoutValue, timeoutUnit)));
 							//log.info("Peer count "+ peers.size());
 							//log.info("Adding dbdiscovery peers ");
                             //if(dbPeerDiscovery != null)
@@ -479,15 +608,61 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 						// workaround because PeerGroup will shuffle peers
 						if (needsTrimPeersWorkaround)
-							while (peers.size() >= maxConnectedPeers)
+							while (peers.size() >= peerCountController.getTarget())
 								peers.remove(peers.size() - 1);
 
 						return peers.toArray(new InetSocketAddress[0]);
 					}
 
+					private FutureTask<InetSocketAddress[]> startSeeding(final long timeoutValue, final TimeUnit timeoutUnit)
+					{
+						final FutureTask<InetSocketAddress[]> task = new FutureTask<InetSocketAddress[]>(new Callable<InetSocketAddress[]>()
+						{
+							@Override
+							public InetSocketAddress[] call() throws PeerDiscoveryException
+							{
+								return normalPeerDiscovery.getPeers(timeoutValue, timeoutUnit);
+							}
+						});
+
+						final Thread thread = new Thread(task, "peer seeding");
+						thread.setDaemon(true);
+						thread.start();
+
+						return task;
+					}
+
+					private List<InetSocketAddress> awaitSeeding(final long timeoutValue, final TimeUnit timeoutUnit) throws PeerDiscoveryException
+					{
+						final FutureTask<InetSocketAddress[]> task = seeding;
+						seeding = null;
+
+						try
+						{
+							return Arrays.asList(task.get(timeoutValue, timeoutUnit));
+						}
+						catch (final ExecutionException x)
+						{
+							final Throwable cause = x.getCause();
+							throw cause instanceof PeerDiscoveryException ? (PeerDiscoveryException) cause : new PeerDiscoveryException(cause);
+						}
+						catch (final TimeoutException x)
+						{
+							task.cancel(true);
+							throw new PeerDiscoveryException(x);
+						}
+						catch (final InterruptedException x)
+						{
+							task.cancel(true);
+							throw new PeerDiscoveryException(x);
+						}
+					}
+
 					@Override
 					public void shutdown()
 					{
+						if (seeding != null)
+							seeding.cancel(true);
 						normalPeerDiscovery.shutdown();
                         //if(dbPeerDiscovery != null)
                         //    dbPeerDiscovery.shutdown();
@@ -499,15 +674,23 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				// start peergroup
 				peerGroup.start();
 				peerGroup.startBlockChainDownload(blockchainDownloadListener);
+
+				handler.postDelayed(downloadPeerCheck, DOWNLOAD_PEER_CHECK_MS);
 			}
 			else if (!hasEverything && peerGroup != null)
 			{
 				log.info("stopping peergroup");
+				handler.removeCallbacks(downloadPeerCheck);
 				peerGroup.removeEventListener(peerConnectivityListener);
+				peerGroup.removeEventListener(peerDatabaseListener);
+				peerGroup.removeEventListener(downloadPeerWatchdog);
+				peerGroup.removeEventListener(peerCountController);
 				peerGroup.removeWallet(wallet);
 				peerGroup.stop();
 				peerGroup = null;
 
+				backgroundHandler.post(peerDatabaseSaver);
+
 				log.debug("releasing wakelock");
 				wakeLock.release();
 			}
@@ -598,9 +781,49 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			}
 
 			lastChainHeight = chainHeight;
+
+			if (peerGroup != null)
+			{
+				for (final Peer peer : peerGroup.getConnectedPeers())
+				{
+					final InetSocketAddress address = peer.getAddress().toSocketAddress();
+					final long lastPingTime = peer.getLastPingTime();
+					peerDatabase.latency(address, peer.getPingTime());
+					if (lastPingTime > 0 && lastPingTime < Long.MAX_VALUE)
+						syncMetrics.peerRoundTrip(address.getAddress().getHostAddress()).update(lastPingTime);
+				}
+			}
+
+			backgroundHandler.removeCallbacks(peerDatabaseSaver);
+			backgroundHandler.post(peerDatabaseSaver);
+
+			adjustPeerCount();
+		}
+	};
+
+	private final Runnable peerDatabaseSaver = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			peerDatabase.save();
 		}
 	};
 
+	private void adjustPeerCount()
+	{
+		final PeerGroup peerGroup = this.peerGroup;
+		if (peerGroup == null)
+			return;
+
+		if (!config.getTrustedPeerHost().isEmpty() && config.getTrustedPeerOnly())
+			return;
+
+		final int target = peerCountController.evaluate(peerGroup.getConnectedPeers(), peerGroup.getDownloadPeer());
+		if (target != peerGroup.getMaxConnections())
+			peerGroup.setMaxConnections(target);
+	}
+
 	public class LocalBinder extends Binder
 	{
 		public BlockchainService getService()
@@ -644,11 +867,21 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		application = (WalletApplication) getApplication();
 		config = application.getConfiguration();
+
+		// started by an alarm or on boot, the service can be the first to need the wallet
+		if (!application.isWalletReady())
+			log.info("waiting for wallet to be loaded");
 		final Wallet wallet = application.getWallet();
 
 		bestChainHeightEver = config.getBestChainHeightEver();
 
 		peerConnectivityListener = new PeerConnectivityListener();
+		peerDatabase = new PeerDatabase(getFileStreamPath(Constants.PEER_DATABASE_FILENAME));
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		backgroundHandler = new Handler(backgroundThread.getLooper());
+		peerCountController = new PeerCountController(config.getMinConnectedPeers(), config.getMaxConnectedPeers(),
+				application.maxConnectedPeers());
 
 		sendBroadcastPeerState(0);
 
@@ -660,14 +893,20 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.BLOCKCHAIN_FILENAME);
 		final boolean blockChainFileExists = blockChainFile.exists();
+		final File blockIndexFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.BLOCK_INDEX_FILENAME);
 
 		if (!blockChainFileExists)
 		{
 			log.info("blockchain does not exist, resetting wallet");
 
+			BlockIndex.delete(blockIndexFile);
+
 			wallet.clearTransactions(0);
 			wallet.setLastBlockSeenHeight(-1); // magic value
 			wallet.setLastBlockSeenHash(null);
+
+			// clearing is not journaled
+			application.saveWallet();
 		}
 
 		try
@@ -699,17 +938,86 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			throw new Error(msg, x);
 		}
 
+		try
+		{
+			blockIndex = new BlockIndex(Constants.NETWORK_PARAMETERS, blockIndexFile);
+			blockIndex.seed(blockStore.getChainHead(), blockStore);
+
+			final BlockIndex index = blockIndex;
+			final Thread thread = new Thread("block index verification")
+			{
+				@Override
+				public void run()
+				{
+					index.verify();
+				}
+			};
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem opening block index, continuing without", x);
+			blockIndex = null;
+		}
+		catch (final BlockStoreException x)
+		{
+			throw new Error("blockstore cannot be read", x);
+		}
+
+		blockStore = new MemoizingBlockStore(blockStore, blockIndex, syncMetrics);
+
 		log.info("using " + blockStore.getClass().getName());
 
 		try
 		{
-			blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, wallet, blockStore);
+			blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, blockStore)
+			{
+				// time spent connecting headers, including their verification and the wallet callbacks it triggers
+				@Override
+				public boolean add(final Block block) throws VerificationException, PrunedException
+				{
+					final long start = System.nanoTime();
+					try
+					{
+						return super.add(block);
+					}
+					finally
+					{
+						syncMetrics.blockProcessingMicros.update((System.nanoTime() - start) / 1000);
+					}
+				}
+
+				@Override
+				public boolean add(final FilteredBlock block) throws VerificationException, PrunedException
+				{
+					final long start = System.nanoTime();
+					try
+					{
+						return super.add(block);
+					}
+					finally
+					{
+						syncMetrics.blockProcessingMicros.update((System.nanoTime() - start) / 1000);
+					}
+				}
+			};
 		}
 		catch (final BlockStoreException x)
 		{
 			throw new Error("blockchain cannot be created", x);
 		}
 
+		// the wallet gets its block chain callbacks through the journal, which records them
+		blockChain.addListener(application.getWalletJournal().getBlockChainListener(), Threading.SAME_THREAD);
+
+		recentBlocks = new RecentBlocks(blockStore, blockChain.getChainHead(), RECENT_BLOCKS_CAPACITY);
+		blockChain.addListener(recentBlocks, Threading.SAME_THREAD);
+
+		if (blockIndex != null)
+			blockChain.addListener(blockIndex, Threading.SAME_THREAD);
+
 		application.getWallet().addEventListener(walletEventListener, Threading.SAME_THREAD);
 
 		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
@@ -785,15 +1093,32 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		application.getWallet().removeEventListener(walletEventListener);
 
+		handler.removeCallbacks(downloadPeerCheck);
+
 		if (peerGroup != null)
 		{
 			peerGroup.removeEventListener(peerConnectivityListener);
+			peerGroup.removeEventListener(peerDatabaseListener);
+			peerGroup.removeEventListener(downloadPeerWatchdog);
+			peerGroup.removeEventListener(peerCountController);
 			peerGroup.removeWallet(application.getWallet());
 			peerGroup.stopAndWait();
 
 			log.info("peergroup stopped");
 		}
 
+		// last save, then let the background thread end
+		backgroundHandler.removeCallbacks(peerDatabaseSaver);
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				peerDatabase.save();
+				backgroundThread.getLooper().quit();
+			}
+		});
+
 		peerConnectivityListener.stop();
 
 		unregisterReceiver(connectivityReceiver);
@@ -805,6 +1130,12 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		delayHandler.removeCallbacksAndMessages(null);
 
+		if (blockIndex != null)
+		{
+			blockChain.removeListener(blockIndex);
+			blockIndex.close();
+		}
+
 		try
 		{
 			blockStore.close();
@@ -814,7 +1145,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			throw new RuntimeException(x);
 		}
 
-		application.saveWallet();
+		final WalletJournal walletJournal = application.getWalletJournal();
+		walletJournal.setReplaying(false);
+		walletJournal.sync();
 
 		if (wakeLock.isHeld())
 		{
@@ -826,11 +1159,13 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		{
 			log.info("removing blockchain");
 			blockChainFile.delete();
+			BlockIndex.delete(new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.BLOCK_INDEX_FILENAME));
 		}
 
 		super.onDestroy();
 
 		log.info("service was up for " + ((System.currentTimeMillis() - serviceCreatedAt) / 1000 / 60) + " minutes");
+		log.info("sync metrics:\n" + syncMetrics);
 	}
 
 	@Override
@@ -851,27 +1186,23 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	}
 
 	@Override
-	public List<StoredBlock> getRecentBlocks(final int maxBlocks)
+	public SyncMetrics getSyncMetrics()
 	{
-		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
-
-		try
-		{
-			StoredBlock block = blockChain.getChainHead();
-
-			while (block != null)
-			{
-				blocks.add(block);
+		return syncMetrics;
+	}
 
-				if (blocks.size() >= maxBlocks)
-					break;
+	@Override
+	public List<StoredBlock> getRecentBlocks(final int maxBlocks)
+	{
+		final List<StoredBlock> blocks = recentBlocks.get(maxBlocks);
 
-				block = block.getPrev(blockStore);
-			}
-		}
-		catch (final BlockStoreException x)
+		final BlockIndex blockIndex = this.blockIndex;
+		if (blocks.size() < maxBlocks && blockIndex != null)
 		{
-			// swallow
+			final int below = blocks.isEmpty() ? Integer.MAX_VALUE : blocks.get(blocks.size() - 1).getHeight() - 1;
+			final List<StoredBlock> indexedBlocks = blockIndex.get(below, maxBlocks - blocks.size());
+			syncMetrics.blockListIndexReads.mark(indexedBlocks.size());
+			blocks.addAll(indexedBlocks);
 		}
 
 		return blocks;
@@ -893,12 +1224,16 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private void sendBroadcastBlockchainState(final int download)
 	{
 		final StoredBlock chainHead = blockChain.getChainHead();
+		final boolean replaying = chainHead.getHeight() < bestChainHeightEver;
+
+		// saves are coalesced while replaying
+		application.getWalletJournal().setReplaying(replaying);
 
 		final Intent broadcast = new Intent(ACTION_BLOCKCHAIN_STATE);
 		broadcast.setPackage(getPackageName());
 		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_DATE, chainHead.getHeader().getTime());
 		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_HEIGHT, chainHead.getHeight());
-		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_REPLAYING, chainHead.getHeight() < bestChainHeightEver);
+		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_REPLAYING, replaying);
 		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_DOWNLOAD, download);
 
 		sendStickyBroadcast(broadcast);
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.text.format.DateUtils;
+
+import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.Peer;
+
+/**
+ * Watches the block arrival rate of the chain download peer. If it stops delivering blocks while we are behind, or
+ * delivers much slower than another connected peer did before, {@link #check} names it for disconnection and remembers
+ * the fastest other peer, which {@link #selectDownloadPeer} then hands to the peer group as the new download peer.
+ *
+ * Rates are kept per address for as long as the service runs, so a peer that has been fast once is preferred again.
+ */
+public final class DownloadPeerWatchdog extends AbstractPeerEventListener
+{
+	private static final class Stats
+	{
+		public long lastBlockAt = 0;
+		public int blocksInWindow = 0;
+		public double rate = -1; // blocks per second, smoothed
+	}
+
+	private final Map<InetSocketAddress, Stats> stats = new HashMap<InetSocketAddress, Stats>();
+
+	@CheckForNull
+	private Peer watchedPeer = null;
+	private long watchedSince = 0;
+	private long windowStart = 0;
+	@CheckForNull
+	private InetSocketAddress preferred = null;
+
+	private static final long STALL_TIMEOUT_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+	private static final long RATE_WINDOW_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+	private static final double SLOW_FACTOR = 4;
+	private static final long SLOW_PING_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final double RATE_SMOOTHING = 0.5;
+
+	private static final Logger log = LoggerFactory.getLogger(DownloadPeerWatchdog.class);
+
+	@Override
+	public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
+	{
+		synchronized (stats)
+		{
+			final Stats s = stats(peer.getAddress().toSocketAddress());
+			s.lastBlockAt = System.currentTimeMillis();
+			s.blocksInWindow++;
+		}
+	}
+
+	/**
+	 * Checks the download peer. Call periodically while the peer group is running.
+	 *
+	 * @param chainHeight
+	 *            height of our best chain, to tell whether we are still behind
+	 * @return the download peer if it should be disconnected, null if it is fine
+	 */
+	@CheckForNull
+	public Peer check(@CheckForNull final Peer downloadPeer, @Nonnull final List<Peer> connectedPeers, final int chainHeight)
+	{
+		final long now = System.currentTimeMillis();
+
+		synchronized (stats)
+		{
+			if (downloadPeer != watchedPeer)
+			{
+				watchedPeer = downloadPeer;
+				watchedSince = now;
+				windowStart = now;
+				if (downloadPeer != null)
+					stats(downloadPeer.getAddress().toSocketAddress()).blocksInWindow = 0;
+				return null;
+			}
+
+			if (downloadPeer == null || downloadPeer.getBestHeight() <= chainHeight)
+				return null;
+
+			final InetSocketAddress address = downloadPeer.getAddress().toSocketAddress();
+			final Stats s = stats(address);
+
+			final long idleMs = now - Math.max(s.lastBlockAt, watchedSince);
+			final boolean stalled = idleMs > STALL_TIMEOUT_MS;
+
+			boolean slow = false;
+			if (now - windowStart >= RATE_WINDOW_MS)
+			{
+				final double windowRate = s.blocksInWindow * 1000.0 / (now - windowStart);
+				s.rate = s.rate < 0 ? windowRate : RATE_SMOOTHING * windowRate + (1 - RATE_SMOOTHING) * s.rate;
+				s.blocksInWindow = 0;
+				windowStart = now;
+
+				final double bestOtherRate = bestRate(connectedPeers, downloadPeer, chainHeight);
+				if (bestOtherRate > 0)
+					slow = windowRate * SLOW_FACTOR < bestOtherRate;
+				else
+					slow = isSlowPing(downloadPeer, connectedPeers, chainHeight);
+			}
+
+			if (!stalled && !slow)
+				return null;
+
+			final Peer replacement = fastest(connectedPeers, downloadPeer, chainHeight);
+			if (replacement == null)
+			{
+				log.info("download peer {} is {}, but no other peer to fail over to", address, stalled ? "stalled" : "slow");
+				return null;
+			}
+
+			preferred = replacement.getAddress().toSocketAddress();
+			watchedPeer = null;
+
+			if (stalled)
+			{
+				s.rate = 0; // don't come back to it
+				log.info("download peer {} stalled for {} ms, failing over to {}", address, idleMs, preferred);
+			}
+			else
+			{
+				log.info("download peer {} is slow at {} blocks/s, failing over to {}", address, String.format(Locale.US, "%.2f", s.rate),
+						preferred);
+			}
+
+			return downloadPeer;
+		}
+	}
+
+	/**
+	 * @return the peer chosen by the last failover if it is among the given peers, otherwise null to let the peer group
+	 *         decide
+	 */
+	@CheckForNull
+	public Peer selectDownloadPeer(@Nonnull final List<Peer> peers)
+	{
+		synchronized (stats)
+		{
+			if (preferred == null)
+				return null;
+
+			for (final Peer peer : peers)
+			{
+				if (preferred.equals(peer.getAddress().toSocketAddress()))
+				{
+					preferred = null;
+					return peer;
+				}
+			}
+
+			preferred = null;
+			return null;
+		}
+	}
+
+	private Stats stats(@Nonnull final InetSocketAddress address)
+	{
+		Stats s = stats.get(address);
+		if (s == null)
+		{
+			s = new Stats();
+			stats.put(address, s);
+		}
+		return s;
+	}
+
+	private double bestRate(@Nonnull final List<Peer> peers, @Nonnull final Peer except, final int chainHeight)
+	{
+		double best = -1;
+		for (final Peer peer : peers)
+		{
+			if (peer == except || peer.getBestHeight() <= chainHeight)
+				continue;
+
+			final Stats s = stats.get(peer.getAddress().toSocketAddress());
+			if (s != null && s.rate > best)
+				best = s.rate;
+		}
+		return best;
+	}
+
+	private boolean isSlowPing(@Nonnull final Peer downloadPeer, @Nonnull final List<Peer> peers, final int chainHeight)
+	{
+		final long pingTime = downloadPeer.getPingTime();
+		if (pingTime == Long.MAX_VALUE || pingTime < SLOW_PING_MS)
+			return false;
+
+		for (final Peer peer : peers)
+			if (peer != downloadPeer && peer.getBestHeight() > chainHeight && peer.getPingTime() * SLOW_FACTOR < pingTime)
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Prefers the highest measured download rate, then the lowest ping time.
+	 */
+	@CheckForNull
+	private Peer fastest(@Nonnull final List<Peer> peers, @Nonnull final Peer except, final int chainHeight)
+	{
+		Peer best = null;
+		double bestRate = -1;
+		long bestPing = Long.MAX_VALUE;
+
+		for (final Peer peer : peers)
+		{
+			if (peer == except || peer.getBestHeight() <= chainHeight)
+				continue;
+
+			final Stats s = stats.get(peer.getAddress().toSocketAddress());
+			final double rate = s != null ? s.rate : -1;
+			final long ping = peer.getPingTime();
+
+			if (best == null || rate > bestRate || (rate == bestRate && ping < bestPing))
+			{
+				best = peer;
+				bestRate = rate;
+				bestPing = ping;
+			}
+		}
+
+		return best;
+	}
+}
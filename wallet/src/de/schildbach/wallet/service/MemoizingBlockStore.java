@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+
+/**
+ * Block store in front of the {@link com.google.bitcoin.store.SPVBlockStore} that avoids re-deriving proof of work
+ * hashes. A read the SPV store cannot serve from its own small cache parses the header and thereby runs the expensive
+ * hash again, so reads are served from a bounded memo of recently seen blocks first, then from the {@link BlockIndex},
+ * which keeps the hash next to the header on disk. Only blocks neither knows about, e.g. on a side chain, are read from
+ * the SPV store.
+ *
+ * Reads served here are counted in {@link SyncMetrics#blockStoreHits}, reads passed on to the SPV store in
+ * {@link SyncMetrics#blockStoreMisses}. The latter is an upper bound on re-hashing, as the SPV store may still have the
+ * block cached.
+ */
+public final class MemoizingBlockStore implements BlockStore
+{
+	private final BlockStore store;
+	@CheckForNull
+	private final BlockIndex index;
+	private final SyncMetrics metrics;
+
+	private final Map<Sha256Hash, StoredBlock> memo = new LinkedHashMap<Sha256Hash, StoredBlock>(MEMO_SIZE, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Sha256Hash, StoredBlock> entry)
+		{
+			return size() > MEMO_SIZE;
+		}
+	};
+
+	private static final int MEMO_SIZE = 4096;
+
+	public MemoizingBlockStore(@Nonnull final BlockStore store, @CheckForNull final BlockIndex index, @Nonnull final SyncMetrics metrics)
+	{
+		this.store = store;
+		this.index = index;
+		this.metrics = metrics;
+	}
+
+	public void put(final StoredBlock block) throws BlockStoreException
+	{
+		store.put(block);
+		remember(block);
+	}
+
+	@CheckForNull
+	public StoredBlock get(final Sha256Hash hash) throws BlockStoreException
+	{
+		synchronized (memo)
+		{
+			final StoredBlock block = memo.get(hash);
+			if (block != null)
+			{
+				metrics.blockStoreHits.mark(1);
+				return block;
+			}
+		}
+
+		if (index != null)
+		{
+			final StoredBlock block = index.get(hash);
+			if (block != null)
+			{
+				metrics.blockStoreHits.mark(1);
+				remember(block);
+				return block;
+			}
+		}
+
+		final StoredBlock block = store.get(hash);
+		if (block != null)
+		{
+			metrics.blockStoreMisses.mark(1);
+			remember(block);
+		}
+		return block;
+	}
+
+	public StoredBlock getChainHead() throws BlockStoreException
+	{
+		return store.getChainHead();
+	}
+
+	public void setChainHead(final StoredBlock chainHead) throws BlockStoreException
+	{
+		store.setChainHead(chainHead);
+		remember(chainHead);
+	}
+
+	public void close() throws BlockStoreException
+	{
+		synchronized (memo)
+		{
+			memo.clear();
+		}
+
+		store.close();
+	}
+
+	private void remember(@Nonnull final StoredBlock block)
+	{
+		synchronized (memo)
+		{
+			memo.put(block.getHeader().getHash(), block);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.Message;
+import com.google.bitcoin.core.Peer;
+
+/**
+ * Decides how many peers to keep connected, within configured bounds. The target moves by one peer per evaluation:
+ *
+ * <ul>
+ * <li>down on a poor link (high median ping time), or on a mobile link where the peers besides the download peer relay
+ * more than {@link #MOBILE_RELAY_BUDGET_BPS}, as those relays are mostly duplicates</li>
+ * <li>up on a good link (low median ping time) that is not mobile</li>
+ * </ul>
+ *
+ * On mobile links the target never exceeds the middle of the bounds.
+ */
+public final class PeerCountController extends AbstractPeerEventListener
+{
+	private final int minPeers;
+	private final int maxPeers;
+	private int target;
+
+	private boolean mobile = false;
+	@CheckForNull
+	private String linkName = null;
+
+	private final Map<InetSocketAddress, long[]> bytesReceived = new HashMap<InetSocketAddress, long[]>();
+	private long lastEvaluation = System.currentTimeMillis();
+
+	private static final long POOR_PING_MS = 2000;
+	private static final long GOOD_PING_MS = 400;
+	private static final long MOBILE_RELAY_BUDGET_BPS = 1024;
+
+	private static final Logger log = LoggerFactory.getLogger(PeerCountController.class);
+
+	/**
+	 * @param initialPeers
+	 *            target to start with, will be clamped to the bounds
+	 */
+	public PeerCountController(final int minPeers, final int maxPeers, final int initialPeers)
+	{
+		this.minPeers = minPeers;
+		this.maxPeers = Math.max(minPeers, maxPeers);
+		this.target = clamp(initialPeers);
+
+		log.info("peer target {} within [{}, {}]", target, this.minPeers, this.maxPeers);
+	}
+
+	@Override
+	public Message onPreMessageReceived(final Peer peer, final Message m)
+	{
+		final InetSocketAddress address = peer.getAddress().toSocketAddress();
+
+		synchronized (bytesReceived)
+		{
+			long[] bytes = bytesReceived.get(address);
+			if (bytes == null)
+			{
+				bytes = new long[1];
+				bytesReceived.put(address, bytes);
+			}
+			bytes[0] += m.getMessageSize();
+		}
+
+		return m;
+	}
+
+	@Override
+	public void onPeerDisconnected(final Peer peer, final int peerCount)
+	{
+		synchronized (bytesReceived)
+		{
+			bytesReceived.remove(peer.getAddress().toSocketAddress());
+		}
+	}
+
+	/**
+	 * @return true if the link type changed in a way that affects the target
+	 */
+	public synchronized boolean setConnectivity(@CheckForNull final NetworkInfo info)
+	{
+		final boolean wasMobile = mobile;
+		linkName = info != null ? info.getTypeName() : null;
+		mobile = info != null && info.getType() != ConnectivityManager.TYPE_WIFI && info.getType() != ConnectivityManager.TYPE_ETHERNET;
+
+		if (mobile)
+			target = Math.min(target, mobileCap());
+
+		return mobile != wasMobile;
+	}
+
+	public synchronized int getTarget()
+	{
+		return target;
+	}
+
+	public int getMaxPeers()
+	{
+		return maxPeers;
+	}
+
+	/**
+	 * Measures the connected peers since the last evaluation and moves the target.
+	 *
+	 * @return the new target
+	 */
+	public synchronized int evaluate(@Nonnull final List<Peer> peers, @CheckForNull final Peer downloadPeer)
+	{
+		final long now = System.currentTimeMillis();
+		final long elapsedMs = Math.max(1, now - lastEvaluation);
+		lastEvaluation = now;
+
+		final InetSocketAddress downloadAddress = downloadPeer != null ? downloadPeer.getAddress().toSocketAddress() : null;
+		long relayBytes = 0;
+		synchronized (bytesReceived)
+		{
+			for (final Map.Entry<InetSocketAddress, long[]> entry : bytesReceived.entrySet())
+			{
+				if (!entry.getKey().equals(downloadAddress))
+					relayBytes += entry.getValue()[0];
+				entry.getValue()[0] = 0;
+			}
+		}
+		final long relayBps = relayBytes * 1000 / elapsedMs;
+
+		final List<Long> pingTimes = new ArrayList<Long>(peers.size());
+		for (final Peer peer : peers)
+		{
+			final long pingTime = peer.getPingTime();
+			if (pingTime > 0 && pingTime < Long.MAX_VALUE)
+				pingTimes.add(pingTime);
+		}
+		Collections.sort(pingTimes);
+		final long medianPing = pingTimes.isEmpty() ? -1 : pingTimes.get(pingTimes.size() / 2);
+
+		final String reason;
+		int newTarget = target;
+		if (medianPing > POOR_PING_MS)
+		{
+			newTarget--;
+			reason = "poor link";
+		}
+		else if (mobile && relayBps > MOBILE_RELAY_BUDGET_BPS)
+		{
+			newTarget--;
+			reason = "relay traffic over budget";
+		}
+		else if (!mobile && medianPing >= 0 && medianPing < GOOD_PING_MS)
+		{
+			newTarget++;
+			reason = "good link";
+		}
+		else
+		{
+			reason = "no change";
+		}
+
+		if (mobile)
+			newTarget = Math.min(newTarget, mobileCap());
+		newTarget = clamp(newTarget);
+
+		if (newTarget != target)
+			log.info("peer target {} -> {} ({}): {} link, {} peers, median ping {} ms, relay {} B/s", target, newTarget, reason, linkName,
+					peers.size(), medianPing, relayBps);
+		else
+			log.debug("peer target {} ({}): {} link, {} peers, median ping {} ms, relay {} B/s", target, reason, linkName, peers.size(),
+					medianPing, relayBps);
+
+		target = newTarget;
+		return target;
+	}
+
+	private int mobileCap()
+	{
+		return minPeers + (maxPeers - minPeers) / 2;
+	}
+
+	private int clamp(final int peers)
+	{
+		return Math.max(minPeers, Math.min(maxPeers, peers));
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.text.format.DateUtils;
+
+import de.schildbach.wallet.util.Io;
+
+/**
+ * On-disk table of peers we have talked to, so that a starting service can dial known good peers right away instead of
+ * waiting for DNS seeds.
+ *
+ * For every peer it records when it last completed a handshake, its last measured ping time, the number of failed
+ * connection attempts since then and the chain height it announced. Peers that keep failing or have not been seen for a
+ * long time are dropped.
+ */
+public final class PeerDatabase
+{
+	private static final class Entry
+	{
+		public final InetSocketAddress address;
+		public long lastSuccess = 0;
+		public long latency = -1;
+		public int failures = 0;
+		public long servedHeight = 0;
+
+		public Entry(@Nonnull final InetSocketAddress address)
+		{
+			this.address = address;
+		}
+	}
+
+	private final File file;
+	private final Map<InetSocketAddress, Entry> entries = new HashMap<InetSocketAddress, Entry>();
+	private boolean dirty = false;
+
+	private static final int FILE_VERSION = 1;
+	private static final int MAX_ENTRIES = 500;
+	private static final int MAX_FAILURES = 5;
+	private static final long MAX_AGE_MS = 14 * DateUtils.DAY_IN_MILLIS;
+	private static final long RECENT_MS = DateUtils.DAY_IN_MILLIS;
+	private static final long UNKNOWN_LATENCY_MS = 5 * DateUtils.SECOND_IN_MILLIS;
+
+	private static final Logger log = LoggerFactory.getLogger(PeerDatabase.class);
+
+	public PeerDatabase(@Nonnull final File file)
+	{
+		this.file = file;
+
+		load();
+	}
+
+	public void connected(@Nonnull final InetSocketAddress address, final long servedHeight)
+	{
+		synchronized (entries)
+		{
+			final Entry entry = entry(address);
+			entry.lastSuccess = System.currentTimeMillis();
+			entry.failures = 0;
+			entry.servedHeight = Math.max(entry.servedHeight, servedHeight);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @param pingTime
+	 *            last measured round trip in milliseconds, or {@link Long#MAX_VALUE} if there is none
+	 */
+	public void latency(@Nonnull final InetSocketAddress address, final long pingTime)
+	{
+		if (pingTime <= 0 || pingTime == Long.MAX_VALUE)
+			return;
+
+		synchronized (entries)
+		{
+			final Entry entry = entries.get(address);
+			if (entry != null && entry.latency != pingTime)
+			{
+				entry.latency = pingTime;
+				dirty = true;
+			}
+		}
+	}
+
+	public void failed(@Nonnull final InetSocketAddress address)
+	{
+		synchronized (entries)
+		{
+			final Entry entry = entries.get(address);
+			if (entry != null)
+			{
+				entry.failures++;
+				if (entry.failures >= MAX_FAILURES)
+					entries.remove(address);
+				dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * @param minHeight
+	 *            peers that have never served a chain at least this high are ranked last
+	 * @return best peers first: recently successful, few failures, low latency
+	 */
+	public List<InetSocketAddress> best(final int max, final long minHeight)
+	{
+		final List<Entry> candidates;
+		synchronized (entries)
+		{
+			candidates = new ArrayList<Entry>(entries.values());
+		}
+
+		final long now = System.currentTimeMillis();
+
+		Collections.sort(candidates, new Comparator<Entry>()
+		{
+			@Override
+			public int compare(final Entry entry1, final Entry entry2)
+			{
+				final boolean lagging1 = entry1.servedHeight < minHeight;
+				final boolean lagging2 = entry2.servedHeight < minHeight;
+				if (lagging1 != lagging2)
+					return lagging1 ? 1 : -1;
+
+				final boolean recent1 = now - entry1.lastSuccess < RECENT_MS;
+				final boolean recent2 = now - entry2.lastSuccess < RECENT_MS;
+				if (recent1 != recent2)
+					return recent1 ? -1 : 1;
+
+				if (entry1.failures != entry2.failures)
+					return entry1.failures < entry2.failures ? -1 : 1;
+
+				final long latency1 = entry1.latency >= 0 ? entry1.latency : UNKNOWN_LATENCY_MS;
+				final long latency2 = entry2.latency >= 0 ? entry2.latency : UNKNOWN_LATENCY_MS;
+				if (latency1 != latency2)
+					return latency1 < latency2 ? -1 : 1;
+
+				return entry1.lastSuccess > entry2.lastSuccess ? -1 : (entry1.lastSuccess < entry2.lastSuccess ? 1 : 0);
+			}
+		});
+
+		final List<InetSocketAddress> best = new ArrayList<InetSocketAddress>(Math.min(max, candidates.size()));
+		for (final Entry entry : candidates)
+		{
+			if (best.size() >= max)
+				break;
+			best.add(entry.address);
+		}
+
+		return best;
+	}
+
+	public int size()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+
+	private Entry entry(@Nonnull final InetSocketAddress address)
+	{
+		Entry entry = entries.get(address);
+		if (entry == null)
+		{
+			entry = new Entry(address);
+			entries.put(address, entry);
+		}
+		return entry;
+	}
+
+	private void load()
+	{
+		try
+		{
+			final boolean loaded = Io.readDataFile(file, FILE_VERSION, new Io.DataReader()
+			{
+				@Override
+				public void read(final DataInputStream is) throws IOException
+				{
+					final int count = is.readInt();
+					for (int i = 0; i < count; i++)
+					{
+						final byte[] addr = new byte[is.readUnsignedByte()];
+						is.readFully(addr);
+						final int port = is.readUnsignedShort();
+
+						final Entry entry = new Entry(new InetSocketAddress(InetAddress.getByAddress(addr), port));
+						entry.lastSuccess = is.readLong();
+						entry.latency = is.readLong();
+						entry.failures = is.readInt();
+						entry.servedHeight = is.readLong();
+
+						entries.put(entry.address, entry);
+					}
+				}
+			});
+
+			if (loaded)
+				log.info("loaded {} peers from {}", entries.size(), file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading peers from " + file, x);
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Expires stale entries and writes the table, if anything has changed since the last save. Does file I/O, so should
+	 * not be called on the main thread.
+	 */
+	public synchronized void save()
+	{
+		final List<Entry> snapshot;
+		synchronized (entries)
+		{
+			if (!dirty)
+				return;
+
+			final long now = System.currentTimeMillis();
+			for (final Iterator<Entry> i = entries.values().iterator(); i.hasNext();)
+				if (now - i.next().lastSuccess > MAX_AGE_MS)
+					i.remove();
+
+			snapshot = new ArrayList<Entry>(entries.values());
+			dirty = false;
+		}
+
+		if (snapshot.size() > MAX_ENTRIES)
+		{
+			Collections.sort(snapshot, new Comparator<Entry>()
+			{
+				@Override
+				public int compare(final Entry entry1, final Entry entry2)
+				{
+					return entry1.lastSuccess > entry2.lastSuccess ? -1 : (entry1.lastSuccess < entry2.lastSuccess ? 1 : 0);
+				}
+			});
+			snapshot.subList(MAX_ENTRIES, snapshot.size()).clear();
+		}
+
+		try
+		{
+			Io.writeDataFile(file, FILE_VERSION, new Io.DataWriter()
+			{
+				@Override
+				public void write(final DataOutputStream os) throws IOException
+				{
+					os.writeInt(snapshot.size());
+					for (final Entry entry : snapshot)
+					{
+						final byte[] addr = entry.address.getAddress().getAddress();
+						os.writeByte(addr.length);
+						os.write(addr);
+						os.writeShort(entry.address.getPort());
+						os.writeLong(entry.lastSuccess);
+						os.writeLong(entry.latency);
+						os.writeInt(entry.failures);
+						os.writeLong(entry.servedHeight);
+					}
+				}
+			});
+
+			log.info("saved {} peers to {}", snapshot.size(), file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving peers to " + file, x);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.AbstractBlockChainListener;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+
+/**
+ * Bounded ring buffer of the most recent blocks of the best chain, kept up to date as a block chain listener, so that
+ * the block list can be served from memory.
+ *
+ * The buffer only reads the block store to backfill older blocks the first time more are asked for than it holds.
+ */
+public final class RecentBlocks extends AbstractBlockChainListener
+{
+	private final BlockStore blockStore;
+	private final StoredBlock[] blocks;
+	private int head = -1; // index of the newest block
+	private int size = 0;
+	private boolean exhausted = false;
+
+	private static final Logger log = LoggerFactory.getLogger(RecentBlocks.class);
+
+	public RecentBlocks(@Nonnull final BlockStore blockStore, @Nonnull final StoredBlock chainHead, final int capacity)
+	{
+		this.blockStore = blockStore;
+		this.blocks = new StoredBlock[capacity];
+
+		push(chainHead);
+	}
+
+	@Override
+	public void notifyNewBestBlock(final StoredBlock block) throws VerificationException
+	{
+		push(block);
+	}
+
+	@Override
+	public void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks, final List<StoredBlock> newBlocks)
+			throws VerificationException
+	{
+		synchronized (this)
+		{
+			while (size > 0 && blocks[head].getHeight() > splitPoint.getHeight())
+				pop();
+		}
+
+		// new blocks come top first
+		for (int i = newBlocks.size() - 1; i >= 0; i--)
+			push(newBlocks.get(i));
+	}
+
+	/**
+	 * @return up to the given number of blocks, newest first
+	 */
+	public List<StoredBlock> get(final int maxBlocks)
+	{
+		synchronized (this)
+		{
+			if (size < Math.min(maxBlocks, blocks.length) && !exhausted)
+				backfill(Math.min(maxBlocks, blocks.length));
+
+			final int n = Math.min(maxBlocks, size);
+			final List<StoredBlock> recentBlocks = new ArrayList<StoredBlock>(n);
+			for (int i = 0; i < n; i++)
+				recentBlocks.add(blocks[index(head - i)]);
+
+			return recentBlocks;
+		}
+	}
+
+	private synchronized void push(@Nonnull final StoredBlock block)
+	{
+		// drop anything above the parent, so that a fork without reorganize callback is handled as well
+		while (size > 0 && blocks[head].getHeight() >= block.getHeight())
+			pop();
+
+		if (size > 0 && !blocks[head].getHeader().getHash().equals(block.getHeader().getPrevBlockHash()))
+		{
+			log.info("discontinuity at block {}, clearing", block.getHeight());
+			clear();
+		}
+
+		head = index(head + 1);
+		blocks[head] = block;
+		if (size < blocks.length)
+			size++;
+	}
+
+	private void pop()
+	{
+		blocks[head] = null;
+		head = index(head - 1);
+		size--;
+		exhausted = false;
+	}
+
+	private void clear()
+	{
+		while (size > 0)
+			pop();
+	}
+
+	private void backfill(final int wanted)
+	{
+		if (size == 0)
+			return;
+
+		final int oldestIndex = index(head - size + 1);
+		StoredBlock oldest = blocks[oldestIndex];
+
+		try
+		{
+			while (size < wanted)
+			{
+				final StoredBlock prev = oldest.getPrev(blockStore);
+				if (prev == null)
+				{
+					exhausted = true;
+					break;
+				}
+
+				blocks[index(head - size)] = prev;
+				size++;
+				oldest = prev;
+			}
+		}
+		catch (final BlockStoreException x)
+		{
+			// the SPV store only keeps a limited number of headers
+			exhausted = true;
+		}
+	}
+
+	private int index(final int i)
+	{
+		return (i % blocks.length + blocks.length) % blocks.length;
+	}
+}
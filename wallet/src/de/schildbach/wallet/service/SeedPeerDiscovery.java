@@ -0,0 +1,292 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.text.format.DateUtils;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.net.discovery.PeerDiscovery;
+import com.google.bitcoin.net.discovery.PeerDiscoveryException;
+
+import de.schildbach.wallet.util.Io;
+
+/**
+ * Resolves all DNS seeds concurrently, each with its own deadline, and returns as soon as enough addresses are known.
+ * A slow or dead seed therefore no longer holds up the others.
+ *
+ * Resolved addresses are cached on disk per seed for {@link #CACHE_TTL_MS}, so that a service restarted shortly after,
+ * e.g. by the autosync alarm, does not resolve again. Seeds that answer after the deadline still fill the cache for next
+ * time.
+ */
+public final class SeedPeerDiscovery implements PeerDiscovery
+{
+	private static final class CachedSeed
+	{
+		public final long resolvedAt;
+		public final InetAddress[] addresses;
+
+		public CachedSeed(final long resolvedAt, @Nonnull final InetAddress[] addresses)
+		{
+			this.resolvedAt = resolvedAt;
+			this.addresses = addresses;
+		}
+	}
+
+	private final String[] seeds;
+	private final int port;
+	private final int enoughPeers;
+	private final File cacheFile;
+
+	private final Map<String, CachedSeed> cache = new HashMap<String, CachedSeed>();
+	private boolean cacheLoaded = false;
+	private boolean cacheDirty = false;
+
+	private static final long SEED_TIMEOUT_MS = 5 * DateUtils.SECOND_IN_MILLIS;
+	private static final long CACHE_TTL_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
+	private static final int CACHE_FILE_VERSION = 1;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable)
+		{
+			final Thread thread = new Thread(runnable, "seed-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final Logger log = LoggerFactory.getLogger(SeedPeerDiscovery.class);
+
+	/**
+	 * @param enoughPeers
+	 *            number of addresses after which to stop waiting for further seeds
+	 */
+	public SeedPeerDiscovery(@Nonnull final NetworkParameters params, final int enoughPeers, @Nonnull final File cacheFile)
+	{
+		this.seeds = params.getDnsSeeds() != null ? params.getDnsSeeds() : new String[0];
+		this.port = params.getPort();
+		this.enoughPeers = enoughPeers;
+		this.cacheFile = cacheFile;
+	}
+
+	@Override
+	public InetSocketAddress[] getPeers(final long timeoutValue, final TimeUnit timeoutUnit) throws PeerDiscoveryException
+	{
+		final long start = System.currentTimeMillis();
+		final long deadline = start + Math.min(timeoutUnit.toMillis(timeoutValue), SEED_TIMEOUT_MS);
+
+		final Set<InetAddress> addresses = new LinkedHashSet<InetAddress>();
+		final List<String> staleSeeds = new ArrayList<String>(seeds.length);
+
+		synchronized (cache)
+		{
+			if (!cacheLoaded)
+			{
+				loadCache();
+				cacheLoaded = true;
+			}
+
+			for (final String seed : seeds)
+			{
+				final CachedSeed cached = cache.get(seed);
+				if (cached != null && start - cached.resolvedAt < CACHE_TTL_MS)
+					Collections.addAll(addresses, cached.addresses);
+				else
+					staleSeeds.add(seed);
+			}
+		}
+
+		if (addresses.size() < enoughPeers && !staleSeeds.isEmpty())
+		{
+			final CompletionService<InetAddress[]> completion = new ExecutorCompletionService<InetAddress[]>(executor);
+			for (final String seed : staleSeeds)
+				completion.submit(new Callable<InetAddress[]>()
+				{
+					@Override
+					public InetAddress[] call() throws IOException
+					{
+						final InetAddress[] resolved = InetAddress.getAllByName(seed);
+
+						// also late answers are cached
+						synchronized (cache)
+						{
+							cache.put(seed, new CachedSeed(System.currentTimeMillis(), resolved));
+							cacheDirty = true;
+						}
+
+						return resolved;
+					}
+				});
+
+			try
+			{
+				for (int pending = staleSeeds.size(); pending > 0 && addresses.size() < enoughPeers; pending--)
+				{
+					final long remaining = deadline - System.currentTimeMillis();
+					final Future<InetAddress[]> future = remaining > 0 ? completion.poll(remaining, TimeUnit.MILLISECONDS) : null;
+					if (future == null)
+					{
+						log.info("{} seeds did not answer within {} ms", pending, deadline - start);
+						break;
+					}
+
+					try
+					{
+						Collections.addAll(addresses, future.get());
+					}
+					catch (final ExecutionException x)
+					{
+						log.info("seed failed: {}", x.getCause().getMessage());
+					}
+				}
+			}
+			catch (final InterruptedException x)
+			{
+				throw new PeerDiscoveryException(x);
+			}
+		}
+
+		saveCache();
+
+		if (addresses.isEmpty())
+			throw new PeerDiscoveryException("no seed answered within " + (deadline - start) + " ms");
+
+		final List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>(addresses.size());
+		for (final InetAddress address : addresses)
+			peers.add(new InetSocketAddress(address, port));
+		Collections.shuffle(peers);
+
+		log.info("discovered {} peers from {} seeds ({} from cache), took {} ms", peers.size(), seeds.length, seeds.length - staleSeeds.size(),
+				System.currentTimeMillis() - start);
+
+		return peers.toArray(new InetSocketAddress[0]);
+	}
+
+	@Override
+	public void shutdown()
+	{
+		saveCache();
+	}
+
+	private void loadCache()
+	{
+		try
+		{
+			Io.readDataFile(cacheFile, CACHE_FILE_VERSION, new Io.DataReader()
+			{
+				@Override
+				public void read(final DataInputStream is) throws IOException
+				{
+					final int numSeeds = is.readInt();
+					for (int i = 0; i < numSeeds; i++)
+					{
+						final String seed = is.readUTF();
+						final long resolvedAt = is.readLong();
+						final InetAddress[] addresses = new InetAddress[is.readInt()];
+						for (int j = 0; j < addresses.length; j++)
+						{
+							final byte[] addr = new byte[is.readUnsignedByte()];
+							is.readFully(addr);
+							addresses[j] = InetAddress.getByAddress(addr);
+						}
+
+						cache.put(seed, new CachedSeed(resolvedAt, addresses));
+					}
+				}
+			});
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading seed cache from " + cacheFile, x);
+			cache.clear();
+		}
+	}
+
+	private void saveCache()
+	{
+		final Map<String, CachedSeed> snapshot;
+		synchronized (cache)
+		{
+			if (!cacheDirty)
+				return;
+
+			snapshot = new HashMap<String, CachedSeed>(cache);
+			cacheDirty = false;
+		}
+
+		try
+		{
+			Io.writeDataFile(cacheFile, CACHE_FILE_VERSION, new Io.DataWriter()
+			{
+				@Override
+				public void write(final DataOutputStream os) throws IOException
+				{
+					os.writeInt(snapshot.size());
+					for (final Map.Entry<String, CachedSeed> entry : snapshot.entrySet())
+					{
+						os.writeUTF(entry.getKey());
+						os.writeLong(entry.getValue().resolvedAt);
+						os.writeInt(entry.getValue().addresses.length);
+						for (final InetAddress address : entry.getValue().addresses)
+						{
+							final byte[] addr = address.getAddress();
+							os.writeByte(addr.length);
+							os.write(addr);
+						}
+					}
+				}
+			});
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving seed cache to " + cacheFile, x);
+		}
+	}
+}
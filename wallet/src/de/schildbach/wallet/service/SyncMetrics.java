@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import de.schildbach.wallet.Constants;
+
+/**
+ * Counters and histograms describing chain sync throughput, recorded by {@link BlockchainServiceImpl} while it runs.
+ * All methods may be called from any thread.
+ *
+ * The report produced by {@link #toString()} is stable in layout, so that dumps from different builds can be compared
+ * line by line.
+ */
+public final class SyncMetrics
+{
+	/**
+	 * Total count plus a rate over the last minute, kept in one-second buckets.
+	 */
+	public static final class Meter
+	{
+		private static final int WINDOW_SECONDS = 60;
+
+		private final long[] buckets = new long[WINDOW_SECONDS];
+		private long bucketSecond = 0;
+		private long count = 0;
+		private final long createdAt = System.currentTimeMillis();
+
+		public synchronized void mark(final long n)
+		{
+			advance(System.currentTimeMillis() / 1000);
+			buckets[(int) (bucketSecond % WINDOW_SECONDS)] += n;
+			count += n;
+		}
+
+		public synchronized long getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * @return average per second over the last minute, or since creation if that is shorter
+		 */
+		public synchronized double getRate()
+		{
+			final long now = System.currentTimeMillis();
+			advance(now / 1000);
+
+			long sum = 0;
+			for (final long bucket : buckets)
+				sum += bucket;
+
+			final double seconds = Math.min(WINDOW_SECONDS, Math.max(1, (now - createdAt) / 1000.0));
+			return sum / seconds;
+		}
+
+		private void advance(final long second)
+		{
+			if (second - bucketSecond >= WINDOW_SECONDS)
+			{
+				for (int i = 0; i < WINDOW_SECONDS; i++)
+					buckets[i] = 0;
+			}
+			else
+			{
+				for (long s = bucketSecond + 1; s <= second; s++)
+					buckets[(int) (s % WINDOW_SECONDS)] = 0;
+			}
+
+			if (second > bucketSecond)
+				bucketSecond = second;
+		}
+	}
+
+	/**
+	 * Distribution of non-negative values in power-of-two buckets, which is precise enough to compare builds and costs
+	 * no allocation per sample.
+	 */
+	public static final class Histogram
+	{
+		private final long[] buckets = new long[64];
+		private long count = 0;
+		private long sum = 0;
+		private long max = 0;
+
+		public synchronized void update(final long value)
+		{
+			final long v = Math.max(0, value);
+			buckets[64 - Long.numberOfLeadingZeros(v)]++;
+			count++;
+			sum += v;
+			max = Math.max(max, v);
+		}
+
+		public synchronized long getCount()
+		{
+			return count;
+		}
+
+		public synchronized long getSum()
+		{
+			return sum;
+		}
+
+		public synchronized double getMean()
+		{
+			return count > 0 ? (double) sum / count : 0;
+		}
+
+		public synchronized long getMax()
+		{
+			return max;
+		}
+
+		/**
+		 * @return upper bound of the bucket containing the given quantile
+		 */
+		public synchronized long getQuantile(final double quantile)
+		{
+			if (count == 0)
+				return 0;
+
+			final long rank = (long) Math.ceil(quantile * count);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++)
+			{
+				seen += buckets[i];
+				if (seen >= rank)
+					return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+			}
+
+			return max;
+		}
+
+		@Override
+		public synchronized String toString()
+		{
+			return String.format(Locale.US, "n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", count, getMean(), getQuantile(0.5), getQuantile(0.9),
+					getQuantile(0.99), max);
+		}
+	}
+
+	public final Meter blocks = new Meter();
+	public final Meter filteredBlockBytes = new Meter();
+	public final Histogram blockProcessingMicros = new Histogram();
+	public final Histogram walletCallbackMicros = new Histogram();
+	public final Meter blockStoreHits = new Meter();
+	public final Meter blockStoreMisses = new Meter();
+	public final Meter blockListIndexReads = new Meter();
+	private final Map<String, Histogram> peerRoundTripMs = new TreeMap<String, Histogram>();
+
+	private final long startedAt = System.currentTimeMillis();
+
+	public Histogram peerRoundTrip(@Nonnull final String peer)
+	{
+		synchronized (peerRoundTripMs)
+		{
+			Histogram histogram = peerRoundTripMs.get(peer);
+			if (histogram == null)
+			{
+				histogram = new Histogram();
+				peerRoundTripMs.put(peer, histogram);
+			}
+			return histogram;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append(String.format(Locale.US, "uptime: %d s\n", (System.currentTimeMillis() - startedAt) / 1000));
+		builder.append(String.format(Locale.US, "blocks: %d, %.2f/s\n", blocks.getCount(), blocks.getRate()));
+		builder.append(String.format(Locale.US, "filtered block bytes: %d, %.0f/s\n", filteredBlockBytes.getCount(), filteredBlockBytes.getRate()));
+		builder.append("block processing us: ").append(blockProcessingMicros).append('\n');
+		builder.append("wallet callbacks us: ").append(walletCallbackMicros).append('\n');
+		builder.append(String.format(Locale.US, "block store reads from memo or index: %d, passed to spv store: %d\n", blockStoreHits.getCount(),
+				blockStoreMisses.getCount()));
+		builder.append(String.format(Locale.US, "block list reads from index: %d\n", blockListIndexReads.getCount()));
+
+		synchronized (peerRoundTripMs)
+		{
+			for (final Map.Entry<String, Histogram> entry : peerRoundTripMs.entrySet())
+				builder.append("rtt ms ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Writes the report, preceded by the given header, e.g. build and device, so dumps can be compared offline.
+	 */
+	public void dump(@Nonnull final File file, @Nonnull final String header) throws IOException
+	{
+		Writer writer = null;
+		try
+		{
+			writer = new OutputStreamWriter(new FileOutputStream(file), Constants.UTF_8);
+			writer.write(header);
+			writer.write('\n');
+			writer.write(toString());
+		}
+		finally
+		{
+			if (writer != null)
+				writer.close();
+		}
+	}
+}
@@ -47,6 +47,8 @@ import android.support.v4.content.Loader;
 import android.text.format.DateUtils;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -85,7 +87,9 @@ public final class BlockListFragment extends SherlockListFragment
 	private static final int ID_BLOCK_LOADER = 0;
 	private static final int ID_TRANSACTION_LOADER = 1;
 
-	private static final int MAX_BLOCKS = 32;
+	private static final int BLOCKS_PER_PAGE = 100;
+
+	private int maxBlocks = BLOCKS_PER_PAGE;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockListFragment.class);
 
@@ -118,6 +122,37 @@ public final class BlockListFragment extends SherlockListFragment
 		setListAdapter(adapter);
 	}
 
+	@Override
+	public void onViewCreated(final View view, final Bundle savedInstanceState)
+	{
+		super.onViewCreated(view, savedInstanceState);
+
+		getListView().setOnScrollListener(new OnScrollListener()
+		{
+			@Override
+			public void onScroll(final AbsListView view, final int firstVisibleItem, final int visibleItemCount, final int totalItemCount)
+			{
+				// page in older blocks when scrolled to the end of a full page
+				if (totalItemCount >= maxBlocks && firstVisibleItem + visibleItemCount >= totalItemCount)
+				{
+					maxBlocks += BLOCKS_PER_PAGE;
+
+					final Loader<List<StoredBlock>> loader = loaderManager.getLoader(ID_BLOCK_LOADER);
+					if (loader != null)
+					{
+						((BlockLoader) loader).setMaxBlocks(maxBlocks);
+						loader.forceLoad();
+					}
+				}
+			}
+
+			@Override
+			public void onScrollStateChanged(final AbsListView view, final int scrollState)
+			{
+			}
+		});
+	}
+
 	@Override
 	public void onResume()
 	{
@@ -232,7 +267,7 @@ public final class BlockListFragment extends SherlockListFragment
 		private final TransactionsListAdapter transactionsAdapter = new TransactionsListAdapter(activity, wallet, application.maxConnectedPeers(),
 				false);
 
-		private final List<StoredBlock> blocks = new ArrayList<StoredBlock>(MAX_BLOCKS);
+		private final List<StoredBlock> blocks = new ArrayList<StoredBlock>(BLOCKS_PER_PAGE);
 
 		public void clear()
 		{
@@ -340,13 +375,20 @@ public final class BlockListFragment extends SherlockListFragment
 	{
 		private Context context;
 		private BlockchainService service;
+		private volatile int maxBlocks;
 
-		private BlockLoader(final Context context, final BlockchainService service)
+		private BlockLoader(final Context context, final BlockchainService service, final int maxBlocks)
 		{
 			super(context);
 
 			this.context = context.getApplicationContext();
 			this.service = service;
+			this.maxBlocks = maxBlocks;
+		}
+
+		public void setMaxBlocks(final int maxBlocks)
+		{
+			this.maxBlocks = maxBlocks;
 		}
 
 		@Override
@@ -368,7 +410,7 @@ public final class BlockListFragment extends SherlockListFragment
 		@Override
 		public List<StoredBlock> loadInBackground()
 		{
-			return service.getRecentBlocks(MAX_BLOCKS);
+			return service.getRecentBlocks(maxBlocks);
 		}
 
 		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
@@ -393,7 +435,7 @@ public final class BlockListFragment extends SherlockListFragment
 		@Override
 		public Loader<List<StoredBlock>> onCreateLoader(final int id, final Bundle args)
 		{
-			return new BlockLoader(activity, service);
+			return new BlockLoader(activity, service, maxBlocks);
 		}
 
 		@Override
@@ -77,6 +77,7 @@ public final class CurrencyAmountView extends FrameLayout
 	private OnClickListener contextButtonClickListener;
 
     private boolean reportBTC = false;
+	private final StringBuilder formatBuilder = new StringBuilder();
 
 	public CurrencyAmountView(final Context context)
 	{
@@ -219,18 +220,7 @@ public final class CurrencyAmountView extends FrameLayout
 			textViewListener.setFire(false);
 
 		if (amount != null)
-        {
-            if(reportBTC)
-            {
-                textView.setText(amountSigned ? GenericUtils.formatValue_BTC(amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN,
-                        inputPrecision, shift) : GenericUtils.formatValue_BTC(amount, inputPrecision, shift));
-            }
-            else
-            {
-			    textView.setText(amountSigned ? GenericUtils.formatValue(amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN,
-					inputPrecision, shift) : GenericUtils.formatValue(amount, inputPrecision, shift));
-            }
-        }
+			textView.setText(format(amount, amountSigned, inputPrecision));
 		else
 			textView.setText(null);
 
@@ -240,13 +230,23 @@ public final class CurrencyAmountView extends FrameLayout
 
 	public void setHint(@Nullable final BigInteger amount)
 	{
-		final SpannableStringBuilder hint = new SpannableStringBuilder(reportBTC ? GenericUtils.formatValue_BTC(amount != null ? amount : BigInteger.ZERO,
-				hintPrecision, shift) : GenericUtils.formatValue(amount != null ? amount : BigInteger.ZERO,
-                hintPrecision, shift));
+		final SpannableStringBuilder hint = new SpannableStringBuilder(format(amount != null ? amount : BigInteger.ZERO, false, hintPrecision));
 		WalletUtils.formatSignificant(hint, smallerInsignificant ? WalletUtils.SMALLER_SPAN : null);
 		textView.setHint(hint);
 	}
 
+	private CharSequence format(@Nonnull final BigInteger amount, final boolean signed, final int precision)
+	{
+		final String plusSign = signed ? Constants.CURRENCY_PLUS_SIGN : "";
+		final String minusSign = signed ? Constants.CURRENCY_MINUS_SIGN : "-";
+		formatBuilder.setLength(0);
+
+		if (reportBTC)
+			return GenericUtils.formatValue_BTC(formatBuilder, amount.longValue(), plusSign, minusSign, precision, shift);
+		else
+			return GenericUtils.formatValue(formatBuilder, amount.longValue(), plusSign, minusSign, precision, shift);
+	}
+
 	@Override
 	public void setEnabled(final boolean enabled)
 	{
@@ -49,6 +49,7 @@ public final class CurrencyTextView extends TextView
 	private RelativeSizeSpan prefixRelativeSizeSpan = null;
 	private RelativeSizeSpan insignificantRelativeSizeSpan = null;
     private boolean reportBTC = false;
+	private final StringBuilder formatBuilder = new StringBuilder();
 
 	public CurrencyTextView(final Context context)
 	{
@@ -129,22 +130,15 @@ public final class CurrencyTextView extends TextView
 
 		if (amount != null)
 		{
-			final String s;
+			final String plusSign = alwaysSigned ? Constants.CURRENCY_PLUS_SIGN : "";
+			final String minusSign = alwaysSigned ? Constants.CURRENCY_MINUS_SIGN : "-";
+			formatBuilder.setLength(0);
             if(reportBTC)
-            {
-                if (alwaysSigned)
-                    s = GenericUtils.formatValue_BTC(amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision, shift);
-                else
-                    s = GenericUtils.formatValue_BTC(amount, precision, shift);
-            }
-            else {
-			    if (alwaysSigned)
-			    	s = GenericUtils.formatValue(amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision, shift);
-			    else
-				    s = GenericUtils.formatValue(amount, precision, shift);
-            }
-
-			text = new SpannableStringBuilder(s);
+                GenericUtils.formatValue_BTC(formatBuilder, amount.longValue(), plusSign, minusSign, precision, shift);
+            else
+                GenericUtils.formatValue(formatBuilder, amount.longValue(), plusSign, minusSign, precision, shift);
+
+			text = new SpannableStringBuilder(formatBuilder);
 			WalletUtils.formatSignificant(text, insignificantRelativeSizeSpan);
 
 			if (prefix != null)
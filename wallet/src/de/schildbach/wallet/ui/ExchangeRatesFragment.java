@@ -250,7 +250,8 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 		{
 			final Cursor oldCursor = adapter.swapCursor(data);
 
-			if (data != null && oldCursor == null && defaultCurrency != null)
+			// the first load may come up empty and be followed by the rates from a background refresh
+			if (data != null && (oldCursor == null || oldCursor.getCount() == 0) && defaultCurrency != null)
 			{
 				final int defaultCurrencyPosition = findCurrencyCode(data, defaultCurrency);
 				if (defaultCurrencyPosition >= 0)
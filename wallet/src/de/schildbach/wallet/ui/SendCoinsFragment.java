@@ -1042,8 +1042,8 @@ public final class SendCoinsFragment extends SherlockFragment
 		@Override
 		public Cursor runQueryOnBackgroundThread(final CharSequence constraint)
 		{
-			final Cursor cursor = activity.managedQuery(AddressBookProvider.contentUri(activity.getPackageName()), null,
-					AddressBookProvider.SELECTION_QUERY, new String[] { constraint.toString() }, null);
+			final Cursor cursor = activity.getContentResolver().query(AddressBookProvider.contentUri(activity.getPackageName()), null,
+					AddressBookProvider.SELECTION_SEARCH, new String[] { constraint != null ? constraint.toString() : "" }, null);
 			return cursor;
 		}
 	}
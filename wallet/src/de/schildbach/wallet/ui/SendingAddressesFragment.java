@@ -53,6 +53,7 @@ import com.google.bitcoin.core.ECKey;
 import de.schildbach.wallet.AddressBookProvider;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.PaymentIntent;
+import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.ui.InputParser.StringInputParser;
 import de.schildbach.wallet.util.BitmapFragment;
 import de.schildbach.wallet.util.Qr;
@@ -385,6 +386,10 @@ public final class SendingAddressesFragment extends SherlockListFragment impleme
 	@Override
 	public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
 	{
+		// the whole address book has been queried anyway
+		if (data != null)
+			((WalletApplication) activity.getApplication()).getAddressBookLabels().putAll(data);
+
 		adapter.swapCursor(data);
 	}
 
@@ -26,7 +26,7 @@ import de.schildbach.wallet.service.BlockchainServiceImpl;
 import de.schildbach.wallet.sweep.SweepHelper;
 import de.schildbach.wallet.sweep.UnspentOutput;
 import de.schildbach.wallet.util.GenericUtils;
-import de.schildbach.wallet.util.Io;
+import de.schildbach.wallet.util.JsonStreamReader;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -37,7 +37,6 @@ import org.spongycastle.util.encoders.Hex;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -559,7 +558,7 @@ public class SweepKeyFragment extends SherlockFragment {
 
         private Integer fetchUnspentOutputs (String baseUrl, String... address) {
             HttpURLConnection connection = null;
-            Reader reader = null;
+            JsonStreamReader reader = null;
             String urlString;
 
             // fail by default
@@ -577,13 +576,11 @@ public class SweepKeyFragment extends SherlockFragment {
                 final int responseCode = connection.getResponseCode();
                 if (responseCode == HttpURLConnection.HTTP_OK)
                 {
-                    reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Constants.UTF_8);
-                    final StringBuilder content = new StringBuilder();
-                    Io.copy(reader, content);
+                    reader = new JsonStreamReader(new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Constants.UTF_8));
 
                     // pass JSON content to the parser and accept it's
                     // result output as ours
-                    result = parseUnspentJSON_blockr(content.toString());
+                    result = parseUnspentJSON_blockr(reader);
                 }
                 else
                 {
@@ -611,44 +608,94 @@ public class SweepKeyFragment extends SherlockFragment {
             return result;
         }
 
-        private Integer parseUnspentJSON_blockr (String doc) {
-            try
+        // {"status":"success","data":{"unspent":[{"tx":..,"amount":..,"n":..,"confirmations":..,"script":..},..],..},..}
+        private Integer parseUnspentJSON_blockr (JsonStreamReader reader) throws IOException {
+            String status = null;
+            final List<UnspentOutput> outputs = new ArrayList<UnspentOutput>();
+
+            reader.beginObject();
+            while (reader.hasNext())
             {
-                final JSONObject json = new JSONObject(doc);
+                final String name = reader.nextName();
+                if (name.equals("status"))
+                {
+                    status = reader.nextString();
+                }
+                else if (name.equals("data") && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT)
+                {
+                    reader.beginObject();
+                    if (reader.skipToName("unspent"))
+                    {
+                        reader.beginArray();
+                        while (reader.hasNext())
+                            outputs.add(parseUnspentOutput_blockr(reader));
+                        reader.endArray();
+
+                        while (reader.hasNext())
+                        {
+                            reader.nextName();
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                else
+                {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
 
-                // json should validate itself, otherwise we do not trust it.
-                String success = json.getString("status");
+            // json should validate itself, otherwise we do not trust it.
+            if (!"success".equals(status))
+                return -1;
 
-                if (!success.equals(success))
-                    return -1;
+            // if there are no unspent outputs, balance is 0
+            // and we have nothing to sweep
+            if (outputs.isEmpty())
+                return 0;
 
-                JSONObject dataJson = json.getJSONObject("data");
-                JSONArray unspentJson = dataJson.getJSONArray("unspent");
+            unspentOutputs.addAll(outputs);
 
-                // if there are no unspent outputs, balance is 0
-                // and we have nothing to sweep
-                if(unspentJson.length() <= 0)
-                    return 0;
+            return 1;
+        }
 
-                for (int i = 0 ; i < unspentJson.length(); i++)
-                {
-                    JSONObject output = unspentJson.getJSONObject(i);
-                    UnspentOutput out = new UnspentOutput(
-                            output.getString("tx"),
-                            output.getInt("n"),
-                            output.getString("script"),
-                            BigInteger.valueOf((long)(Double.parseDouble(String.format("%.05f", output.getDouble("amount")).replace(",", "."))) *100000),
-                            output.getInt("confirmations")
-                    );
-                    unspentOutputs.add(out);
-                }
-            } catch (JSONException e)
+        private UnspentOutput parseUnspentOutput_blockr (JsonStreamReader reader) throws IOException {
+            String tx = null;
+            int n = -1;
+            String script = null;
+            double amount = 0;
+            int confirmations = 0;
+
+            reader.beginObject();
+            while (reader.hasNext())
             {
-                log.debug("Error while reading the JSON response");
-                return -1;
+                final String name = reader.nextName();
+                if (name.equals("tx"))
+                    tx = reader.nextString();
+                else if (name.equals("n"))
+                    n = reader.nextInt();
+                else if (name.equals("script"))
+                    script = reader.nextString();
+                else if (name.equals("amount"))
+                    amount = reader.nextDouble();
+                else if (name.equals("confirmations"))
+                    confirmations = reader.nextInt();
+                else
+                    reader.skipValue();
             }
+            reader.endObject();
 
-            return 1;
+            if (tx == null || n < 0 || script == null)
+                throw new IOException("incomplete unspent output");
+
+            return new UnspentOutput(
+                    tx,
+                    n,
+                    script,
+                    BigInteger.valueOf((long)(Double.parseDouble(String.format("%.05f", amount).replace(",", "."))) *100000),
+                    confirmations
+            );
         }
     }
     private Integer parseUnspentJSON_abe (String doc) {
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.actionbarsherlock.app.SherlockFragment;
+import com.actionbarsherlock.view.Menu;
+import com.actionbarsherlock.view.MenuInflater;
+import com.actionbarsherlock.view.MenuItem;
+
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.service.BlockchainService;
+import de.schildbach.wallet.service.BlockchainServiceImpl;
+import de.schildbach.wallet.util.Iso8601Format;
+import hashengineering.quarkcoin.wallet.R;
+
+/**
+ * Shows the sync metrics of the running {@link BlockchainService} and saves them to external storage, so that builds can
+ * be compared offline.
+ */
+public final class SyncMetricsFragment extends SherlockFragment
+{
+	private AbstractWalletActivity activity;
+	private WalletApplication application;
+
+	private BlockchainService service;
+	private TextView textView;
+
+	private final Handler handler = new Handler();
+
+	private static final long REFRESH_MS = DateUtils.SECOND_IN_MILLIS;
+
+	private static final Logger log = LoggerFactory.getLogger(SyncMetricsFragment.class);
+
+	@Override
+	public void onAttach(final Activity activity)
+	{
+		super.onAttach(activity);
+
+		this.activity = (AbstractWalletActivity) activity;
+		this.application = (WalletApplication) activity.getApplication();
+	}
+
+	@Override
+	public void onCreate(final Bundle savedInstanceState)
+	{
+		super.onCreate(savedInstanceState);
+
+		setHasOptionsMenu(true);
+	}
+
+	@Override
+	public void onActivityCreated(final Bundle savedInstanceState)
+	{
+		super.onActivityCreated(savedInstanceState);
+
+		activity.bindService(new Intent(activity, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+	}
+
+	@Override
+	public View onCreateView(final LayoutInflater inflater, final ViewGroup container, final Bundle savedInstanceState)
+	{
+		final View view = inflater.inflate(R.layout.sync_metrics_fragment, container, false);
+
+		textView = (TextView) view.findViewById(R.id.sync_metrics_text);
+
+		return view;
+	}
+
+	@Override
+	public void onResume()
+	{
+		super.onResume();
+
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				updateView();
+
+				handler.postDelayed(this, REFRESH_MS);
+			}
+		});
+	}
+
+	@Override
+	public void onPause()
+	{
+		handler.removeCallbacksAndMessages(null);
+
+		super.onPause();
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		activity.unbindService(serviceConnection);
+
+		super.onDestroy();
+	}
+
+	@Override
+	public void onCreateOptionsMenu(final Menu menu, final MenuInflater inflater)
+	{
+		if (menu.findItem(R.id.sync_metrics_options_dump) == null)
+			inflater.inflate(R.menu.sync_metrics_fragment_options, menu);
+
+		super.onCreateOptionsMenu(menu, inflater);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item)
+	{
+		switch (item.getItemId())
+		{
+			case R.id.sync_metrics_options_dump:
+				handleDump();
+				return true;
+		}
+
+		return super.onOptionsItemSelected(item);
+	}
+
+	private void updateView()
+	{
+		if (textView != null && service != null)
+			textView.setText(service.getSyncMetrics().toString());
+	}
+
+	private void handleDump()
+	{
+		if (service == null)
+			return;
+
+		final Date now = new Date();
+		final DateFormat dateFormat = Iso8601Format.newDateFormat();
+		dateFormat.setTimeZone(TimeZone.getDefault());
+
+		final StringBuilder header = new StringBuilder();
+		header.append("Version: ").append(application.packageInfo().versionName).append(" (").append(application.packageInfo().versionCode)
+				.append(")\n");
+		header.append("Device Model: ").append(Build.MODEL).append('\n');
+		header.append("Android Version: ").append(Build.VERSION.RELEASE).append('\n');
+		header.append("Time: ").append(Iso8601Format.formatDateTimeT(now)).append('\n');
+
+		try
+		{
+			Constants.EXTERNAL_WALLET_BACKUP_DIR.mkdirs();
+			final File file = new File(Constants.EXTERNAL_WALLET_BACKUP_DIR, Constants.EXTERNAL_SYNC_METRICS_DUMP + "-" + dateFormat.format(now)
+					+ "-" + now.getTime() / 1000 + ".txt");
+
+			service.getSyncMetrics().dump(file, header.toString());
+
+			log.info("sync metrics saved to {}", file);
+			activity.longToast(R.string.sync_metrics_dump_success, file);
+		}
+		catch (final IOException x)
+		{
+			log.info("problem saving sync metrics", x);
+			activity.longToast(R.string.sync_metrics_dump_failure, x.getMessage());
+		}
+	}
+
+	private final ServiceConnection serviceConnection = new ServiceConnection()
+	{
+		@Override
+		public void onServiceConnected(final ComponentName name, final IBinder binder)
+		{
+			service = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+
+			updateView();
+		}
+
+		@Override
+		public void onServiceDisconnected(final ComponentName name)
+		{
+			service = null;
+		}
+	};
+}
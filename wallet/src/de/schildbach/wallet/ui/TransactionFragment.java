@@ -31,7 +31,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import com.actionbarsherlock.app.SherlockFragment;
 import com.google.bitcoin.core.*;
-import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.AddressBookLabels;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.util.*;
@@ -85,7 +85,9 @@ public final class TransactionFragment extends SherlockFragment
 
 	public void update(final Transaction tx)
 	{
-		final Wallet wallet = ((WalletApplication) activity.getApplication()).getWallet();
+		final WalletApplication application = (WalletApplication) activity.getApplication();
+		final Wallet wallet = application.getWallet();
+		final AddressBookLabels addressBookLabels = application.getAddressBookLabels();
 
 		final byte[] serializedTx = tx.unsafeBitcoinSerialize();
 
@@ -151,7 +153,7 @@ public final class TransactionFragment extends SherlockFragment
 		final TextView viewFromLabel = (TextView) view.findViewById(R.id.transaction_fragment_from_label);
 		if (from != null)
 		{
-			final String label = AddressBookProvider.resolveLabel(activity, from.toString());
+			final String label = addressBookLabels.resolveLabel(from.toString());
 			final StringBuilder builder = new StringBuilder();
 
 			if (fromMine)
@@ -187,7 +189,7 @@ public final class TransactionFragment extends SherlockFragment
 		final TextView viewToLabel = (TextView) view.findViewById(R.id.transaction_fragment_to_label);
 		if (to != null)
 		{
-			final String label = AddressBookProvider.resolveLabel(activity, to.toString());
+			final String label = addressBookLabels.resolveLabel(to.toString());
 			final StringBuilder builder = new StringBuilder();
 
 			if (toMine)
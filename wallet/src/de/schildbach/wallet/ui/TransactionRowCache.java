@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui;
+
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Transaction.Purpose;
+import com.google.bitcoin.core.Wallet;
+
+import de.schildbach.wallet.util.WalletUtils;
+
+/**
+ * Data derived from a transaction for displaying it in a list row, keyed by transaction hash. Deriving it walks the
+ * wallet and parses scripts, so rows are computed once, preferably on a background thread, and invalidated only when
+ * the transaction changes.
+ *
+ * Confidence is not part of the row, as it is cheap to query and changes with every block.
+ */
+public final class TransactionRowCache
+{
+	public static final class Row
+	{
+		public final BigInteger value;
+		public final boolean sent;
+		public final boolean isInternal;
+		public final boolean isCoinBase;
+		public final boolean isTimeLocked;
+		public final boolean isKeyRotation;
+		@CheckForNull
+		public final Address address;
+
+		private Row(@Nonnull final Transaction tx, @Nonnull final Wallet wallet)
+		{
+			value = tx.getValue(wallet);
+			sent = value.signum() < 0;
+			isInternal = WalletUtils.isInternal(tx);
+			isCoinBase = tx.isCoinBase();
+			isTimeLocked = tx.isTimeLocked();
+			isKeyRotation = tx.getPurpose() == Purpose.KEY_ROTATION;
+			address = sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
+		}
+	}
+
+	private final Wallet wallet;
+	private final ConcurrentMap<Sha256Hash, Row> rows = new ConcurrentHashMap<Sha256Hash, Row>();
+
+	public TransactionRowCache(@Nonnull final Wallet wallet)
+	{
+		this.wallet = wallet;
+	}
+
+	public Row get(@Nonnull final Transaction tx)
+	{
+		final Sha256Hash hash = tx.getHash();
+
+		Row row = rows.get(hash);
+		if (row == null)
+		{
+			row = new Row(tx, wallet);
+			rows.put(hash, row);
+		}
+
+		return row;
+	}
+
+	public void invalidate(@Nonnull final Sha256Hash hash)
+	{
+		rows.remove(hash);
+	}
+
+	public void clear()
+	{
+		rows.clear();
+	}
+}
@@ -21,9 +21,8 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -36,19 +35,21 @@ import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Sha256Hash;
 import com.google.bitcoin.core.Transaction;
-import com.google.bitcoin.core.Transaction.Purpose;
 import com.google.bitcoin.core.TransactionConfidence;
 import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.wallet.DefaultCoinSelector;
 
-import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.AddressBookLabels;
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.util.CircularProgressView;
 import de.schildbach.wallet.util.WalletUtils;
 import hashengineering.quarkcoin.wallet.R;
@@ -60,7 +61,6 @@ public class TransactionsListAdapter extends BaseAdapter
 {
 	private final Context context;
 	private final LayoutInflater inflater;
-	private final Wallet wallet;
 	private final int maxConnectedPeers;
 
 	private final List<Transaction> transactions = new ArrayList<Transaction>();
@@ -75,9 +75,12 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final int colorCircularBuilding = Color.parseColor("#44ff44");
 	private final String textCoinBase;
 	private final String textInternal;
+	private final CharSequence textKeyRotation;
+	private final CharSequence textBackupWarning;
 
-	private final Map<String, String> labelCache = new HashMap<String, String>();
-	private final static String CACHE_NULL_MARKER = "";
+	private final TransactionRowCache rowCache;
+
+	private final AddressBookLabels addressBookLabels;
 
 	private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
 	private static final String CONFIDENCE_SYMBOL_UNKNOWN = "?";
@@ -90,7 +93,6 @@ public class TransactionsListAdapter extends BaseAdapter
 		this.context = context;
 		inflater = LayoutInflater.from(context);
 
-		this.wallet = wallet;
 		this.maxConnectedPeers = maxConnectedPeers;
 		this.showBackupWarning = showBackupWarning;
 
@@ -100,6 +102,16 @@ public class TransactionsListAdapter extends BaseAdapter
 		colorError = resources.getColor(R.color.fg_error);
 		textCoinBase = context.getString(R.string.wallet_transactions_fragment_coinbase);
 		textInternal = context.getString(R.string.wallet_transactions_fragment_internal);
+		textKeyRotation = Html.fromHtml(context.getString(R.string.transaction_row_message_purpose_key_rotation));
+		textBackupWarning = Html.fromHtml(context.getString(R.string.wallet_transactions_row_warning_backup));
+
+		rowCache = new TransactionRowCache(wallet);
+		addressBookLabels = ((WalletApplication) context.getApplicationContext()).getAddressBookLabels();
+	}
+
+	public TransactionRowCache getRowCache()
+	{
+		return rowCache;
 	}
 
 	public void setPrecision(final int precision, final int shift)
@@ -135,6 +147,24 @@ public class TransactionsListAdapter extends BaseAdapter
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * Rebinds only the visible rows showing one of the given transactions, instead of the whole list.
+	 */
+	public void bindVisibleRows(@Nonnull final AbsListView list, @Nonnull final Set<Sha256Hash> hashes)
+	{
+		final int firstPosition = list.getFirstVisiblePosition();
+		for (int i = 0; i < list.getChildCount(); i++)
+		{
+			final int position = firstPosition + i;
+			if (position < getCount() && getItemViewType(position) == VIEW_TYPE_TRANSACTION)
+			{
+				final Transaction tx = getItem(position);
+				if (hashes.contains(tx.getHash()))
+					bindView(list.getChildAt(i), tx);
+			}
+		}
+	}
+
 	@Override
 	public boolean isEmpty()
 	{
@@ -210,7 +240,7 @@ public class TransactionsListAdapter extends BaseAdapter
 				row = inflater.inflate(R.layout.transaction_row_warning, null);
 
 			final TextView messageView = (TextView) row.findViewById(R.id.transaction_row_warning_message);
-			messageView.setText(Html.fromHtml(context.getString(R.string.wallet_transactions_row_warning_backup)));
+			messageView.setText(textBackupWarning);
 		}
 		else
 		{
@@ -225,11 +255,12 @@ public class TransactionsListAdapter extends BaseAdapter
 		final TransactionConfidence confidence = tx.getConfidence();
 		final ConfidenceType confidenceType = confidence.getConfidenceType();
 		final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
-		final boolean isCoinBase = tx.isCoinBase();
-		final boolean isInternal = WalletUtils.isInternal(tx);
+		final TransactionRowCache.Row cachedRow = rowCache.get(tx);
+		final boolean isCoinBase = cachedRow.isCoinBase;
+		final boolean isInternal = cachedRow.isInternal;
 
-		final BigInteger value = tx.getValue(wallet);
-		final boolean sent = value.signum() < 0;
+		final BigInteger value = cachedRow.value;
+		final boolean sent = cachedRow.sent;
 
 		final CircularProgressView rowConfidenceCircular = (CircularProgressView) row.findViewById(R.id.transaction_row_confidence_circular);
 		final TextView rowConfidenceTextual = (TextView) row.findViewById(R.id.transaction_row_confidence_textual);
@@ -307,14 +338,14 @@ public class TransactionsListAdapter extends BaseAdapter
 
 		// address
 		final TextView rowAddress = (TextView) row.findViewById(R.id.transaction_row_address);
-		final Address address = sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
+		final Address address = cachedRow.address;
 		final String label;
 		if (isCoinBase)
 			label = textCoinBase;
 		else if (isInternal)
 			label = textInternal;
 		else if (address != null)
-			label = resolveLabel(address.toString());
+			label = addressBookLabels.resolveLabel(address.toString());
 		else
 			label = "?";
 		rowAddress.setTextColor(textColor);
@@ -333,13 +364,13 @@ public class TransactionsListAdapter extends BaseAdapter
 		if (rowExtend != null)
 		{
 			final TextView rowMessage = (TextView) row.findViewById(R.id.transaction_row_message);
-			final boolean isTimeLocked = tx.isTimeLocked();
+			final boolean isTimeLocked = cachedRow.isTimeLocked;
 			rowExtend.setVisibility(View.GONE);
 
-			if (tx.getPurpose() == Purpose.KEY_ROTATION)
+			if (cachedRow.isKeyRotation)
 			{
 				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(Html.fromHtml(context.getString(R.string.transaction_row_message_purpose_key_rotation)));
+				rowMessage.setText(textKeyRotation);
 				rowMessage.setTextColor(colorSignificant);
 			}
 			else if (isOwn && confidenceType == ConfidenceType.PENDING && confidence.numBroadcastPeers() == 0)
@@ -380,29 +411,4 @@ public class TransactionsListAdapter extends BaseAdapter
 			}
 		}
 	}
-
-	private String resolveLabel(@Nonnull final String address)
-	{
-		final String cachedLabel = labelCache.get(address);
-		if (cachedLabel == null)
-		{
-			final String label = AddressBookProvider.resolveLabel(context, address);
-			if (label != null)
-				labelCache.put(address, label);
-			else
-				labelCache.put(address, CACHE_NULL_MARKER);
-			return label;
-		}
-		else
-		{
-			return cachedLabel != CACHE_NULL_MARKER ? cachedLabel : null;
-		}
-	}
-
-	public void clearLabelCache()
-	{
-		labelCache.clear();
-
-		notifyDataSetChanged();
-	}
 }
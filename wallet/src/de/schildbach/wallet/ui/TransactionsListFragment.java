@@ -19,11 +19,8 @@ package de.schildbach.wallet.ui;
 
 import java.math.BigInteger;
 import java.text.DateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -35,18 +32,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.net.Uri;
 import android.nfc.NfcManager;
 import android.os.Bundle;
-import android.os.Handler;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.AsyncTaskLoader;
@@ -66,11 +60,10 @@ import com.google.bitcoin.core.Address;
 import com.google.bitcoin.core.ScriptException;
 import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.Transaction.Purpose;
-import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.utils.Threading;
 
-import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.AddressBookLabels;
 import de.schildbach.wallet.Configuration;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
@@ -86,7 +79,8 @@ import de.schildbach.wallet.util.ThrottlingWalletChangeListener;
 /**
  * @author Andreas Schildbach
  */
-public class TransactionsListFragment extends SherlockListFragment implements LoaderCallbacks<List<Transaction>>, OnSharedPreferenceChangeListener
+public class TransactionsListFragment extends SherlockListFragment implements LoaderCallbacks<TransactionsListModel.Change>,
+		OnSharedPreferenceChangeListener
 {
 	public enum Direction
 	{
@@ -98,7 +92,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	private Configuration config;
 	private Wallet wallet;
 	private NfcManager nfcManager;
-	private ContentResolver resolver;
 	private LoaderManager loaderManager;
 
 	private TransactionsListAdapter adapter;
@@ -106,8 +99,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	@CheckForNull
 	private Direction direction;
 
-	private final Handler handler = new Handler();
-
 	private static final String KEY_DIRECTION = "direction";
 	private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 	private static final Uri KEY_ROTATION_URI = Uri.parse("http://bitcoin.org/en/alert/2013-08-11-android");
@@ -125,12 +116,12 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		return fragment;
 	}
 
-	private final ContentObserver addressBookObserver = new ContentObserver(handler)
+	private final AddressBookLabels.Listener addressBookLabelsListener = new AddressBookLabels.Listener()
 	{
 		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsChanged()
 		{
-			adapter.clearLabelCache();
+			adapter.notifyDataSetChanged();
 		}
 	};
 
@@ -144,7 +135,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		this.config = application.getConfiguration();
 		this.wallet = application.getWallet();
 		this.nfcManager = (NfcManager) activity.getSystemService(Context.NFC_SERVICE);
-		this.resolver = activity.getContentResolver();
 		this.loaderManager = getLoaderManager();
 	}
 
@@ -168,14 +158,12 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	{
 		super.onResume();
 
-		resolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, addressBookObserver);
+		application.getAddressBookLabels().addListener(addressBookLabelsListener);
 
 		config.registerOnSharedPreferenceChangeListener(this);
 
 		loaderManager.initLoader(0, null, this);
 
-		wallet.addEventListener(transactionChangeListener, Threading.SAME_THREAD);
-
 		updateView();
 	}
 
@@ -197,15 +185,12 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	@Override
 	public void onPause()
 	{
-		wallet.removeEventListener(transactionChangeListener);
-		transactionChangeListener.removeCallbacks();
-
         loaderManager.destroyLoader(0);
 
 
 		config.unregisterOnSharedPreferenceChangeListener(this);
 
-		resolver.unregisterContentObserver(addressBookObserver);
+		application.getAddressBookLabels().removeListener(addressBookLabelsListener);
 
 		super.onPause();
 	}
@@ -262,7 +247,7 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 					if (tx.isCoinBase())
 						label = getString(R.string.wallet_transactions_fragment_coinbase);
 					else if (address != null)
-						label = AddressBookProvider.resolveLabel(activity, address.toString());
+						label = application.getAddressBookLabels().resolveLabel(address.toString());
 					else
 						label = "?";
 
@@ -348,44 +333,42 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	}
 
 	@Override
-	public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args)
+	public Loader<TransactionsListModel.Change> onCreateLoader(final int id, final Bundle args)
 	{
-		return new TransactionsLoader(activity, wallet, direction);
+		return new TransactionsLoader(activity, wallet, adapter.getRowCache(), application.getAddressBookLabels(), direction);
 	}
 
 	@Override
-	public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions)
+	public void onLoadFinished(final Loader<TransactionsListModel.Change> loader, final TransactionsListModel.Change change)
 	{
-		adapter.replace(transactions);
+		if (change.structural)
+			adapter.replace(change.transactions);
+		else if (!change.updated.isEmpty())
+			adapter.bindVisibleRows(getListView(), change.updated);
 	}
 
 	@Override
-	public void onLoaderReset(final Loader<List<Transaction>> loader)
+	public void onLoaderReset(final Loader<TransactionsListModel.Change> loader)
 	{
 		// don't clear the adapter, because it will confuse users
 	}
 
-	private final ThrottlingWalletChangeListener transactionChangeListener = new ThrottlingWalletChangeListener(THROTTLE_MS)
-	{
-		@Override
-		public void onThrottledWalletChanged()
-		{
-			adapter.notifyDataSetChanged();
-		}
-	};
-
-	private static class TransactionsLoader extends AsyncTaskLoader<List<Transaction>>
+	private static class TransactionsLoader extends AsyncTaskLoader<TransactionsListModel.Change>
 	{
 		private final Wallet wallet;
-		@CheckForNull
-		private final Direction direction;
+		private final TransactionRowCache rowCache;
+		private final AddressBookLabels addressBookLabels;
+		private final TransactionsListModel model;
 
-		private TransactionsLoader(final Context context, @Nonnull final Wallet wallet, @Nullable final Direction direction)
+		private TransactionsLoader(final Context context, @Nonnull final Wallet wallet, @Nonnull final TransactionRowCache rowCache,
+				@Nonnull final AddressBookLabels addressBookLabels, @Nullable final Direction direction)
 		{
 			super(context);
 
 			this.wallet = wallet;
-			this.direction = direction;
+			this.rowCache = rowCache;
+			this.addressBookLabels = addressBookLabels;
+			this.model = new TransactionsListModel(wallet, rowCache, direction);
 		}
 
 		@Override
@@ -393,8 +376,8 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		{
 			super.onStartLoading();
 
-			wallet.addEventListener(transactionAddRemoveListener, Threading.SAME_THREAD);
-			transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
+			wallet.addEventListener(transactionChangeListener, Threading.SAME_THREAD);
+			model.invalidate(); // changes might have been missed while stopped
 
 			forceLoad();
 		}
@@ -402,41 +385,68 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		@Override
 		protected void onStopLoading()
 		{
-			wallet.removeEventListener(transactionAddRemoveListener);
-			transactionAddRemoveListener.removeCallbacks();
+			wallet.removeEventListener(transactionChangeListener);
+			transactionChangeListener.removeCallbacks();
 
 			super.onStopLoading();
 		}
 
 		@Override
-		public List<Transaction> loadInBackground()
+		public TransactionsListModel.Change loadInBackground()
 		{
-			final Set<Transaction> transactions = wallet.getTransactions(true);
-			final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
+			final TransactionsListModel.Change change = model.update();
 
-			for (final Transaction tx : transactions)
+			// resolve all labels in one go, rather than one query per row while scrolling
+			if (change.structural)
 			{
-				final boolean sent = tx.getValue(wallet).signum() < 0;
-				final boolean isInternal = WalletUtils.isInternal(tx);
-
-				if ((direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
-						|| (direction == Direction.SENT && sent && !isInternal))
-					filteredTransactions.add(tx);
+				final Set<String> addresses = new HashSet<String>();
+				for (final Transaction tx : change.transactions)
+				{
+					final Address address = rowCache.get(tx).address;
+					if (address != null)
+						addresses.add(address.toString());
+				}
+				addressBookLabels.prefetch(addresses);
 			}
 
-			Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
-
-			return filteredTransactions;
+			return change;
 		}
 
-		private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(THROTTLE_MS, true, true, false)
+		private final ThrottlingWalletChangeListener transactionChangeListener = new ThrottlingWalletChangeListener(THROTTLE_MS)
 		{
+			@Override
+			public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+			{
+				model.markDirty(tx.getHash());
+				super.onCoinsReceived(wallet, tx, prevBalance, newBalance);
+			}
+
+			@Override
+			public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+			{
+				model.markDirty(tx.getHash());
+				super.onCoinsSent(wallet, tx, prevBalance, newBalance);
+			}
+
+			@Override
+			public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+			{
+				model.markConfidenceChanged(tx.getHash());
+				super.onTransactionConfidenceChanged(wallet, tx);
+			}
+
+			@Override
+			public void onReorganize(final Wallet wallet)
+			{
+				model.invalidate();
+				super.onReorganize(wallet);
+			}
+
 			@Override
 			public void onThrottledWalletChanged()
 			{
 				try
 				{
-
 					forceLoad();
 				}
 				catch (final RejectedExecutionException x)
@@ -445,31 +455,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 				}
 			}
 		};
-
-		private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>()
-		{
-			@Override
-			public int compare(final Transaction tx1, final Transaction tx2)
-			{
-				final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-				final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-
-				if (pending1 != pending2)
-					return pending1 ? -1 : 1;
-
-				final Date updateTime1 = tx1.getUpdateTime();
-				final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-				final Date updateTime2 = tx2.getUpdateTime();
-				final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
-
-				if (time1 > time2)
-					return -1;
-				else if (time1 < time2)
-					return 1;
-				else
-					return 0;
-			}
-		};
 	}
 
 	@Override
@@ -485,6 +470,5 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		final int btcShift = config.getBtcShift();
 
 		adapter.setPrecision(btcPrecision, btcShift);
-		adapter.clearLabelCache();
 	}
 }
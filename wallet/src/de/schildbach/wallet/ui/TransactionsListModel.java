@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.Wallet;
+
+import de.schildbach.wallet.ui.TransactionsListFragment.Direction;
+
+/**
+ * Sorted, filtered view of the wallet transactions that is updated from the hashes of changed transactions, rather than
+ * being rebuilt and resorted from the whole wallet on every change.
+ *
+ * Transactions are ordered pending first, then by descending update time, then by hash.
+ */
+public final class TransactionsListModel
+{
+	public static final class Change
+	{
+		public final List<Transaction> transactions;
+		public final Set<Sha256Hash> updated;
+		public final boolean structural;
+
+		private Change(@Nonnull final List<Transaction> transactions, @Nonnull final Set<Sha256Hash> updated, final boolean structural)
+		{
+			this.transactions = transactions;
+			this.updated = updated;
+			this.structural = structural;
+		}
+	}
+
+	private final Wallet wallet;
+	private final TransactionRowCache rowCache;
+	@CheckForNull
+	private final Direction direction;
+
+	private final TreeSet<Entry> sorted = new TreeSet<Entry>();
+	private final Map<Sha256Hash, Entry> entries = new HashMap<Sha256Hash, Entry>();
+	private List<Transaction> snapshot = Collections.emptyList();
+
+	private final Set<Sha256Hash> dirty = new HashSet<Sha256Hash>();
+	private boolean invalidated = true;
+
+	public TransactionsListModel(@Nonnull final Wallet wallet, @Nonnull final TransactionRowCache rowCache, @Nullable final Direction direction)
+	{
+		this.wallet = wallet;
+		this.rowCache = rowCache;
+		this.direction = direction;
+	}
+
+	/**
+	 * Marks a transaction as added, removed or changed. May be called from any thread.
+	 */
+	public void markDirty(@Nonnull final Sha256Hash hash)
+	{
+		rowCache.invalidate(hash);
+
+		synchronized (dirty)
+		{
+			dirty.add(hash);
+		}
+	}
+
+	/**
+	 * Marks a transaction whose confidence changed. Its cached row is kept, as confidence can move it in the list but
+	 * does not change value, time lock or purpose. May be called from any thread.
+	 */
+	public void markConfidenceChanged(@Nonnull final Sha256Hash hash)
+	{
+		synchronized (dirty)
+		{
+			dirty.add(hash);
+		}
+	}
+
+	/**
+	 * Forces the next {@link #update()} to rebuild from the whole wallet, e.g. after a reorganize. May be called from
+	 * any thread.
+	 */
+	public void invalidate()
+	{
+		rowCache.clear();
+
+		synchronized (dirty)
+		{
+			invalidated = true;
+			dirty.clear();
+		}
+	}
+
+	/**
+	 * Applies all changes since the last call. Must not be called concurrently.
+	 */
+	public Change update()
+	{
+		final boolean reload;
+		final Set<Sha256Hash> hashes;
+		synchronized (dirty)
+		{
+			reload = invalidated;
+			invalidated = false;
+			hashes = new HashSet<Sha256Hash>(dirty);
+			dirty.clear();
+		}
+
+		if (reload)
+			return reload();
+
+		final Set<Sha256Hash> updated = new HashSet<Sha256Hash>();
+		boolean structural = false;
+
+		for (final Sha256Hash hash : hashes)
+		{
+			final Entry oldEntry = entries.get(hash);
+			final Transaction tx = wallet.getTransaction(hash);
+			final Entry newEntry = tx != null ? entry(tx) : null;
+
+			if (oldEntry != null && newEntry != null && oldEntry.compareTo(newEntry) == 0)
+			{
+				updated.add(hash);
+			}
+			else
+			{
+				if (oldEntry != null)
+				{
+					sorted.remove(oldEntry);
+					entries.remove(hash);
+					structural = true;
+				}
+
+				if (newEntry != null)
+				{
+					sorted.add(newEntry);
+					entries.put(hash, newEntry);
+					structural = true;
+				}
+			}
+		}
+
+		if (structural)
+			snapshot = snapshot();
+
+		return new Change(snapshot, updated, structural);
+	}
+
+	private Change reload()
+	{
+		sorted.clear();
+		entries.clear();
+
+		for (final Transaction tx : wallet.getTransactions(true))
+		{
+			final Entry entry = entry(tx);
+			if (entry != null)
+			{
+				sorted.add(entry);
+				entries.put(entry.hash, entry);
+			}
+		}
+
+		snapshot = snapshot();
+
+		return new Change(snapshot, Collections.<Sha256Hash> emptySet(), true);
+	}
+
+	private List<Transaction> snapshot()
+	{
+		final List<Transaction> transactions = new ArrayList<Transaction>(sorted.size());
+		for (final Entry entry : sorted)
+			transactions.add(entry.tx);
+
+		return Collections.unmodifiableList(transactions);
+	}
+
+	/**
+	 * Also fills the row cache, so that binding the row on the UI thread is cheap.
+	 * 
+	 * @return entry with the current sort key, or null if the transaction is filtered out by direction
+	 */
+	@CheckForNull
+	private Entry entry(@Nonnull final Transaction tx)
+	{
+		final TransactionRowCache.Row row = rowCache.get(tx);
+
+		if (direction != null)
+		{
+			if (row.isInternal || (direction == Direction.RECEIVED && row.sent) || (direction == Direction.SENT && !row.sent))
+				return null;
+		}
+
+		final boolean pending = tx.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+		final Date updateTime = tx.getUpdateTime();
+
+		return new Entry(tx, pending, updateTime != null ? updateTime.getTime() : 0);
+	}
+
+	private static final class Entry implements Comparable<Entry>
+	{
+		public final Transaction tx;
+		public final Sha256Hash hash;
+		public final boolean pending;
+		public final long time;
+
+		public Entry(@Nonnull final Transaction tx, final boolean pending, final long time)
+		{
+			this.tx = tx;
+			this.hash = tx.getHash();
+			this.pending = pending;
+			this.time = time;
+		}
+
+		@Override
+		public int compareTo(final Entry other)
+		{
+			if (pending != other.pending)
+				return pending ? -1 : 1;
+
+			if (time > other.time)
+				return -1;
+			else if (time < other.time)
+				return 1;
+
+			final byte[] bytes = hash.getBytes();
+			final byte[] otherBytes = other.hash.getBytes();
+			for (int i = 0; i < bytes.length; i++)
+				if (bytes[i] != otherBytes[i])
+					return (bytes[i] & 0xff) < (otherBytes[i] & 0xff) ? -1 : 1;
+
+			return 0;
+		}
+	}
+}
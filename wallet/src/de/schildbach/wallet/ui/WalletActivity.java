@@ -110,6 +110,8 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	private WalletApplication application;
 	private Configuration config;
 	private Wallet wallet;
+	private boolean destroyed = false;
+	private final List<Runnable> walletReadyRunnables = new LinkedList<Runnable>();
 
 	private static final int REQUEST_CODE_SCAN = 0;
 
@@ -120,19 +122,29 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 
 		application = getWalletApplication();
 		config = application.getConfiguration();
-		wallet = application.getWallet();
-        //int originalOrientation = savedInstanceState.getInt("originalOrientation", 0);
-        //if(originalOrientation >= 100)
-        //    setRequestedOrientation(originalOrientation - 100);
-		setContentView(R.layout.wallet_content);
 
+		config.touchLastUsed();
 
-		if (savedInstanceState == null)
-			checkAlerts();
+		// fragments of the content all need the wallet, so let the window draw while it's loading
+		onWalletReady(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				wallet = application.getWallet();
+		        //int originalOrientation = savedInstanceState.getInt("originalOrientation", 0);
+		        //if(originalOrientation >= 100)
+		        //    setRequestedOrientation(originalOrientation - 100);
+				setContentView(R.layout.wallet_content);
 
-		config.touchLastUsed();
+				supportInvalidateOptionsMenu();
 
-		handleIntent(getIntent());
+				if (savedInstanceState == null)
+					checkAlerts();
+
+				handleIntent(getIntent());
+			}
+		});
 	}
 
 	@Override
@@ -140,7 +152,14 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	{
 		super.onResume();
 
-		getWalletApplication().startBlockchainService(true);
+		onWalletReady(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				application.startBlockchainService(true);
+			}
+		});
 
 		checkLowStorageAlert();
 	}
@@ -148,7 +167,44 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	@Override
 	protected void onNewIntent(final Intent intent)
 	{
-		handleIntent(intent);
+		onWalletReady(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				handleIntent(intent);
+			}
+		});
+	}
+
+	@Override
+	protected void onDestroy()
+	{
+		// rotating while the wallet is loading destroys this instance without finishing it
+		destroyed = true;
+		for (final Runnable runnable : walletReadyRunnables)
+			application.cancelWalletReady(runnable);
+		walletReadyRunnables.clear();
+
+		super.onDestroy();
+	}
+
+	private void onWalletReady(@Nonnull final Runnable runnable)
+	{
+		final Runnable guarded = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				walletReadyRunnables.remove(this);
+
+				if (!destroyed && !isFinishing())
+					runnable.run();
+			}
+		};
+
+		walletReadyRunnables.add(guarded);
+		application.onWalletReady(guarded);
 	}
 
 	private void handleIntent(@Nonnull final Intent intent)
@@ -231,6 +287,10 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	{
 		super.onCreateOptionsMenu(menu);
 
+		// options need the wallet
+		if (wallet == null)
+			return false;
+
 		getSupportMenuInflater().inflate(R.menu.wallet_options, menu);
 		menu.findItem(R.id.wallet_options_donate).setVisible(!Constants.TEST);
 
@@ -16,8 +16,6 @@
 
 package de.schildbach.wallet.util;
 
-import java.nio.charset.Charset;
-
 import javax.annotation.Nonnull;
 
 /**
@@ -39,42 +37,78 @@ public class Base43
 			INDEXES[ALPHABET[i]] = i;
 	}
 
-	public static String encode(@Nonnull byte[] input)
+	/**
+	 * Largest power of 43 that fits into a signed int. Each pass over the number works on 32-bit limbs and produces or
+	 * consumes this many base43 digits at once, so there are about 20 times fewer inner loop steps than with a byte and
+	 * digit at a time.
+	 */
+	private static final int DIGITS_PER_CHUNK = 5;
+	private static final int[] POWERS = new int[DIGITS_PER_CHUNK + 1];
+	static
+	{
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++)
+			POWERS[i] = POWERS[i - 1] * 43;
+	}
+
+	private static final long CHUNK_DIVISOR = 43L * 43 * 43 * 43 * 43;
+	private static final long LIMB_MASK = 0xffffffffL;
+
+	public static String encode(@Nonnull final byte[] input)
 	{
 		if (input.length == 0)
 			return "";
 
-		input = copyOfRange(input, 0, input.length);
-
 		// Count leading zeroes.
 		int zeroCount = 0;
 		while (zeroCount < input.length && input[zeroCount] == 0)
 			++zeroCount;
 
-		// The actual encoding.
-		final byte[] temp = new byte[input.length * 2];
-		int j = temp.length;
+		// Pack the remaining bytes into big-endian 32-bit limbs.
+		final int numBytes = input.length - zeroCount;
+		final int[] limbs = new int[(numBytes + 3) / 4];
+		final int padding = limbs.length * 4 - numBytes;
+		for (int i = 0; i < numBytes; i++)
+		{
+			final int l = (i + padding) / 4;
+			limbs[l] = (limbs[l] << 8) | (input[zeroCount + i] & 0xff);
+		}
 
-		int startAt = zeroCount;
-		while (startAt < input.length)
+		// The actual encoding. log(256)/log(43) is below 1.5, plus slack for the last chunk.
+		final char[] output = new char[zeroCount + numBytes + numBytes / 2 + DIGITS_PER_CHUNK + 1];
+		int j = output.length;
+
+		int startAt = 0;
+		while (startAt < limbs.length)
 		{
-			byte mod = divmod43(input, startAt);
-			if (input[startAt] == 0)
+			long remainder = 0;
+			for (int i = startAt; i < limbs.length; i++)
+			{
+				final long temp = (remainder << 32) | (limbs[i] & LIMB_MASK);
+				final long quotient = temp / CHUNK_DIVISOR;
+				limbs[i] = (int) quotient;
+				remainder = temp - quotient * CHUNK_DIVISOR;
+			}
+			while (startAt < limbs.length && limbs[startAt] == 0)
 				++startAt;
-			temp[--j] = (byte) ALPHABET[mod];
+
+			int chunk = (int) remainder;
+			for (int k = 0; k < DIGITS_PER_CHUNK; k++)
+			{
+				output[--j] = ALPHABET[chunk % 43];
+				chunk /= 43;
+			}
 		}
 
-		// Strip extra '1' if there are some after decoding.
-		while (j < temp.length && temp[j] == ALPHABET[0])
+		// Strip extra '0' produced by the last chunk.
+		while (j < output.length && output[j] == ALPHABET[0])
 			++j;
 
-		// Add as many leading '1' as there were leading zeros.
+		// Add as many leading '0' as there were leading zeros.
 		while (--zeroCount >= 0)
-			temp[--j] = (byte) ALPHABET[0];
+			output[--j] = ALPHABET[0];
 
-		final byte[] output = copyOfRange(temp, j, temp.length);
-
-		return new String(output, Charset.forName("US-ASCII"));
+		return new String(output, j, output.length - j);
 	}
 
 	public static byte[] decode(@Nonnull final String input) throws IllegalArgumentException
@@ -104,70 +138,45 @@ public class Base43
 		while (zeroCount < input43.length && input43[zeroCount] == 0)
 			++zeroCount;
 
-		// The encoding
-		final byte[] temp = new byte[input.length()];
-		int j = temp.length;
-
-		int startAt = zeroCount;
-		while (startAt < input43.length)
-		{
-			byte mod = divmod256(input43, startAt);
-			if (input43[startAt] == 0)
-				++startAt;
-
-			temp[--j] = mod;
-		}
-
-		// Do no add extra leading zeroes, move j to first non null byte.
-		while (j < temp.length && temp[j] == 0)
-			++j;
+		// The decoding, into little-endian 32-bit limbs. log(43)/log(2^32) is below 1/5.
+		final int numDigits = input43.length - zeroCount;
+		final int[] limbs = new int[numDigits / DIGITS_PER_CHUNK + 2];
+		int numLimbs = 0;
 
-		return copyOfRange(temp, j - zeroCount, temp.length);
-	}
-
-	//
-	// number -> number / 43, returns number % 43
-	//
-	private static byte divmod43(final byte[] number, final int startAt)
-	{
-		int remainder = 0;
-		for (int i = startAt; i < number.length; i++)
+		int i = zeroCount;
+		int chunkLength = numDigits % DIGITS_PER_CHUNK;
+		if (chunkLength == 0)
+			chunkLength = DIGITS_PER_CHUNK;
+		while (i < input43.length)
 		{
-			final int digit256 = (int) number[i] & 0xFF;
-			final int temp = remainder * 256 + digit256;
-
-			number[i] = (byte) (temp / 43);
-
-			remainder = temp % 43;
+			int chunk = 0;
+			for (final int end = i + chunkLength; i < end; i++)
+				chunk = chunk * 43 + input43[i];
+
+			// number -> number * 43^chunkLength + chunk
+			final long multiplier = POWERS[chunkLength];
+			long carry = chunk;
+			for (int k = 0; k < numLimbs; k++)
+			{
+				final long temp = (limbs[k] & LIMB_MASK) * multiplier + carry;
+				limbs[k] = (int) temp;
+				carry = temp >>> 32;
+			}
+			if (carry != 0)
+				limbs[numLimbs++] = (int) carry;
+
+			chunkLength = DIGITS_PER_CHUNK;
 		}
 
-		return (byte) remainder;
-	}
+		// Do no add extra leading zeroes, skip to first non null byte.
+		int numBytes = numLimbs * 4;
+		while (numBytes > 0 && ((limbs[(numBytes - 1) / 4] >>> (((numBytes - 1) % 4) * 8)) & 0xff) == 0)
+			--numBytes;
 
-	//
-	// number -> number / 256, returns number % 256
-	//
-	private static byte divmod256(final byte[] number43, final int startAt)
-	{
-		int remainder = 0;
-		for (int i = startAt; i < number43.length; i++)
-		{
-			final int digit58 = (int) number43[i] & 0xFF;
-			final int temp = remainder * 43 + digit58;
-
-			number43[i] = (byte) (temp / 256);
-
-			remainder = temp % 256;
-		}
-
-		return (byte) remainder;
-	}
-
-	private static byte[] copyOfRange(final byte[] source, final int from, final int to)
-	{
-		final byte[] range = new byte[to - from];
-		System.arraycopy(source, from, range, 0, range.length);
+		final byte[] output = new byte[zeroCount + numBytes];
+		for (int b = 0; b < numBytes; b++)
+			output[output.length - 1 - b] = (byte) (limbs[b / 4] >>> ((b % 4) * 8));
 
-		return range;
+		return output;
 	}
 }
@@ -206,6 +206,7 @@ public class CrashReporter
 		report.append("Time of last update: " + String.format("%tF %tT %tz", pi.lastUpdateTime, pi.lastUpdateTime, pi.lastUpdateTime) + "\n");
 		report.append("Time of first install: " + String.format("%tF %tT %tz", pi.firstInstallTime, pi.firstInstallTime, pi.firstInstallTime) + "\n");
 		report.append("Network: " + Constants.NETWORK_PARAMETERS.getId() + "\n");
+		report.append("Startup: " + application.getStartupPhases() + "\n");
 		final Wallet wallet = application.getWallet();
 		report.append("Keychain size: " + wallet.getKeychainSize() + "\n");
 
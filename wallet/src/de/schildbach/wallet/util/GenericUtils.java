@@ -20,7 +20,6 @@ package de.schildbach.wallet.util;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.Locale;
 
 import javax.annotation.Nonnull;
 
@@ -58,8 +57,16 @@ public class GenericUtils
 	public static String formatValue(@Nonnull final BigInteger value, @Nonnull final String plusSign, @Nonnull final String minusSign,
 			final int precision, final int shift)
 	{
-		long longValue = value.longValue();
+		return formatValue(new StringBuilder(24), value.longValue(), plusSign, minusSign, precision, shift).toString();
+	}
 
+	/**
+	 * Appends the formatted amount to the given builder, without going through {@link BigInteger} or
+	 * {@link String#format(String, Object...)}. Callers formatting many amounts should reuse the builder.
+	 */
+	public static StringBuilder formatValue(@Nonnull final StringBuilder builder, long longValue, @Nonnull final String plusSign,
+			@Nonnull final String minusSign, final int precision, final int shift)
+	{
 		final String sign = longValue < 0 ? minusSign : plusSign;
 
 		if (shift == 0)
@@ -80,13 +87,11 @@ public class GenericUtils
 			final int satoshis = (int) (absValue % ONE_BTC_INT);
 
 			if (satoshis % 1000 == 0)
-				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+				return appendAmount(builder, sign, coins, satoshis / 1000, 2);
 			else if (satoshis % 10 == 0)
-				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
-			//else if (satoshis % 100 == 0)
-			//	return String.format(Locale.US, "%s%d.%06d", sign, coins, satoshis / 100);
+				return appendAmount(builder, sign, coins, satoshis / 10, 4);
 			else
-				return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+				return appendAmount(builder, sign, coins, satoshis, 5);
 		}
 		else if (shift == 3)
 		{
@@ -104,11 +109,11 @@ public class GenericUtils
 			final int satoshis = (int) (absValue % ONE_MBTC_INT);
 
 			if (satoshis % 1000 == 0)
-				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+				return appendAmount(builder, sign, coins, satoshis / 1000, 2);
 			else if (satoshis % 10 == 0)
-				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
+				return appendAmount(builder, sign, coins, satoshis / 10, 4);
 			else
-				return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+				return appendAmount(builder, sign, coins, satoshis, 5);
 		}
 		else if (shift == 6)
 		{
@@ -124,24 +129,30 @@ public class GenericUtils
 			final int satoshis = (int) (absValue % ONE_UBTC_INT);
 
 			if (satoshis % 100 == 0)
-				return String.format(Locale.US, "%s%d", sign, coins);
+				return appendAmount(builder, sign, coins, 0, 0);
 			else
-				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis);
+				return appendAmount(builder, sign, coins, satoshis, 2);
 		}
 		else
 		{
 			throw new IllegalArgumentException("cannot handle shift: " + shift);
 		}
 	}
+
     public static String formatValue_BTC(@Nonnull final BigInteger value, final int precision, final int shift)
     {
         return formatValue_BTC(value, "", "-", precision, shift);
     }
+
     public static String formatValue_BTC(@Nonnull final BigInteger value, @Nonnull final String plusSign, @Nonnull final String minusSign,
                                      final int precision, final int shift)
     {
-        long longValue = value.longValue();
+        return formatValue_BTC(new StringBuilder(24), value.longValue(), plusSign, minusSign, precision, shift).toString();
+    }
 
+    public static StringBuilder formatValue_BTC(@Nonnull final StringBuilder builder, long longValue, @Nonnull final String plusSign,
+                                     @Nonnull final String minusSign, final int precision, final int shift)
+    {
         final String sign = longValue < 0 ? minusSign : plusSign;
 
         if (shift == 0)
@@ -162,13 +173,13 @@ public class GenericUtils
             final int satoshis = (int) (absValue % 100000000);
 
             if (satoshis % 1000000 == 0)
-                return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000000);
+                return appendAmount(builder, sign, coins, satoshis / 1000000, 2);
             else if (satoshis % 10000 == 0)
-                return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10000);
+                return appendAmount(builder, sign, coins, satoshis / 10000, 4);
             else if (satoshis % 100 == 0)
-                return String.format(Locale.US, "%s%d.%06d", sign, coins, satoshis / 100);
+                return appendAmount(builder, sign, coins, satoshis / 100, 6);
             else
-                return String.format(Locale.US, "%s%d.%08d", sign, coins, satoshis);
+                return appendAmount(builder, sign, coins, satoshis, 8);
         }
         else if (shift == 3)
         {
@@ -186,11 +197,11 @@ public class GenericUtils
             final int satoshis = (int) (absValue % 100000000);
 
             if (satoshis % 1000 == 0)
-                return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+                return appendAmount(builder, sign, coins, satoshis / 1000, 2);
             else if (satoshis % 10 == 0)
-                return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
+                return appendAmount(builder, sign, coins, satoshis / 10, 4);
             else
-                return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+                return appendAmount(builder, sign, coins, satoshis, 5);
         }
         else
         {
@@ -198,6 +209,27 @@ public class GenericUtils
         }
     }
 
+	/**
+	 * Equivalent of {@code String.format(Locale.US, "%s%d.%0<minFractionDigits>d", sign, coins, fraction)}, or of
+	 * {@code "%s%d"} if minFractionDigits is 0.
+	 */
+	private static StringBuilder appendAmount(@Nonnull final StringBuilder builder, @Nonnull final String sign, final long coins,
+			final int fraction, final int minFractionDigits)
+	{
+		builder.append(sign).append(coins);
+
+		if (minFractionDigits > 0)
+		{
+			builder.append('.');
+			for (int limit = 10, i = 1; i < minFractionDigits; i++, limit *= 10)
+				if (fraction < limit)
+					builder.append('0');
+			builder.append(fraction);
+		}
+
+		return builder;
+	}
+
 	public static String formatDebugValue(@Nonnull final BigInteger value)
 	{
 		return formatValue(value, Constants.BTC_MAX_PRECISION, 0);
@@ -17,7 +17,14 @@
 
 package de.schildbach.wallet.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -36,6 +43,16 @@ public class Io
 {
 	private static final Logger log = LoggerFactory.getLogger(Io.class);
 
+	public interface DataReader
+	{
+		void read(@Nonnull DataInputStream is) throws IOException;
+	}
+
+	public interface DataWriter
+	{
+		void write(@Nonnull DataOutputStream os) throws IOException;
+	}
+
 	public static final long copy(@Nonnull final Reader reader, @Nonnull final StringBuilder builder) throws IOException
 	{
 		final char[] buffer = new char[256];
@@ -76,4 +93,87 @@ public class Io
 			log.info("problem using undocumented chmod api", x);
 		}
 	}
+
+	/**
+	 * Reads a file written by {@link #writeDataFile}, checking its version before handing the stream to the reader.
+	 * 
+	 * @return false if the file does not exist
+	 */
+	public static boolean readDataFile(@Nonnull final File file, final int version, @Nonnull final DataReader reader) throws IOException
+	{
+		final DataInputStream is;
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		}
+		catch (final FileNotFoundException x)
+		{
+			return false;
+		}
+
+		try
+		{
+			if (is.readInt() != version)
+				throw new IOException("unknown version");
+
+			reader.read(is);
+
+			return true;
+		}
+		finally
+		{
+			try
+			{
+				is.close();
+			}
+			catch (final IOException x)
+			{
+				// swallow
+			}
+		}
+	}
+
+	/**
+	 * Writes the version and whatever the writer writes to a temporary file, then renames it over the given file. If
+	 * anything fails, the given file is left untouched.
+	 */
+	public static void writeDataFile(@Nonnull final File file, final int version, @Nonnull final DataWriter writer) throws IOException
+	{
+		final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+		DataOutputStream os = null;
+		boolean written = false;
+		try
+		{
+			os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+			os.writeInt(version);
+			writer.write(os);
+
+			os.close();
+			os = null;
+
+			if (!tempFile.renameTo(file))
+				throw new IOException("cannot rename " + tempFile + " to " + file);
+
+			written = true;
+		}
+		finally
+		{
+			if (os != null)
+			{
+				try
+				{
+					os.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+
+			if (!written)
+				tempFile.delete();
+		}
+	}
 }
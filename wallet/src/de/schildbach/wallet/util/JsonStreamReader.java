@@ -0,0 +1,510 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Pull parser for JSON documents that reads one token at a time from a {@link Reader}, so that only the values asked
+ * for are materialized. It follows the interface of {@code android.util.JsonReader}, which is not available before API
+ * level 11.
+ *
+ * All problems, including malformed input and unexpected tokens, are reported as {@link IOException}.
+ */
+public final class JsonStreamReader implements Closeable
+{
+	public enum Token
+	{
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT = 2;
+	private static final int DANGLING_NAME = 3;
+	private static final int NONEMPTY_OBJECT = 4;
+	private static final int EMPTY_ARRAY = 5;
+	private static final int NONEMPTY_ARRAY = 6;
+
+	private final Reader reader;
+	private final char[] buffer = new char[1024];
+	private int pos = 0;
+	private int limit = 0;
+	private long offset = 0;
+
+	private int[] stack = new int[16];
+	private int stackSize = 0;
+
+	private Token peeked = null;
+	private String value = null;
+	private final StringBuilder builder = new StringBuilder();
+
+	public JsonStreamReader(@Nonnull final Reader reader)
+	{
+		this.reader = reader;
+
+		push(EMPTY_DOCUMENT);
+	}
+
+	public Token peek() throws IOException
+	{
+		if (peeked != null)
+			return peeked;
+
+		final int scope = stack[stackSize - 1];
+
+		switch (scope)
+		{
+			case EMPTY_DOCUMENT:
+			{
+				stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+				return readValue(nextNonWhitespace());
+			}
+
+			case NONEMPTY_DOCUMENT:
+			{
+				if (nextNonWhitespace() != -1)
+					throw syntaxError("expected end of document");
+				return peeked = Token.END_DOCUMENT;
+			}
+
+			case EMPTY_ARRAY:
+			case NONEMPTY_ARRAY:
+			{
+				int c = nextNonWhitespace();
+				if (c == ']')
+					return peeked = Token.END_ARRAY;
+				if (scope == NONEMPTY_ARRAY)
+				{
+					if (c != ',')
+						throw syntaxError("expected ',' or ']'");
+					c = nextNonWhitespace();
+				}
+				stack[stackSize - 1] = NONEMPTY_ARRAY;
+				return readValue(c);
+			}
+
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+			{
+				int c = nextNonWhitespace();
+				if (c == '}')
+					return peeked = Token.END_OBJECT;
+				if (scope == NONEMPTY_OBJECT)
+				{
+					if (c != ',')
+						throw syntaxError("expected ',' or '}'");
+					c = nextNonWhitespace();
+				}
+				if (c != '"')
+					throw syntaxError("expected name");
+				value = readString();
+				stack[stackSize - 1] = DANGLING_NAME;
+				return peeked = Token.NAME;
+			}
+
+			case DANGLING_NAME:
+			{
+				if (nextNonWhitespace() != ':')
+					throw syntaxError("expected ':'");
+				stack[stackSize - 1] = NONEMPTY_OBJECT;
+				return readValue(nextNonWhitespace());
+			}
+
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	public boolean hasNext() throws IOException
+	{
+		final Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException
+	{
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException
+	{
+		expect(Token.END_OBJECT);
+		stackSize--;
+	}
+
+	public void beginArray() throws IOException
+	{
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException
+	{
+		expect(Token.END_ARRAY);
+		stackSize--;
+	}
+
+	public String nextName() throws IOException
+	{
+		expect(Token.NAME);
+		return value;
+	}
+
+	/**
+	 * Also accepts numbers, returning their literal text.
+	 */
+	public String nextString() throws IOException
+	{
+		final Token token = peek();
+		if (token != Token.STRING && token != Token.NUMBER)
+			throw new IOException("expected " + Token.STRING + " but was " + token + " at offset " + offset());
+		peeked = null;
+		return value;
+	}
+
+	/**
+	 * Also accepts strings containing a number.
+	 */
+	public double nextDouble() throws IOException
+	{
+		final String literal = nextString();
+		try
+		{
+			return Double.parseDouble(literal);
+		}
+		catch (final NumberFormatException x)
+		{
+			throw new IOException("expected a number but was '" + literal + "' at offset " + offset());
+		}
+	}
+
+	/**
+	 * Also accepts strings containing a number, as long as it is integral.
+	 */
+	public long nextLong() throws IOException
+	{
+		final String literal = nextString();
+		try
+		{
+			return Long.parseLong(literal);
+		}
+		catch (final NumberFormatException x)
+		{
+			try
+			{
+				final double d = Double.parseDouble(literal);
+				if (d == (long) d)
+					return (long) d;
+			}
+			catch (final NumberFormatException x2)
+			{
+				// fall through
+			}
+
+			throw new IOException("expected a long but was '" + literal + "' at offset " + offset());
+		}
+	}
+
+	public int nextInt() throws IOException
+	{
+		final long l = nextLong();
+		if (l != (int) l)
+			throw new IOException("expected an int but was " + l + " at offset " + offset());
+		return (int) l;
+	}
+
+	public boolean nextBoolean() throws IOException
+	{
+		expect(Token.BOOLEAN);
+		return "true".equals(value);
+	}
+
+	public void nextNull() throws IOException
+	{
+		expect(Token.NULL);
+	}
+
+	/**
+	 * Skips the next value, including all nested values if it is an object or array.
+	 */
+	public void skipValue() throws IOException
+	{
+		int depth = 0;
+		do
+		{
+			final Token token = peek();
+			if (token == Token.BEGIN_OBJECT)
+			{
+				beginObject();
+				depth++;
+			}
+			else if (token == Token.BEGIN_ARRAY)
+			{
+				beginArray();
+				depth++;
+			}
+			else if (token == Token.END_OBJECT)
+			{
+				endObject();
+				depth--;
+			}
+			else if (token == Token.END_ARRAY)
+			{
+				endArray();
+				depth--;
+			}
+			else if (token == Token.END_DOCUMENT)
+			{
+				throw syntaxError("unexpected end of document");
+			}
+			else
+			{
+				peeked = null;
+			}
+		}
+		while (depth > 0);
+	}
+
+	/**
+	 * Skips names and values of the current object until the given name.
+	 *
+	 * @return true if the name was found and its value is next, false if the end of the object has been reached
+	 */
+	public boolean skipToName(@Nonnull final String name) throws IOException
+	{
+		while (hasNext())
+		{
+			if (name.equals(nextName()))
+				return true;
+
+			skipValue();
+		}
+
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+
+	private void expect(@Nonnull final Token expected) throws IOException
+	{
+		final Token token = peek();
+		if (token != expected)
+			throw new IOException("expected " + expected + " but was " + token + " at offset " + offset());
+		peeked = null;
+	}
+
+	private void push(final int scope)
+	{
+		if (stackSize == stack.length)
+		{
+			final int[] newStack = new int[stackSize * 2];
+			System.arraycopy(stack, 0, newStack, 0, stackSize);
+			stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private Token readValue(final int c) throws IOException
+	{
+		switch (c)
+		{
+			case '{':
+				return peeked = Token.BEGIN_OBJECT;
+			case '[':
+				return peeked = Token.BEGIN_ARRAY;
+			case '"':
+				value = readString();
+				return peeked = Token.STRING;
+			case 't':
+				readLiteral("rue");
+				value = "true";
+				return peeked = Token.BOOLEAN;
+			case 'f':
+				readLiteral("alse");
+				value = "false";
+				return peeked = Token.BOOLEAN;
+			case 'n':
+				readLiteral("ull");
+				value = null;
+				return peeked = Token.NULL;
+			case -1:
+				throw syntaxError("unexpected end of document");
+			default:
+				if (c == '-' || (c >= '0' && c <= '9'))
+				{
+					value = readNumber((char) c);
+					return peeked = Token.NUMBER;
+				}
+				throw syntaxError("unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private String readString() throws IOException
+	{
+		builder.setLength(0);
+
+		while (true)
+		{
+			// copy runs of plain characters in bulk
+			final int start = pos;
+			while (pos < limit)
+			{
+				final char c = buffer[pos];
+				if (c == '"' || c == '\\')
+					break;
+				pos++;
+			}
+			builder.append(buffer, start, pos - start);
+
+			if (pos == limit)
+			{
+				if (!fill())
+					throw syntaxError("unterminated string");
+				continue;
+			}
+
+			final char c = buffer[pos++];
+			if (c == '"')
+				return builder.toString();
+
+			final int escaped = read();
+			switch (escaped)
+			{
+				case '"':
+				case '\\':
+				case '/':
+					builder.append((char) escaped);
+					break;
+				case 'b':
+					builder.append('\b');
+					break;
+				case 'f':
+					builder.append('\f');
+					break;
+				case 'n':
+					builder.append('\n');
+					break;
+				case 'r':
+					builder.append('\r');
+					break;
+				case 't':
+					builder.append('\t');
+					break;
+				case 'u':
+				{
+					int codePoint = 0;
+					for (int i = 0; i < 4; i++)
+					{
+						final int digit = Character.digit(read(), 16);
+						if (digit < 0)
+							throw syntaxError("malformed unicode escape");
+						codePoint = (codePoint << 4) | digit;
+					}
+					builder.append((char) codePoint);
+					break;
+				}
+				default:
+					throw syntaxError("malformed escape");
+			}
+		}
+	}
+
+	private String readNumber(final char first) throws IOException
+	{
+		builder.setLength(0);
+		builder.append(first);
+
+		while (true)
+		{
+			if (pos == limit && !fill())
+				break;
+
+			final char c = buffer[pos];
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-')
+			{
+				builder.append(c);
+				pos++;
+			}
+			else
+			{
+				break;
+			}
+		}
+
+		return builder.toString();
+	}
+
+	private void readLiteral(@Nonnull final String rest) throws IOException
+	{
+		for (int i = 0; i < rest.length(); i++)
+			if (read() != rest.charAt(i))
+				throw syntaxError("malformed literal");
+	}
+
+	private int nextNonWhitespace() throws IOException
+	{
+		while (true)
+		{
+			final int c = read();
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+				return c;
+		}
+	}
+
+	private int read() throws IOException
+	{
+		if (pos == limit && !fill())
+			return -1;
+
+		return buffer[pos++];
+	}
+
+	private boolean fill() throws IOException
+	{
+		offset += limit;
+		pos = 0;
+		limit = 0;
+
+		final int n = reader.read(buffer, 0, buffer.length);
+		if (n <= 0)
+			return false;
+
+		limit = n;
+		return true;
+	}
+
+	private long offset()
+	{
+		return offset + pos;
+	}
+
+	private IOException syntaxError(@Nonnull final String message)
+	{
+		return new IOException(message + " at offset " + offset());
+	}
+}
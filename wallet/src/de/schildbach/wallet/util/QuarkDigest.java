@@ -0,0 +1,840 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the Quark proof of work hash, for when the native library cannot be loaded, e.g. on a
+ * desktop JVM or in unit tests.
+ *
+ * Quark chains nine rounds of the 512-bit SHA-3 candidates BLAKE, BMW, Groestl, JH, Keccak and Skein, three of them
+ * picking one of two functions depending on bit 3 of the previous result. The hash is the first 256 bits of the last
+ * round. Each function follows its reference implementation, JH in the 64-bit bitslice form, limited to the input sizes
+ * Quark needs. All state lives in arrays allocated once per instance, so hashing does not allocate.
+ *
+ * Instances are not thread safe.
+ */
+public final class QuarkDigest
+{
+	private final byte[] a = new byte[64];
+	private final byte[] b = new byte[64];
+	private final byte[] block = new byte[128];
+	private final long[] h = new long[16];
+	private final long[] m = new long[16];
+	private final long[] v = new long[32];
+	private final long[] t = new long[16];
+	private final long[] lanes = new long[25];
+
+	/**
+	 * Hashes the given input, usually a block header, and puts the 32 byte digest at the given offset.
+	 */
+	public void digest(final byte[] input, final int offset, final int length, final byte[] out, final int outOffset)
+	{
+		hash(input, offset, length);
+		System.arraycopy(a, 0, out, outOffset, 32);
+	}
+
+	/**
+	 * Hashes the given input, usually a block header, and puts the 32 byte digest at the position of the buffer.
+	 */
+	public void digest(final byte[] input, final int offset, final int length, final ByteBuffer out)
+	{
+		hash(input, offset, length);
+		out.put(a, 0, 32);
+	}
+
+	private void hash(final byte[] input, final int offset, final int length)
+	{
+		blake(input, offset, length, a);
+		bmw(a, 0, 64, b);
+		if ((b[0] & 8) != 0)
+			groestl(b, 0, 64, a);
+		else
+			skein(b, 0, 64, a);
+		groestl(a, 0, 64, b);
+		jh(b, 0, 64, a);
+		if ((a[0] & 8) != 0)
+			blake(a, 0, 64, b);
+		else
+			bmw(a, 0, 64, b);
+		keccak(b, 0, 64, a);
+		skein(a, 0, 64, b);
+		if ((b[0] & 8) != 0)
+			keccak(b, 0, 64, a);
+		else
+			jh(b, 0, 64, a);
+	}
+
+	// BLAKE-512
+
+	private static final long[] BLAKE_IV = { 0x6A09E667F3BCC908L, 0xBB67AE8584CAA73BL, 0x3C6EF372FE94F82BL, 0xA54FF53A5F1D36F1L,
+			0x510E527FADE682D1L, 0x9B05688C2B3E6C1FL, 0x1F83D9ABFB41BD6BL, 0x5BE0CD19137E2179L };
+
+	private static final long[] BLAKE_C = { 0x243F6A8885A308D3L, 0x13198A2E03707344L, 0xA4093822299F31D0L, 0x082EFA98EC4E6C89L,
+			0x452821E638D01377L, 0xBE5466CF34E90C6CL, 0xC0AC29B7C97C50DDL, 0x3F84D5B5B5470917L, 0x9216D5D98979FB1BL, 0xD1310BA698DFB5ACL,
+			0x2FFD72DBD01ADFB7L, 0xB8E1AFED6A267E96L, 0xBA7C9045F12C7F99L, 0x24A19947B3916CF7L, 0x0801F2E2858EFC16L, 0x636920D871574E69L };
+
+	private static final byte[][] BLAKE_SIGMA = { { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 },
+			{ 14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3 }, { 11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4 },
+			{ 7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8 }, { 9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13 },
+			{ 2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9 }, { 12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11 },
+			{ 13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10 }, { 6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5 },
+			{ 10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0 } };
+
+	private void blake(final byte[] in, final int offset, final int length, final byte[] out)
+	{
+		System.arraycopy(BLAKE_IV, 0, h, 0, 8);
+
+		int pos = offset;
+		long bits = 0;
+		for (; offset + length - pos >= 128; pos += 128)
+		{
+			bits += 1024;
+			for (int i = 0; i < 16; i++)
+				m[i] = readLongBE(in, pos + i * 8);
+			blakeCompress(bits);
+		}
+
+		final int rest = offset + length - pos;
+		Arrays.fill(block, (byte) 0);
+		System.arraycopy(in, pos, block, 0, rest);
+		block[rest] = (byte) 0x80;
+		final long totalBits = (long) length * 8;
+		if (rest <= 111)
+		{
+			block[111] |= 1;
+			writeLongBE(totalBits, block, 120);
+			loadBE(block);
+			blakeCompress(rest == 0 ? 0 : bits + rest * 8);
+		}
+		else
+		{
+			loadBE(block);
+			blakeCompress(bits + rest * 8);
+			Arrays.fill(block, (byte) 0);
+			block[111] = 1;
+			writeLongBE(totalBits, block, 120);
+			loadBE(block);
+			blakeCompress(0);
+		}
+
+		for (int i = 0; i < 8; i++)
+			writeLongBE(h[i], out, i * 8);
+	}
+
+	private void loadBE(final byte[] block)
+	{
+		for (int i = 0; i < 16; i++)
+			m[i] = readLongBE(block, i * 8);
+	}
+
+	private void blakeCompress(final long counter)
+	{
+		final long[] v = this.v;
+		System.arraycopy(h, 0, v, 0, 8);
+		v[8] = BLAKE_C[0];
+		v[9] = BLAKE_C[1];
+		v[10] = BLAKE_C[2];
+		v[11] = BLAKE_C[3];
+		v[12] = counter ^ BLAKE_C[4];
+		v[13] = counter ^ BLAKE_C[5];
+		v[14] = BLAKE_C[6];
+		v[15] = BLAKE_C[7];
+
+		for (int round = 0; round < 16; round++)
+		{
+			final byte[] s = BLAKE_SIGMA[round % 10];
+			blakeG(s, 0, 0, 4, 8, 12);
+			blakeG(s, 2, 1, 5, 9, 13);
+			blakeG(s, 4, 2, 6, 10, 14);
+			blakeG(s, 6, 3, 7, 11, 15);
+			blakeG(s, 8, 0, 5, 10, 15);
+			blakeG(s, 10, 1, 6, 11, 12);
+			blakeG(s, 12, 2, 7, 8, 13);
+			blakeG(s, 14, 3, 4, 9, 14);
+		}
+
+		for (int i = 0; i < 8; i++)
+			h[i] ^= v[i] ^ v[i + 8];
+	}
+
+	private void blakeG(final byte[] s, final int i, final int a, final int b, final int c, final int d)
+	{
+		final long[] v = this.v;
+		v[a] += v[b] + (m[s[i]] ^ BLAKE_C[s[i + 1]]);
+		v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+		v[c] += v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 25);
+		v[a] += v[b] + (m[s[i + 1]] ^ BLAKE_C[s[i]]);
+		v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+		v[c] += v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 11);
+	}
+
+	// BMW-512
+
+	private void bmw(final byte[] in, final int offset, final int length, final byte[] out)
+	{
+		for (int i = 0; i < 16; i++)
+			h[i] = 0x8081828384858687L + i * 0x0808080808080808L;
+
+		Arrays.fill(block, (byte) 0);
+		System.arraycopy(in, offset, block, 0, length);
+		block[length] = (byte) 0x80;
+		writeLongLE((long) length * 8, block, 120);
+		for (int i = 0; i < 16; i++)
+			m[i] = readLongLE(block, i * 8);
+		bmwCompress();
+
+		// final compression, with the chaining value as the message
+		System.arraycopy(h, 0, m, 0, 16);
+		for (int i = 0; i < 16; i++)
+			h[i] = 0xaaaaaaaaaaaaaaa0L + i;
+		bmwCompress();
+
+		for (int i = 0; i < 8; i++)
+			writeLongLE(h[i + 8], out, i * 8);
+	}
+
+	private void bmwCompress()
+	{
+		final long[] h = this.h;
+		final long[] m = this.m;
+		final long[] q = this.v;
+		final long[] w = this.t;
+
+		for (int i = 0; i < 16; i++)
+			w[i] = m[i] ^ h[i];
+
+		q[0] = bmwS0(w[5] - w[7] + w[10] + w[13] + w[14]) + h[1];
+		q[1] = bmwS1(w[6] - w[8] + w[11] + w[14] - w[15]) + h[2];
+		q[2] = bmwS2(w[0] + w[7] + w[9] - w[12] + w[15]) + h[3];
+		q[3] = bmwS3(w[0] - w[1] + w[8] - w[10] + w[13]) + h[4];
+		q[4] = bmwS4(w[1] + w[2] + w[9] - w[11] - w[14]) + h[5];
+		q[5] = bmwS0(w[3] - w[2] + w[10] - w[12] + w[15]) + h[6];
+		q[6] = bmwS1(w[4] - w[0] - w[3] - w[11] + w[13]) + h[7];
+		q[7] = bmwS2(w[1] - w[4] - w[5] - w[12] - w[14]) + h[8];
+		q[8] = bmwS3(w[2] - w[5] - w[6] + w[13] - w[15]) + h[9];
+		q[9] = bmwS4(w[0] - w[3] + w[6] - w[7] + w[14]) + h[10];
+		q[10] = bmwS0(w[8] - w[1] - w[4] - w[7] + w[15]) + h[11];
+		q[11] = bmwS1(w[8] - w[0] - w[2] - w[5] + w[9]) + h[12];
+		q[12] = bmwS2(w[1] + w[3] - w[6] - w[9] + w[10]) + h[13];
+		q[13] = bmwS3(w[2] + w[4] + w[7] + w[10] + w[11]) + h[14];
+		q[14] = bmwS4(w[3] - w[5] + w[8] - w[11] - w[12]) + h[15];
+		q[15] = bmwS0(w[12] - w[4] - w[6] - w[9] + w[13]) + h[0];
+
+		for (int j = 16; j < 32; j++)
+		{
+			long x;
+			if (j < 18)
+			{
+				x = 0;
+				for (int k = 0; k < 16; k += 4)
+					x += bmwS1(q[j - 16 + k]) + bmwS2(q[j - 15 + k]) + bmwS3(q[j - 14 + k]) + bmwS0(q[j - 13 + k]);
+			}
+			else
+			{
+				x = q[j - 16] + Long.rotateLeft(q[j - 15], 5) + q[j - 14] + Long.rotateLeft(q[j - 13], 11) + q[j - 12]
+						+ Long.rotateLeft(q[j - 11], 27) + q[j - 10] + Long.rotateLeft(q[j - 9], 32) + q[j - 8] + Long.rotateLeft(q[j - 7], 37)
+						+ q[j - 6] + Long.rotateLeft(q[j - 5], 43) + q[j - 4] + Long.rotateLeft(q[j - 3], 53) + bmwS4(q[j - 2]) + bmwS5(q[j - 1]);
+			}
+
+			final int j0 = (j - 16) & 15, j3 = (j - 13) & 15, j10 = (j - 6) & 15;
+			q[j] = x
+					+ ((Long.rotateLeft(m[j0], j0 + 1) + Long.rotateLeft(m[j3], j3 + 1) - Long.rotateLeft(m[j10], j10 + 1) + j
+							* 0x0555555555555555L) ^ h[(j - 9) & 15]);
+		}
+
+		long xl = 0;
+		for (int i = 16; i < 24; i++)
+			xl ^= q[i];
+		long xh = xl;
+		for (int i = 24; i < 32; i++)
+			xh ^= q[i];
+
+		h[0] = ((xh << 5) ^ (q[16] >>> 5) ^ m[0]) + (xl ^ q[24] ^ q[0]);
+		h[1] = ((xh >>> 7) ^ (q[17] << 8) ^ m[1]) + (xl ^ q[25] ^ q[1]);
+		h[2] = ((xh >>> 5) ^ (q[18] << 5) ^ m[2]) + (xl ^ q[26] ^ q[2]);
+		h[3] = ((xh >>> 1) ^ (q[19] << 5) ^ m[3]) + (xl ^ q[27] ^ q[3]);
+		h[4] = ((xh >>> 3) ^ q[20] ^ m[4]) + (xl ^ q[28] ^ q[4]);
+		h[5] = ((xh << 6) ^ (q[21] >>> 6) ^ m[5]) + (xl ^ q[29] ^ q[5]);
+		h[6] = ((xh >>> 4) ^ (q[22] << 6) ^ m[6]) + (xl ^ q[30] ^ q[6]);
+		h[7] = ((xh >>> 11) ^ (q[23] << 2) ^ m[7]) + (xl ^ q[31] ^ q[7]);
+		h[8] = Long.rotateLeft(h[4], 9) + (xh ^ q[24] ^ m[8]) + ((xl << 8) ^ q[23] ^ q[8]);
+		h[9] = Long.rotateLeft(h[5], 10) + (xh ^ q[25] ^ m[9]) + ((xl >>> 6) ^ q[16] ^ q[9]);
+		h[10] = Long.rotateLeft(h[6], 11) + (xh ^ q[26] ^ m[10]) + ((xl << 6) ^ q[17] ^ q[10]);
+		h[11] = Long.rotateLeft(h[7], 12) + (xh ^ q[27] ^ m[11]) + ((xl << 4) ^ q[18] ^ q[11]);
+		h[12] = Long.rotateLeft(h[0], 13) + (xh ^ q[28] ^ m[12]) + ((xl >>> 3) ^ q[19] ^ q[12]);
+		h[13] = Long.rotateLeft(h[1], 14) + (xh ^ q[29] ^ m[13]) + ((xl >>> 4) ^ q[20] ^ q[13]);
+		h[14] = Long.rotateLeft(h[2], 15) + (xh ^ q[30] ^ m[14]) + ((xl >>> 7) ^ q[21] ^ q[14]);
+		h[15] = Long.rotateLeft(h[3], 16) + (xh ^ q[31] ^ m[15]) + ((xl >>> 2) ^ q[22] ^ q[15]);
+	}
+
+	private static long bmwS0(final long x)
+	{
+		return (x >>> 1) ^ (x << 3) ^ Long.rotateLeft(x, 4) ^ Long.rotateLeft(x, 37);
+	}
+
+	private static long bmwS1(final long x)
+	{
+		return (x >>> 1) ^ (x << 2) ^ Long.rotateLeft(x, 13) ^ Long.rotateLeft(x, 43);
+	}
+
+	private static long bmwS2(final long x)
+	{
+		return (x >>> 2) ^ (x << 1) ^ Long.rotateLeft(x, 19) ^ Long.rotateLeft(x, 53);
+	}
+
+	private static long bmwS3(final long x)
+	{
+		return (x >>> 2) ^ (x << 2) ^ Long.rotateLeft(x, 28) ^ Long.rotateLeft(x, 59);
+	}
+
+	private static long bmwS4(final long x)
+	{
+		return (x >>> 1) ^ x;
+	}
+
+	private static long bmwS5(final long x)
+	{
+		return (x >>> 2) ^ x;
+	}
+
+	// Groestl-512
+
+	private static final int[] AES_SBOX = new int[256];
+	private static final long[] GROESTL_T = new long[8 * 256]; // SubBytes and MixBytes, per row
+	private static final int[] GROESTL_SHIFT_P = { 0, 1, 2, 3, 4, 5, 6, 11 };
+	private static final int[] GROESTL_SHIFT_Q = { 1, 3, 5, 11, 0, 2, 4, 6 };
+
+	static
+	{
+		// AES S-box from the multiplicative inverse in GF(2^8) and the affine transformation
+		int p = 1, inv = 1;
+		do
+		{
+			p = p ^ (p << 1) ^ ((p & 0x80) != 0 ? 0x1b : 0);
+			p &= 0xff;
+			inv ^= inv << 1;
+			inv ^= inv << 2;
+			inv ^= inv << 4;
+			inv &= 0xff;
+			if ((inv & 0x80) != 0)
+				inv ^= 0x09;
+			final int x = inv ^ rotl8(inv, 1) ^ rotl8(inv, 2) ^ rotl8(inv, 3) ^ rotl8(inv, 4);
+			AES_SBOX[p] = (x ^ 0x63) & 0xff;
+		}
+		while (p != 1);
+		AES_SBOX[0] = 0x63;
+
+		final int[] coefficients = { 2, 2, 3, 4, 5, 3, 5, 7 };
+		for (int i = 0; i < 8; i++)
+		{
+			for (int x = 0; x < 256; x++)
+			{
+				final int s = AES_SBOX[x];
+				long column = 0;
+				for (int k = 0; k < 8; k++)
+					column = (column << 8) | gfMul(coefficients[(i - k) & 7], s);
+				GROESTL_T[i * 256 + x] = column;
+			}
+		}
+	}
+
+	private static int rotl8(final int x, final int n)
+	{
+		return ((x << n) | (x >>> (8 - n))) & 0xff;
+	}
+
+	private static int gfMul(int a, int b)
+	{
+		int p = 0;
+		while (b != 0)
+		{
+			if ((b & 1) != 0)
+				p ^= a;
+			a <<= 1;
+			if ((a & 0x100) != 0)
+				a ^= 0x11b;
+			b >>= 1;
+		}
+		return p;
+	}
+
+	private void groestl(final byte[] in, final int offset, final int length, final byte[] out)
+	{
+		Arrays.fill(block, (byte) 0);
+		System.arraycopy(in, offset, block, 0, length);
+		block[length] = (byte) 0x80;
+		block[127] = 1; // number of blocks
+
+		final long[] h = this.h;
+		final long[] m = this.m;
+		final long[] x = this.t;
+		Arrays.fill(h, 0);
+		h[15] = 512;
+
+		for (int i = 0; i < 16; i++)
+		{
+			m[i] = readLongBE(block, i * 8);
+			x[i] = h[i] ^ m[i];
+		}
+		groestlPermute(x, false);
+		groestlPermute(m, true);
+		for (int i = 0; i < 16; i++)
+			h[i] ^= x[i] ^ m[i];
+
+		System.arraycopy(h, 0, x, 0, 16);
+		groestlPermute(x, false);
+		for (int i = 8; i < 16; i++)
+			writeLongBE(x[i] ^ h[i], out, (i - 8) * 8);
+	}
+
+	private void groestlPermute(final long[] x, final boolean isQ)
+	{
+		final long[] y = this.v;
+		final int[] shift = isQ ? GROESTL_SHIFT_Q : GROESTL_SHIFT_P;
+
+		for (int round = 0; round < 14; round++)
+		{
+			for (int j = 0; j < 16; j++)
+			{
+				if (isQ)
+					x[j] ^= ~(long) ((j << 4) ^ round);
+				else
+					x[j] ^= (long) ((j << 4) ^ round) << 56;
+			}
+
+			for (int j = 0; j < 16; j++)
+			{
+				y[j] = GROESTL_T[(int) (x[(j + shift[0]) & 15] >>> 56)] //
+						^ GROESTL_T[256 + ((int) (x[(j + shift[1]) & 15] >>> 48) & 0xff)] //
+						^ GROESTL_T[512 + ((int) (x[(j + shift[2]) & 15] >>> 40) & 0xff)] //
+						^ GROESTL_T[768 + ((int) (x[(j + shift[3]) & 15] >>> 32) & 0xff)] //
+						^ GROESTL_T[1024 + ((int) (x[(j + shift[4]) & 15] >>> 24) & 0xff)] //
+						^ GROESTL_T[1280 + ((int) (x[(j + shift[5]) & 15] >>> 16) & 0xff)] //
+						^ GROESTL_T[1536 + ((int) (x[(j + shift[6]) & 15] >>> 8) & 0xff)] //
+						^ GROESTL_T[1792 + ((int) x[(j + shift[7]) & 15] & 0xff)];
+			}
+
+			System.arraycopy(y, 0, x, 0, 16);
+		}
+	}
+
+	// JH-512, in the 64-bit bitslice form of the reference implementation
+
+	/**
+	 * Round constants in bitslice form, four words per round: two for the S-boxes on the even words of the state, two
+	 * for those on the odd words.
+	 */
+	private static final long[] JH_C = {
+			0x67F815DFA2DED572L, 0x571523B70A15847BL, 0xF6875A4D90D6AB81L, 0x402BD1C3C54F9F4EL,
+			0x9CFA455CE03A98EAL, 0x9A99B26699D2C503L, 0x8A53BBF2B4960266L, 0x31A2DB881A1456B5L,
+			0xDB0E199A5C5AA303L, 0x1044C1870AB23F40L, 0x1D959E848019051CL, 0xDCCDE75EADEB336FL,
+			0x416BBF029213BA10L, 0xD027BBF7156578DCL, 0x5078AA3739812C0AL, 0xD3910041D2BF1A3FL,
+			0x907ECCF60D5A2D42L, 0xCE97C0929C9F62DDL, 0xAC442BC70BA75C18L, 0x23FCC663D665DFD1L,
+			0x1AB8E09E036C6E97L, 0xA8EC6C447E450521L, 0xFA618E5DBB03F1EEL, 0x97818394B29796FDL,
+			0x2F3003DB37858E4AL, 0x956A9FFB2D8D672AL, 0x6C69B8F88173FE8AL, 0x14427FC04672C78AL,
+			0xC45EC7BD8F15F4C5L, 0x80BB118FA76F4475L, 0xBC88E4AEB775DE52L, 0xF4A3A6981E00B882L,
+			0x1563A3A9338FF48EL, 0x89F9B7D524565FAAL, 0xFDE05A7C20EDF1B6L, 0x362C42065AE9CA36L,
+			0x3D98FE4E433529CEL, 0xA74B9A7374F93A53L, 0x86814E6F591FF5D0L, 0x9F5AD8AF81AD9D0EL,
+			0x6A6234EE670605A7L, 0x2717B96EBE280B8BL, 0x3F1080C626077447L, 0x7B487EC66F7EA0E0L,
+			0xC0A4F84AA50A550DL, 0x9EF18E979FE7E391L, 0xD48D605081727686L, 0x62B0E5F3415A9E7EL,
+			0x7A205440EC1F9FFCL, 0x84C9F4CE001AE4E3L, 0xD895FA9DF594D74FL, 0xA554C324117E2E55L,
+			0x286EFEBD2872DF5BL, 0xB2C4A50FE27FF578L, 0x2ED349EEEF7C8905L, 0x7F5928EB85937E44L,
+			0x4A3124B337695F70L, 0x65E4D61DF128865EL, 0xE720B95104771BC7L, 0x8A87D423E843FE74L,
+			0xF2947692A3E8297DL, 0xC1D9309B097ACBDDL, 0xE01BDC5BFB301B1DL, 0xBF829CF24F4924DAL,
+			0xFFBF70B431BAE7A4L, 0x48BCF8DE0544320DL, 0x39D3BB5332FCAE3BL, 0xA08B29E0C1C39F45L,
+			0x0F09AEF7FD05C9E5L, 0x34F1904212347094L, 0x95ED44E301B771A2L, 0x4A982F4F368E3BE9L,
+			0x15F66CA0631D4088L, 0xFFAF52874B44C147L, 0x30C60AE2F14ABB7EL, 0xE68C6ECCC5B67046L,
+			0x00CA4FBD56A4D5A4L, 0xAE183EC84B849DDAL, 0xADD1643045CE5773L, 0x67255C1468CEA6E8L,
+			0x16E10ECBF28CDAA3L, 0x9A99949A5806E933L, 0x7B846FC220B2601FL, 0x1885D1A07FACCED1L,
+			0xD319DD8DA15B5932L, 0x46B4A5AAC01C9A50L, 0xBA6B04E467633D9FL, 0x7EEE560BAB19CAF6L,
+			0x742128A9EA79B11FL, 0xEE51363B35F7BDE9L, 0x76D350755AAC571DL, 0x01707DA3FEC2463AL,
+			0x42D8A498AFC135F7L, 0x79676B9E20ECED78L, 0xA8DB3AEA15638341L, 0x832C83324D3BC3FAL,
+			0xF347271C1F3B40A7L, 0x9A762DB734F04059L, 0xFD4F21D26C4E3EE7L, 0xEF5957DC398DFDB8L,
+			0xDAEB492B490C9B8DL, 0x0D70F36849D7A25BL, 0x84558D7AD0AE3B7DL, 0x658EF8E4F0E9A5F5L,
+			0x533B1036F4A2B8A0L, 0x5AEC3E759E07A80CL, 0x4F88E85692946891L, 0x4CBCBAF8555CB05BL,
+			0x7B9487F3993BBBE3L, 0x5D1C6B72D6F4DA75L, 0x6DB334DC28ACAE64L, 0x71DB28B850A5346CL,
+			0x2A518D10F2E261F8L, 0xFC75DD593364DBE3L, 0xA23FCE43F1BCAC1CL, 0xB043E8023CD1BB67L,
+			0x75A12988CA5B0A33L, 0x5C5316B44D19347FL, 0x1E4D790EC3943B92L, 0x3FAFEEB6D7757479L,
+			0x21391ABEF7D4A8EAL, 0x5127234C097EF45CL, 0xD23C32BA5324A326L, 0xADD5A66D4A17A344L,
+			0x08C9F2AFA63E1DB5L, 0x563C6B91983D5983L, 0x4D608672A17CF84CL, 0xF6C76E08CC3EE246L,
+			0x5E76BCB1B333982FL, 0x2AE6C4EFA566D62BL, 0x36D4C1BEE8B6F406L, 0x6321EFBC1582EE74L,
+			0x69C953F40D4EC1FDL, 0x26585806C45A7DA7L, 0x16FAE0061614C17EL, 0x3F9D63283DAF907EL,
+			0x0CD29B00E3F2C9D2L, 0x300CD4B730CEAA5FL, 0x9832E0F216512A74L, 0x9AF8CEE3D830EB0DL,
+			0x9279F1B57B9EC54BL, 0xD36886046EE651FFL, 0x316796E6574D239BL, 0x05750A17F3A6E6CCL,
+			0xCE6C3213D98176B1L, 0x62A205F88452173CL, 0x47154778B3CB2BF4L, 0x486A9323825446FFL,
+			0x65655E4E0758DF38L, 0x8E5086FC897CFCF2L, 0x86CA0BD0442E7031L, 0x4E477830A20940F0L,
+			0x8338F7D139EEA065L, 0xBD3A2CE437E95EF7L, 0x6FF8130126B29721L, 0xE7DE9FEFD1ED44A3L,
+			0xD992257615DFA08BL, 0xBE42DC12F6F7853CL, 0x7EB027AB7CECA7D8L, 0xDEA83EAADA7D8D53L,
+			0xD86902BD93CE25AAL, 0xF908731AFD43F65AL, 0xA5194A17DAEF5FC0L, 0x6A21FD4C33664D97L,
+			0x701541DB3198B435L, 0x9B54CDEDBB0F1EEAL, 0x72409751A163D09AL, 0xE26F4791BF9D75F6L };
+
+	private static final long[] JH_IV = new long[16];
+
+	private static final long[] JH_SWAP_MASKS = { 0x5555555555555555L, 0x3333333333333333L, 0x0f0f0f0f0f0f0f0fL, 0x00ff00ff00ff00ffL,
+			0x0000ffff0000ffffL, 0x00000000ffffffffL };
+
+	static
+	{
+		// H(-1) starts with the output size in bits, big endian
+		JH_IV[0] = 0x0002;
+		jhCompress(JH_IV, new long[8]);
+	}
+
+	private void jh(final byte[] in, final int offset, final int length, final byte[] out)
+	{
+		final long[] x = this.h;
+		final long[] m = this.m;
+		System.arraycopy(JH_IV, 0, x, 0, 16);
+
+		int pos = offset;
+		final int end = offset + length;
+		for (; end - pos >= 64; pos += 64)
+		{
+			for (int i = 0; i < 8; i++)
+				m[i] = readLongLE(in, pos + i * 8);
+			jhCompress(x, m);
+		}
+
+		// padding: a one bit, zeros and the 128-bit length, in one block if the message filled whole blocks
+		final int rest = end - pos;
+		Arrays.fill(block, 0, 64, (byte) 0);
+		System.arraycopy(in, pos, block, 0, rest);
+		block[rest] = (byte) 0x80;
+		if (rest != 0)
+		{
+			for (int i = 0; i < 8; i++)
+				m[i] = readLongLE(block, i * 8);
+			jhCompress(x, m);
+			Arrays.fill(block, 0, 64, (byte) 0);
+		}
+		writeLongBE((long) length * 8, block, 56);
+		for (int i = 0; i < 8; i++)
+			m[i] = readLongLE(block, i * 8);
+		jhCompress(x, m);
+
+		for (int i = 0; i < 8; i++)
+			writeLongLE(x[8 + i], out, i * 8);
+	}
+
+	/**
+	 * F8: xors the message into the first half of the state, applies E8 and xors the message into the second half. The
+	 * state is kept as sixteen little endian words, word 2i + j being half j of the 128-bit word i of the reference.
+	 */
+	private static void jhCompress(final long[] x, final long[] m)
+	{
+		for (int i = 0; i < 8; i++)
+			x[i] ^= m[i];
+
+		for (int round = 0; round < 42; round++)
+		{
+			jhSboxAndL(x, 0, JH_C[round * 4], JH_C[round * 4 + 2]);
+			jhSboxAndL(x, 1, JH_C[round * 4 + 1], JH_C[round * 4 + 3]);
+
+			// swap bit groups of the odd words, of twice the size each round, and finally their halves
+			final int k = round % 7;
+			for (int i = 2; i < 16; i += 4)
+			{
+				if (k == 6)
+				{
+					final long tmp = x[i];
+					x[i] = x[i + 1];
+					x[i + 1] = tmp;
+				}
+				else
+				{
+					x[i] = jhSwap(x[i], k);
+					x[i + 1] = jhSwap(x[i + 1], k);
+				}
+			}
+		}
+
+		for (int i = 0; i < 8; i++)
+			x[8 + i] ^= m[i];
+	}
+
+	private static long jhSwap(final long x, final int k)
+	{
+		final long mask = JH_SWAP_MASKS[k];
+		final int shift = 1 << k;
+		return ((x & mask) << shift) | ((x >>> shift) & mask);
+	}
+
+	/**
+	 * Two S-box layers in parallel, on the even and on the odd words of half j of the state, followed by the linear
+	 * transformation L between them.
+	 */
+	private static void jhSboxAndL(final long[] x, final int j, final long c0, final long c1)
+	{
+		long m0 = x[j], m1 = x[4 + j], m2 = x[8 + j], m3 = x[12 + j];
+		long m4 = x[2 + j], m5 = x[6 + j], m6 = x[10 + j], m7 = x[14 + j];
+
+		m3 = ~m3;
+		m7 = ~m7;
+		m0 ^= ~m2 & c0;
+		m4 ^= ~m6 & c1;
+		final long t0 = c0 ^ (m0 & m1);
+		final long t1 = c1 ^ (m4 & m5);
+		m0 ^= m2 & m3;
+		m4 ^= m6 & m7;
+		m3 ^= ~m1 & m2;
+		m7 ^= ~m5 & m6;
+		m1 ^= m0 & m2;
+		m5 ^= m4 & m6;
+		m2 ^= m0 & ~m3;
+		m6 ^= m4 & ~m7;
+		m0 ^= m1 | m3;
+		m4 ^= m5 | m7;
+		m3 ^= m1 & m2;
+		m7 ^= m5 & m6;
+		m1 ^= t0 & m0;
+		m5 ^= t1 & m4;
+		m2 ^= t0;
+		m6 ^= t1;
+
+		m4 ^= m1;
+		m5 ^= m2;
+		m6 ^= m0 ^ m3;
+		m7 ^= m0;
+		m0 ^= m5;
+		m1 ^= m6;
+		m2 ^= m4 ^ m7;
+		m3 ^= m4;
+
+		x[j] = m0;
+		x[4 + j] = m1;
+		x[8 + j] = m2;
+		x[12 + j] = m3;
+		x[2 + j] = m4;
+		x[6 + j] = m5;
+		x[10 + j] = m6;
+		x[14 + j] = m7;
+	}
+
+	// Keccak-512
+
+	private static final long[] KECCAK_RC = new long[24];
+	private static final int[] KECCAK_ROTATION = new int[25];
+	private static final int[] KECCAK_PI = new int[25];
+	private static final int[] MOD5 = { 0, 1, 2, 3, 4, 0, 1, 2, 3, 4 };
+
+	static
+	{
+		int lfsr = 1;
+		for (int round = 0; round < 24; round++)
+		{
+			for (int j = 0; j < 7; j++)
+			{
+				if ((lfsr & 1) != 0)
+					KECCAK_RC[round] ^= 1L << ((1 << j) - 1);
+				lfsr = (lfsr & 0x80) != 0 ? (lfsr << 1) ^ 0x171 : lfsr << 1;
+			}
+		}
+
+		int x = 1, y = 0;
+		for (int t = 0; t < 24; t++)
+		{
+			KECCAK_ROTATION[x + 5 * y] = ((t + 1) * (t + 2) / 2) % 64;
+			final int nx = y, ny = (2 * x + 3 * y) % 5;
+			x = nx;
+			y = ny;
+		}
+
+		for (x = 0; x < 5; x++)
+			for (y = 0; y < 5; y++)
+				KECCAK_PI[x + 5 * y] = y + 5 * ((2 * x + 3 * y) % 5);
+	}
+
+	private void keccak(final byte[] in, final int offset, final int length, final byte[] out)
+	{
+		final long[] s = this.v;
+		Arrays.fill(s, 0, 25, 0);
+
+		// rate of 72 bytes, so the input and the original Keccak padding fit one block
+		Arrays.fill(block, 0, 72, (byte) 0);
+		System.arraycopy(in, offset, block, 0, length);
+		block[length] ^= 0x01;
+		block[71] ^= (byte) 0x80;
+		for (int i = 0; i < 9; i++)
+			s[i] ^= readLongLE(block, i * 8);
+
+		keccakPermute(s);
+
+		for (int i = 0; i < 8; i++)
+			writeLongLE(s[i], out, i * 8);
+	}
+
+	private void keccakPermute(final long[] s)
+	{
+		final long[] c = this.t;
+		final long[] b = this.lanes;
+
+		for (int round = 0; round < 24; round++)
+		{
+			// theta
+			for (int x = 0; x < 5; x++)
+				c[x] = s[x] ^ s[x + 5] ^ s[x + 10] ^ s[x + 15] ^ s[x + 20];
+			for (int x = 0; x < 5; x++)
+			{
+				final long d = c[MOD5[x + 4]] ^ Long.rotateLeft(c[MOD5[x + 1]], 1);
+				for (int y = 0; y < 25; y += 5)
+					s[x + y] ^= d;
+			}
+
+			// rho and pi
+			for (int i = 0; i < 25; i++)
+				b[KECCAK_PI[i]] = Long.rotateLeft(s[i], KECCAK_ROTATION[i]);
+
+			// chi
+			for (int y = 0; y < 25; y += 5)
+				for (int x = 0; x < 5; x++)
+					s[x + y] = b[x + y] ^ (~b[MOD5[x + 1] + y] & b[MOD5[x + 2] + y]);
+
+			// iota
+			s[0] ^= KECCAK_RC[round];
+		}
+	}
+
+	// Skein-512
+
+	private static final long[] SKEIN_IV = new long[8];
+	private static final int[][] SKEIN_R = { { 46, 36, 19, 37 }, { 33, 27, 14, 42 }, { 17, 49, 36, 39 }, { 44, 9, 54, 56 },
+			{ 39, 30, 34, 24 }, { 13, 50, 10, 17 }, { 25, 29, 39, 43 }, { 8, 35, 56, 22 } };
+	private static final int[] SKEIN_PI = { 2, 1, 4, 7, 6, 5, 0, 3 };
+	private static final long SKEIN_C240 = 0x1BD11BDAA9FC1A22L;
+	private static final long SKEIN_TYPE_CFG = 4L << 56;
+	private static final long SKEIN_TYPE_MSG = 48L << 56;
+	private static final long SKEIN_TYPE_OUT = 63L << 56;
+	private static final long SKEIN_FIRST = 1L << 62;
+	private static final long SKEIN_FINAL = 1L << 63;
+
+	static
+	{
+		// configuration block: schema "SHA3", version 1, 512 output bits
+		final QuarkDigest digest = new QuarkDigest();
+		Arrays.fill(digest.m, 0);
+		digest.m[0] = 0x0000000133414853L;
+		digest.m[1] = 512;
+		Arrays.fill(digest.h, 0, 8, 0);
+		digest.skeinUbi(32, SKEIN_TYPE_CFG | SKEIN_FIRST | SKEIN_FINAL);
+		System.arraycopy(digest.h, 0, SKEIN_IV, 0, 8);
+	}
+
+	private void skein(final byte[] in, final int offset, final int length, final byte[] out)
+	{
+		System.arraycopy(SKEIN_IV, 0, h, 0, 8);
+
+		Arrays.fill(block, 0, 64, (byte) 0);
+		System.arraycopy(in, offset, block, 0, length);
+		for (int i = 0; i < 8; i++)
+			m[i] = readLongLE(block, i * 8);
+		skeinUbi(length, SKEIN_TYPE_MSG | SKEIN_FIRST | SKEIN_FINAL);
+
+		Arrays.fill(m, 0, 8, 0);
+		skeinUbi(8, SKEIN_TYPE_OUT | SKEIN_FIRST | SKEIN_FINAL);
+
+		for (int i = 0; i < 8; i++)
+			writeLongLE(h[i], out, i * 8);
+	}
+
+	/**
+	 * One UBI block: h = Threefish(key h, tweak, m) ^ m.
+	 */
+	private void skeinUbi(final long position, final long tweak1)
+	{
+		final long[] k = this.t; // 9 key words
+		final long[] x = this.v; // 8 state words, then 8 scratch words
+		final long[] h = this.h;
+		final long[] m = this.m;
+
+		long parity = SKEIN_C240;
+		for (int i = 0; i < 8; i++)
+		{
+			k[i] = h[i];
+			parity ^= h[i];
+		}
+		k[8] = parity;
+		final long t0 = position, t1 = tweak1, t2 = position ^ tweak1;
+
+		for (int i = 0; i < 8; i++)
+			x[i] = m[i];
+
+		for (int d = 0; d < 72; d++)
+		{
+			if ((d & 3) == 0)
+				skeinInject(x, k, d >> 2, t0, t1, t2);
+
+			final int[] rotation = SKEIN_R[d & 7];
+			for (int j = 0; j < 4; j++)
+			{
+				final long x0 = x[2 * j] + x[2 * j + 1];
+				x[8 + 2 * j] = x0;
+				x[8 + 2 * j + 1] = Long.rotateLeft(x[2 * j + 1], rotation[j]) ^ x0;
+			}
+			for (int i = 0; i < 8; i++)
+				x[i] = x[8 + SKEIN_PI[i]];
+		}
+		skeinInject(x, k, 18, t0, t1, t2);
+
+		for (int i = 0; i < 8; i++)
+			h[i] = x[i] ^ m[i];
+	}
+
+	private static void skeinInject(final long[] x, final long[] k, final int s, final long t0, final long t1, final long t2)
+	{
+		for (int i = 0; i < 8; i++)
+			x[i] += k[(s + i) % 9];
+		x[5] += s % 3 == 0 ? t0 : s % 3 == 1 ? t1 : t2;
+		x[6] += s % 3 == 0 ? t1 : s % 3 == 1 ? t2 : t0;
+		x[7] += s;
+	}
+
+	// helpers
+
+	private static long readLongBE(final byte[] bytes, final int offset)
+	{
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | (bytes[offset + i] & 0xff);
+		return value;
+	}
+
+	private static void writeLongBE(final long value, final byte[] bytes, final int offset)
+	{
+		for (int i = 0; i < 8; i++)
+			bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+	}
+
+	private static long readLongLE(final byte[] bytes, final int offset)
+	{
+		long value = 0;
+		for (int i = 7; i >= 0; i--)
+			value = (value << 8) | (bytes[offset + i] & 0xff);
+		return value;
+	}
+
+	private static void writeLongLE(final long value, final byte[] bytes, final int offset)
+	{
+		for (int i = 0; i < 8; i++)
+			bytes[offset + i] = (byte) (value >>> (8 * i));
+	}
+}
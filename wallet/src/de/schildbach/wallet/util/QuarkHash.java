@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Utils;
+import com.hashengineering.crypto.Hash9;
+
+/**
+ * Proof of work hash of serialized block headers, for single headers as well as for batches of headers laid out back to
+ * back in one array.
+ *
+ * The batch form lets callers hand over a whole run of headers at once and have the digests written into a buffer they
+ * own, typically a direct buffer that is reused across batches, instead of getting back one array per header.
+ *
+ * Hashing goes through the native library if it can be loaded, and falls back to {@link QuarkDigest} otherwise, which
+ * is the case on platforms the library is not built for.
+ */
+public class QuarkHash
+{
+	public static final int DIGEST_LENGTH = 32;
+
+	private static final Logger log = LoggerFactory.getLogger(QuarkHash.class);
+
+	private static final boolean NATIVE = loadNative();
+
+	private static final ThreadLocal<QuarkDigest> JAVA_DIGEST = new ThreadLocal<QuarkDigest>()
+	{
+		@Override
+		protected QuarkDigest initialValue()
+		{
+			return new QuarkDigest();
+		}
+	};
+
+	/**
+	 * @return true if hashing goes through the native library
+	 */
+	public static boolean isNative()
+	{
+		return NATIVE;
+	}
+
+	/**
+	 * @return hash of the header at the given offset, in the byte order of {@link Sha256Hash}
+	 */
+	public static Sha256Hash hash(@Nonnull final byte[] headers, final int offset)
+	{
+		final byte[] digest;
+		if (NATIVE)
+		{
+			digest = Hash9.digest(headers, offset, Block.HEADER_SIZE);
+		}
+		else
+		{
+			digest = new byte[DIGEST_LENGTH];
+			JAVA_DIGEST.get().digest(headers, offset, Block.HEADER_SIZE, digest, 0);
+		}
+
+		return new Sha256Hash(Utils.reverseBytes(digest));
+	}
+
+	/**
+	 * Hashes the given number of consecutive headers, starting at the given offset, and puts their digests at the
+	 * position of the output buffer, which is advanced by {@code count * DIGEST_LENGTH}. Digests are written in the
+	 * byte order the hash function produces them, i.e. reversed with respect to {@link Sha256Hash}.
+	 */
+	public static void digest(@Nonnull final byte[] headers, final int offset, final int count, @Nonnull final ByteBuffer out)
+	{
+		if (offset < 0 || count < 0 || offset + count * Block.HEADER_SIZE > headers.length)
+			throw new IndexOutOfBoundsException("headers: " + headers.length + ", offset: " + offset + ", count: " + count);
+		if (out.remaining() < count * DIGEST_LENGTH)
+			throw new IllegalArgumentException("output buffer too small for " + count + " digests");
+
+		if (NATIVE)
+		{
+			// the native library only exports a per-header entry point
+			for (int i = 0; i < count; i++)
+				out.put(Hash9.digest(headers, offset + i * Block.HEADER_SIZE, Block.HEADER_SIZE));
+		}
+		else
+		{
+			final QuarkDigest digest = JAVA_DIGEST.get();
+			for (int i = 0; i < count; i++)
+				digest.digest(headers, offset + i * Block.HEADER_SIZE, Block.HEADER_SIZE, out);
+		}
+	}
+
+	/**
+	 * @return true if the digest at the given position of the buffer, as written by {@link #digest}, does not exceed the
+	 *         target encoded in the given difficulty bits
+	 */
+	public static boolean meetsTarget(@Nonnull final ByteBuffer digests, final int position, final long difficultyTarget)
+	{
+		final byte[] hash = new byte[DIGEST_LENGTH];
+		for (int i = 0; i < DIGEST_LENGTH; i++)
+			hash[DIGEST_LENGTH - 1 - i] = digests.get(position + i);
+
+		return new BigInteger(1, hash).compareTo(Utils.decodeCompactBits(difficultyTarget)) <= 0;
+	}
+
+	private static boolean loadNative()
+	{
+		try
+		{
+			System.loadLibrary("hash9");
+			log.info("using native quark hash");
+			return true;
+		}
+		catch (final UnsatisfiedLinkError x)
+		{
+			log.info("native quark hash not available, using java implementation: {}", x.getMessage());
+			return false;
+		}
+	}
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.BlockChain;
+import com.google.bitcoin.core.BlockChainListener;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.BalanceType;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.bitcoin.utils.Threading;
+
+public class WalletJournalTest
+{
+	private static final NetworkParameters PARAMS = MainNetParams.get();
+
+	// "CHECKPOINTS 1", number of signatures, number of checkpoints
+	private static final int CHECKPOINTS_HEADER_SIZE = 13 + 4 + 4;
+
+	private File dir;
+	private File snapshotFile;
+	private File journalFile;
+	private File compactingFile;
+	private ECKey key;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		dir = File.createTempFile("wallet-journal", "");
+		dir.delete();
+		dir.mkdir();
+
+		snapshotFile = new File(dir, "wallet-protobuf");
+		journalFile = new File(dir, "wallet-protobuf.journal");
+		compactingFile = new File(dir, "wallet-protobuf.journal-compacting");
+		key = new ECKey();
+	}
+
+	@After
+	public void tearDown()
+	{
+		for (final File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void loadAfterCleanRun() throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		journal.start(newWallet());
+		final Transaction tx1 = transaction(1);
+		final Transaction tx2 = transaction(2);
+		receive(journal, tx1, block(1));
+		receive(journal, tx2, block(2));
+		journal.stop();
+
+		final Wallet wallet = new WalletJournal(PARAMS, snapshotFile, null).load();
+		assertNotNull(wallet.getTransaction(tx1.getHash()));
+		assertNotNull(wallet.getTransaction(tx2.getHash()));
+		assertEquals(block(2).getHeight(), wallet.getLastBlockSeenHeight());
+		assertEquals(Utils.toNanoCoins(2, 0), wallet.getBalance(BalanceType.ESTIMATED));
+	}
+
+	@Test
+	public void tornTailIsCutOff() throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		journal.start(newWallet());
+		final Transaction tx1 = transaction(1);
+		final Transaction tx2 = transaction(2);
+		receive(journal, tx1, block(1));
+		final long intactLength = journalFile.length();
+		receive(journal, tx2, block(2));
+		journal.stop();
+
+		// died in the middle of writing the new best block record of block 2
+		truncate(journalFile, journalFile.length() - 5);
+
+		final Wallet wallet = new WalletJournal(PARAMS, snapshotFile, null).load();
+		assertNotNull(wallet.getTransaction(tx1.getHash()));
+		assertNotNull(wallet.getTransaction(tx2.getHash()));
+		assertEquals(block(1).getHeight(), wallet.getLastBlockSeenHeight());
+
+		// died before block 2
+		truncate(journalFile, intactLength);
+		final WalletJournal journal3 = new WalletJournal(PARAMS, snapshotFile, null);
+		final Wallet wallet3 = journal3.load();
+		assertEquals(block(1).getHeight(), wallet3.getLastBlockSeenHeight());
+
+		// journaling goes on behind the intact part
+		journal3.start(wallet3);
+		final Transaction tx3 = transaction(3);
+		receive(journal3, tx3, block(3));
+		journal3.stop();
+
+		final Wallet wallet4 = new WalletJournal(PARAMS, snapshotFile, null).load();
+		assertNotNull(wallet4.getTransaction(tx1.getHash()));
+		assertNull(wallet4.getTransaction(tx2.getHash()));
+		assertNotNull(wallet4.getTransaction(tx3.getHash()));
+		assertEquals(block(3).getHeight(), wallet4.getLastBlockSeenHeight());
+	}
+
+	@Test
+	public void corruptRecordEndsReplay() throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		journal.start(newWallet());
+		final Transaction tx1 = transaction(1);
+		final Transaction tx2 = transaction(2);
+		receive(journal, tx1, block(1));
+		final long corruptAt = journalFile.length() + 20;
+		receive(journal, tx2, block(2));
+		journal.stop();
+
+		final RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+		try
+		{
+			file.seek(corruptAt);
+			final int b = file.read();
+			file.seek(corruptAt);
+			file.write(b ^ 0xff);
+		}
+		finally
+		{
+			file.close();
+		}
+
+		final Wallet wallet = new WalletJournal(PARAMS, snapshotFile, null).load();
+		assertNotNull(wallet.getTransaction(tx1.getHash()));
+		assertNull(wallet.getTransaction(tx2.getHash()));
+		assertEquals(block(1).getHeight(), wallet.getLastBlockSeenHeight());
+	}
+
+	@Test
+	public void crashAfterJournalRenamedAside() throws Exception
+	{
+		final Transaction tx1 = transaction(1);
+		final Transaction tx2 = transaction(2);
+		final byte[][] files = compactBetween(tx1, tx2);
+
+		// the old snapshot is still in place
+		write(snapshotFile, files[0]);
+		write(compactingFile, files[1]);
+
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		final Wallet wallet = journal.load();
+		assertLoadedBoth(wallet, tx1, tx2);
+
+		// nothing is dropped before a new snapshot is in place
+		assertTrue(compactingFile.exists());
+		assertLoadedBoth(new WalletJournal(PARAMS, snapshotFile, null).load(), tx1, tx2);
+
+		journal.start(wallet);
+		journal.stop();
+		assertFalse(compactingFile.exists());
+		assertLoadedBoth(new WalletJournal(PARAMS, snapshotFile, null).load(), tx1, tx2);
+	}
+
+	@Test
+	public void crashAfterSnapshotRenamed() throws Exception
+	{
+		final Transaction tx1 = transaction(1);
+		final Transaction tx2 = transaction(2);
+		final byte[][] files = compactBetween(tx1, tx2);
+
+		// the new snapshot is in place, but the old journal was not deleted yet
+		write(compactingFile, files[1]);
+
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		final Wallet wallet = journal.load();
+		assertLoadedBoth(wallet, tx1, tx2);
+
+		journal.start(wallet);
+		journal.stop();
+		assertFalse(compactingFile.exists());
+		assertLoadedBoth(new WalletJournal(PARAMS, snapshotFile, null).load(), tx1, tx2);
+	}
+
+	@Test
+	public void crashDuringRecoveryCompaction() throws Exception
+	{
+		final Transaction tx1 = transaction(1);
+		final Transaction tx2 = transaction(2);
+		final byte[][] files = compactBetween(tx1, tx2);
+		final byte[] journal1 = read(journalFile);
+
+		write(snapshotFile, files[0]);
+		write(compactingFile, files[1]);
+
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		journal.start(journal.load());
+		journal.stop();
+
+		// the snapshot replacing both journals is in place, but they were not replaced yet
+		write(compactingFile, files[1]);
+		write(journalFile, journal1);
+
+		final Wallet wallet = new WalletJournal(PARAMS, snapshotFile, null).load();
+		assertLoadedBoth(wallet, tx1, tx2);
+	}
+
+	@Test
+	public void failingSnapshotsKeepJournals() throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		journal.start(newWallet());
+		final Transaction tx1 = transaction(1);
+		receive(journal, tx1, block(1));
+
+		// snapshots cannot be written
+		final File tempFile = new File(dir, "wallet-protobuf.tmp");
+		tempFile.mkdir();
+
+		final Transaction tx2 = transaction(2);
+		final Transaction tx3 = transaction(3);
+		assertCompactionFails(journal);
+		receive(journal, tx2, block(2));
+		assertCompactionFails(journal);
+		receive(journal, tx3, block(3));
+		journal.sync();
+
+		final Wallet wallet = new WalletJournal(PARAMS, snapshotFile, null).load();
+		assertNotNull(wallet.getTransaction(tx1.getHash()));
+		assertNotNull(wallet.getTransaction(tx2.getHash()));
+		assertNotNull(wallet.getTransaction(tx3.getHash()));
+		assertEquals(block(3).getHeight(), wallet.getLastBlockSeenHeight());
+
+		tempFile.delete();
+		journal.compact();
+		journal.stop();
+		assertFalse(compactingFile.exists());
+
+		final Wallet wallet2 = new WalletJournal(PARAMS, snapshotFile, null).load();
+		assertEquals(Utils.toNanoCoins(3, 0), wallet2.getBalance(BalanceType.ESTIMATED));
+		assertEquals(block(3).getHeight(), wallet2.getLastBlockSeenHeight());
+	}
+
+	@Test
+	public void snapshotWaitsForEndOfBlock() throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		journal.start(newWallet());
+		final BlockChainListener chain = journal.getBlockChainListener();
+		final Transaction tx1 = transaction(1);
+		final Transaction tx2 = transaction(2);
+		receive(journal, tx1, block(1));
+
+		chain.receiveFromBlock(tx2, block(2), BlockChain.NewBlockType.BEST_CHAIN, 0);
+
+		final Thread compaction = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					journal.compact();
+				}
+				catch (final IOException x)
+				{
+					throw new RuntimeException(x);
+				}
+			}
+		};
+		compaction.start();
+		compaction.join(500);
+		assertTrue(compaction.isAlive());
+
+		chain.notifyNewBestBlock(block(2));
+		compaction.join();
+		journal.stop();
+
+		final Wallet wallet = new WalletJournal(PARAMS, snapshotFile, null).load();
+		assertLoadedBoth(wallet, tx1, tx2);
+	}
+
+	@Test
+	public void confirmedBeforeJournaledAsPending() throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		final Wallet wallet = newWallet();
+		journal.start(wallet);
+
+		// hold back the listener that journals pending transactions
+		final CountDownLatch userThreadBlocked = new CountDownLatch(1);
+		Threading.USER_THREAD.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					userThreadBlocked.await();
+				}
+				catch (final InterruptedException x)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		try
+		{
+			final Transaction tx = transaction(1);
+			wallet.receivePending(tx, null);
+			final BlockChainListener chain = journal.getBlockChainListener();
+			assertTrue(chain.notifyTransactionIsInBlock(tx.getHash(), block(1), BlockChain.NewBlockType.BEST_CHAIN, 0));
+			chain.notifyNewBestBlock(block(1));
+			journal.sync();
+
+			final Wallet loaded = new WalletJournal(PARAMS, snapshotFile, null).load();
+			final Transaction loadedTx = loaded.getTransaction(tx.getHash());
+			assertNotNull(loadedTx);
+			assertEquals(ConfidenceType.BUILDING, loadedTx.getConfidence().getConfidenceType());
+			assertEquals(block(1).getHeight(), loadedTx.getConfidence().getAppearedAtChainHeight());
+		}
+		finally
+		{
+			userThreadBlocked.countDown();
+			journal.stop();
+		}
+	}
+
+	/**
+	 * Receives the first transaction, compacts and receives the second.
+	 *
+	 * @return the snapshot and the journal from before compaction
+	 */
+	private byte[][] compactBetween(final Transaction tx1, final Transaction tx2) throws Exception
+	{
+		final WalletJournal journal = new WalletJournal(PARAMS, snapshotFile, null);
+		journal.start(newWallet());
+		receive(journal, tx1, block(1));
+		journal.sync();
+		final byte[][] files = new byte[][] { read(snapshotFile), read(journalFile) };
+
+		journal.compact();
+		receive(journal, tx2, block(2));
+		journal.stop();
+
+		return files;
+	}
+
+	private void assertLoadedBoth(final Wallet wallet, final Transaction tx1, final Transaction tx2)
+	{
+		assertNotNull(wallet.getTransaction(tx1.getHash()));
+		assertNotNull(wallet.getTransaction(tx2.getHash()));
+		assertEquals(block(2).getHeight(), wallet.getLastBlockSeenHeight());
+		assertEquals(Utils.toNanoCoins(2, 0), wallet.getBalance(BalanceType.ESTIMATED));
+	}
+
+	private static void assertCompactionFails(final WalletJournal journal)
+	{
+		try
+		{
+			journal.compact();
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+	}
+
+	private Wallet newWallet()
+	{
+		final Wallet wallet = new Wallet(PARAMS);
+		wallet.addKey(key);
+		return wallet;
+	}
+
+	private Transaction transaction(final int seed)
+	{
+		final Transaction tx = new Transaction(PARAMS);
+		tx.addInput(new TransactionInput(PARAMS, tx, new byte[] {}, new TransactionOutPoint(PARAMS, 0, Sha256Hash.create(new byte[] {
+				(byte) seed }))));
+		tx.addOutput(Utils.toNanoCoins(1, 0), key.toAddress(PARAMS));
+		return tx;
+	}
+
+	private static void receive(final WalletJournal journal, final Transaction tx, final StoredBlock block) throws Exception
+	{
+		final BlockChainListener chain = journal.getBlockChainListener();
+		chain.receiveFromBlock(tx, block, BlockChain.NewBlockType.BEST_CHAIN, 0);
+		chain.notifyNewBestBlock(block);
+	}
+
+	private static StoredBlock block(final int index)
+	{
+		try
+		{
+			final File file = new File("assets/checkpoints");
+			final DataInputStream is = new DataInputStream(new FileInputStream(file));
+			try
+			{
+				is.skipBytes(CHECKPOINTS_HEADER_SIZE + index * StoredBlock.COMPACT_SERIALIZED_SIZE);
+				final byte[] checkpoint = new byte[StoredBlock.COMPACT_SERIALIZED_SIZE];
+				is.readFully(checkpoint);
+				return StoredBlock.deserializeCompact(PARAMS, ByteBuffer.wrap(checkpoint));
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch (final Exception x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	private static byte[] read(final File file) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			final byte[] bytes = new byte[(int) file.length()];
+			is.readFully(bytes);
+			return bytes;
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static void write(final File file, final byte[] bytes) throws IOException
+	{
+		final FileOutputStream os = new FileOutputStream(file);
+		try
+		{
+			os.write(bytes);
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	private static void truncate(final File file, final long length) throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(length);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+}
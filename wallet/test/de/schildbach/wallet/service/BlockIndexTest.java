@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.bitcoin.store.MemoryBlockStore;
+
+public class BlockIndexTest
+{
+	private static final NetworkParameters PARAMS = MainNetParams.get();
+
+	// any hash meets this target
+	private static final long EASIEST_DIFFICULTY_TARGET = 0x2100ffffL;
+
+	// hash, chain work, height, header
+	private static final int HEADER_SIZE = 32 + StoredBlock.COMPACT_SERIALIZED_SIZE;
+	private static final int RECORD_SIZE = HEADER_SIZE;
+
+	private File file;
+	private final List<BlockIndex> indexes = new LinkedList<BlockIndex>();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		file = File.createTempFile("block-index", "");
+		file.delete();
+	}
+
+	@After
+	public void tearDown()
+	{
+		for (final BlockIndex index : indexes)
+			index.close();
+		BlockIndex.delete(file);
+	}
+
+	@Test
+	public void reopenAfterCleanClose() throws Exception
+	{
+		final List<StoredBlock> chain = chain(null, 0, 1000, 0);
+		final BlockIndex index = open();
+		put(index, chain);
+		index.close();
+
+		final BlockIndex reopened = open();
+		assertEquals(0, reopened.getBaseHeight());
+		assertEquals(999, reopened.getBestHeight());
+		assertEquals(0, reopened.verify());
+		assertFound(reopened, chain);
+	}
+
+	@Test
+	public void reopenWithUnverifiedTail() throws Exception
+	{
+		final List<StoredBlock> chain = chain(null, 0, 1010, 0);
+		final BlockIndex index = open();
+		put(index, chain.subList(0, 1000));
+		index.close();
+
+		// killed after the next ten blocks
+		final BlockIndex index2 = open();
+		put(index2, chain.subList(1000, 1010));
+
+		final BlockIndex reopened = open();
+		assertEquals(1009, reopened.getBestHeight());
+		assertNotNull(reopened.get(hash(chain, 999)));
+		assertNull(reopened.get(hash(chain, 1005)));
+		assertEquals(1005, reopened.getHeight(hash(chain, 1005)));
+
+		assertEquals(10, reopened.verify());
+		assertFound(reopened, chain);
+	}
+
+	@Test
+	public void corruptRecordTruncates() throws Exception
+	{
+		final List<StoredBlock> chain = chain(null, 0, 1000, 0);
+		final BlockIndex index = open();
+		put(index, chain);
+
+		// killed, with the nonce of block 600 garbled
+		corruptNonce(600);
+
+		final BlockIndex reopened = open();
+		assertEquals(600, reopened.verify());
+		assertEquals(599, reopened.getBestHeight());
+		assertFound(reopened, chain.subList(0, 600));
+
+		// the hash table still has entries for the dropped records
+		assertEquals(-1, reopened.getHeight(hash(chain, 600)));
+		assertEquals(-1, reopened.getHeight(hash(chain, 700)));
+		assertNull(reopened.get(hash(chain, 700)));
+		assertNull(reopened.get(700));
+	}
+
+	@Test
+	public void gapAfterTruncationIsFilledFromBlockStore() throws Exception
+	{
+		final List<StoredBlock> chain = chain(null, 0, 1001, 0);
+		final MemoryBlockStore blockStore = new MemoryBlockStore(PARAMS);
+		for (final StoredBlock block : chain)
+			blockStore.put(block);
+
+		final BlockIndex index = open();
+		index.seed(chain.get(999), blockStore);
+		assertEquals(999, index.getBestHeight());
+		corruptNonce(600);
+
+		final BlockIndex reopened = open();
+		reopened.seed(chain.get(999), blockStore);
+		reopened.verify();
+		assertEquals(599, reopened.getBestHeight());
+
+		reopened.notifyNewBestBlock(chain.get(1000));
+		assertEquals(0, reopened.getBaseHeight());
+		assertEquals(1000, reopened.getBestHeight());
+		assertFound(reopened, chain);
+	}
+
+	@Test
+	public void reorganizeRewritesDurableRecords() throws Exception
+	{
+		final List<StoredBlock> chain = chain(null, 0, 1000, 0);
+		final BlockIndex index = open();
+		put(index, chain);
+		index.close();
+
+		final List<StoredBlock> fork = chain(chain.get(900), 901, 105, 1);
+		final List<StoredBlock> newChain = new ArrayList<StoredBlock>(chain.subList(0, 901));
+		newChain.addAll(fork);
+
+		final BlockIndex index2 = open();
+		reorganize(index2, chain.get(900), chain.subList(901, 1000), fork);
+		assertEquals(1005, index2.getBestHeight());
+		assertEquals(-1, index2.getHeight(hash(chain, 950)));
+		assertFound(index2, newChain);
+
+		// killed after the reorganization, so the rewritten records cannot be trusted
+		final BlockIndex reopened = open();
+		assertNull(reopened.get(hash(newChain, 950)));
+		assertNull(reopened.get(hash(chain, 950)));
+		assertEquals(105, reopened.verify());
+		assertFound(reopened, newChain);
+		assertEquals(-1, reopened.getHeight(hash(chain, 950)));
+		reopened.close();
+
+		final BlockIndex reopened2 = open();
+		assertEquals(0, reopened2.verify());
+		assertFound(reopened2, newChain);
+	}
+
+	@Test
+	public void hashTableRebuild() throws Exception
+	{
+		// more than fit into the smallest hash table
+		final List<StoredBlock> chain = chain(null, 0, 20000, 0);
+		final BlockIndex index = open();
+		put(index, chain);
+		assertFound(index, chain);
+		index.close();
+
+		new File(file.getParentFile(), file.getName() + "-hashes").delete();
+
+		final BlockIndex reopened = open();
+		assertEquals(0, reopened.verify());
+		assertFound(reopened, chain);
+		assertEquals(-1, reopened.getHeight(hash(chain(null, 0, 1, 1), 0)));
+	}
+
+	private BlockIndex open() throws Exception
+	{
+		final BlockIndex index = new BlockIndex(PARAMS, file);
+		indexes.add(index);
+		return index;
+	}
+
+	private static void put(final BlockIndex index, final List<StoredBlock> blocks) throws Exception
+	{
+		for (final StoredBlock block : blocks)
+			index.notifyNewBestBlock(block);
+	}
+
+	private static void reorganize(final BlockIndex index, final StoredBlock splitPoint, final List<StoredBlock> oldBlocks,
+			final List<StoredBlock> newBlocks) throws Exception
+	{
+		// the block chain hands them over top first
+		final List<StoredBlock> oldTopFirst = new ArrayList<StoredBlock>(oldBlocks);
+		final List<StoredBlock> newTopFirst = new ArrayList<StoredBlock>(newBlocks);
+		Collections.reverse(oldTopFirst);
+		Collections.reverse(newTopFirst);
+		index.reorganize(splitPoint, oldTopFirst, newTopFirst);
+	}
+
+	private static void assertFound(final BlockIndex index, final List<StoredBlock> blocks)
+	{
+		for (final StoredBlock block : blocks)
+		{
+			final Sha256Hash hash = block.getHeader().getHash();
+			assertEquals(block.getHeight(), index.getHeight(hash));
+
+			final StoredBlock found = index.get(hash);
+			assertNotNull("height " + block.getHeight(), found);
+			assertEquals(block.getHeight(), found.getHeight());
+			assertEquals(block.getChainWork(), found.getChainWork());
+			assertEquals(hash, index.get(block.getHeight()).getHeader().getHash());
+		}
+	}
+
+	private void corruptNonce(final int height) throws Exception
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			final long offset = HEADER_SIZE + (long) height * RECORD_SIZE + 32 + StoredBlock.CHAIN_WORK_BYTES + 4 + 76;
+			raf.seek(offset);
+			final int b = raf.read();
+			raf.seek(offset);
+			raf.write(b ^ 0xff);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private static Sha256Hash hash(final List<StoredBlock> blocks, final int index)
+	{
+		return blocks.get(index).getHeader().getHash();
+	}
+
+	/**
+	 * @return linked blocks on top of the given block, whose merkle roots depend on the given salt
+	 */
+	private static List<StoredBlock> chain(final StoredBlock parent, final int fromHeight, final int n, final int salt)
+	{
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(n);
+		Sha256Hash prev = parent != null ? parent.getHeader().getHash() : Sha256Hash.ZERO_HASH;
+		for (int height = fromHeight; height < fromHeight + n; height++)
+		{
+			final byte[] merkleRoot = new byte[32];
+			merkleRoot[0] = (byte) height;
+			merkleRoot[1] = (byte) (height >> 8);
+			merkleRoot[2] = (byte) (height >> 16);
+			merkleRoot[3] = (byte) salt;
+
+			final Block header = new Block(PARAMS, 2, prev, new Sha256Hash(merkleRoot), 1400000000L + height, EASIEST_DIFFICULTY_TARGET, height,
+					new LinkedList<Transaction>());
+			blocks.add(new StoredBlock(header, BigInteger.valueOf(height + 1), height));
+			prev = header.getHash();
+		}
+		return blocks;
+	}
+}
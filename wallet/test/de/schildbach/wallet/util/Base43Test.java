@@ -20,6 +20,8 @@ package de.schildbach.wallet.util;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Random;
+
 import org.junit.Test;
 
 /**
@@ -50,4 +52,132 @@ public class Base43Test
 
 		assertArrayEquals("Hello World".getBytes(), Base43.decode("RNO2-MYFN0D35RHM"));
 	}
+
+	@Test
+	public void leadingZeros() throws Exception
+	{
+		assertEquals("000", Base43.encode(new byte[3]));
+		assertArrayEquals(new byte[3], Base43.decode("000"));
+
+		assertEquals("005.", Base43.encode(new byte[] { 0x0, 0x0, (byte) 0xff }));
+		assertArrayEquals(new byte[] { 0x0, 0x0, (byte) 0xff }, Base43.decode("005."));
+	}
+
+	@Test
+	public void randomEquivalence() throws Exception
+	{
+		final Random random = new Random(43);
+
+		for (int i = 0; i < 1000; i++)
+			assertEquivalent(random, 64);
+
+		for (int i = 0; i < 20; i++)
+			assertEquivalent(random, 4096);
+	}
+
+	private static void assertEquivalent(final Random random, final int maxLength)
+	{
+		final byte[] bytes = new byte[random.nextInt(maxLength)];
+		random.nextBytes(bytes);
+		for (int z = Math.min(random.nextInt(4), bytes.length); z > 0; z--)
+			bytes[z - 1] = 0;
+
+		final String encoded = referenceEncode(bytes);
+		assertEquals(encoded, Base43.encode(bytes));
+		assertArrayEquals(bytes, Base43.decode(encoded));
+	}
+
+	@Test
+	public void randomDecodeEquivalence() throws Exception
+	{
+		final Random random = new Random(43);
+
+		for (int i = 0; i < 1000; i++)
+		{
+			// strings with leading zeros and non-canonical lengths
+			final StringBuilder str = new StringBuilder();
+			for (int n = random.nextInt(80); n > 0; n--)
+				str.append(ALPHABET.charAt(random.nextInt(random.nextInt(4) == 0 ? 1 : ALPHABET.length())));
+
+			assertArrayEquals(referenceDecode(str.toString()), Base43.decode(str.toString()));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeIllegalCharacter() throws Exception
+	{
+		Base43.decode("RNO2-MYFN0D35RHm");
+	}
+
+	private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$*+-./:";
+
+	// original byte at a time implementation, kept as the reference for the format
+
+	private static String referenceEncode(final byte[] bytes)
+	{
+		final byte[] input = bytes.clone();
+
+		int zeroCount = 0;
+		while (zeroCount < input.length && input[zeroCount] == 0)
+			++zeroCount;
+
+		final StringBuilder str = new StringBuilder();
+		int startAt = zeroCount;
+		while (startAt < input.length)
+		{
+			int remainder = 0;
+			for (int i = startAt; i < input.length; i++)
+			{
+				final int temp = remainder * 256 + (input[i] & 0xFF);
+				input[i] = (byte) (temp / 43);
+				remainder = temp % 43;
+			}
+			if (input[startAt] == 0)
+				++startAt;
+			str.insert(0, ALPHABET.charAt(remainder));
+		}
+
+		while (str.length() > 0 && str.charAt(0) == ALPHABET.charAt(0))
+			str.deleteCharAt(0);
+
+		while (--zeroCount >= 0)
+			str.insert(0, ALPHABET.charAt(0));
+
+		return str.toString();
+	}
+
+	private static byte[] referenceDecode(final String str)
+	{
+		final byte[] input43 = new byte[str.length()];
+		for (int i = 0; i < str.length(); i++)
+			input43[i] = (byte) ALPHABET.indexOf(str.charAt(i));
+
+		int zeroCount = 0;
+		while (zeroCount < input43.length && input43[zeroCount] == 0)
+			++zeroCount;
+
+		final byte[] temp = new byte[input43.length];
+		int j = temp.length;
+		int startAt = zeroCount;
+		while (startAt < input43.length)
+		{
+			int remainder = 0;
+			for (int i = startAt; i < input43.length; i++)
+			{
+				final int t = remainder * 43 + (input43[i] & 0xFF);
+				input43[i] = (byte) (t / 256);
+				remainder = t % 256;
+			}
+			if (input43[startAt] == 0)
+				++startAt;
+			temp[--j] = (byte) remainder;
+		}
+
+		while (j < temp.length && temp[j] == 0)
+			++j;
+
+		final byte[] output = new byte[temp.length - j + zeroCount];
+		System.arraycopy(temp, j, output, zeroCount, temp.length - j);
+		return output;
+	}
 }
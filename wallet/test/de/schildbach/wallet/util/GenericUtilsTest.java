@@ -20,6 +20,7 @@ package de.schildbach.wallet.util;
 import static org.junit.Assert.assertEquals;
 
 import java.math.BigInteger;
+import java.util.Locale;
 
 import org.junit.Test;
 
@@ -30,6 +31,9 @@ import com.google.bitcoin.core.NetworkParameters;
  */
 public class GenericUtilsTest
 {
+	private static final long[] VALUES = new long[] { 0, 1, -1, 10, 100, 499, 500, -500, 1000, 10000, 100000, 1000000, 10000000, 99999999,
+			100000001, 1122334455667788L, -1122334455667788L };
+
 	@Test
 	public void formatValue() throws Exception
 	{
@@ -99,4 +103,172 @@ public class GenericUtilsTest
 
 		assertEquals("21000000000000", GenericUtils.formatValue(NetworkParameters.MAX_MONEY, 2, 6));
 	}
+
+	@Test
+	public void formatValueIntoBuilder() throws Exception
+	{
+		final StringBuilder builder = new StringBuilder("balance: ");
+		GenericUtils.formatValue(builder, 100000000, "+", "-", 2, 6);
+		assertEquals("balance: +1000000", builder.toString());
+
+		final int[][] precisionShifts = new int[][] { { 2, 0 }, { 4, 0 }, { 5, 0 }, { 2, 3 }, { 4, 3 }, { 5, 3 }, { 0, 6 }, { 2, 6 } };
+		for (final long value : VALUES)
+		{
+			for (final int[] precisionShift : precisionShifts)
+			{
+				builder.setLength(0);
+				assertEquals(formatValueWithFormat(value, "+", "-", precisionShift[0], precisionShift[1]),
+						GenericUtils.formatValue(builder, value, "+", "-", precisionShift[0], precisionShift[1]).toString());
+			}
+		}
+	}
+
+	@Test
+	public void formatValueBtcIntoBuilder() throws Exception
+	{
+		final StringBuilder builder = new StringBuilder();
+		final int[][] precisionShifts = new int[][] { { 2, 0 }, { 4, 0 }, { 6, 0 }, { 8, 0 }, { 2, 3 }, { 4, 3 }, { 5, 3 } };
+		for (final long value : VALUES)
+		{
+			for (final int[] precisionShift : precisionShifts)
+			{
+				builder.setLength(0);
+				assertEquals(formatValueBtcWithFormat(value, "+", "-", precisionShift[0], precisionShift[1]),
+						GenericUtils.formatValue_BTC(builder, value, "+", "-", precisionShift[0], precisionShift[1]).toString());
+			}
+		}
+	}
+
+	/**
+	 * The String.format based implementation that the builder variant replaced, kept here as a reference.
+	 */
+	private static String formatValueWithFormat(long longValue, final String plusSign, final String minusSign, final int precision,
+			final int shift)
+	{
+		final int oneBtc = GenericUtils.ONE_BTC.intValue();
+		final int oneMbtc = GenericUtils.ONE_MBTC.intValue();
+		final int oneUbtc = GenericUtils.ONE_UBTC.intValue();
+
+		final String sign = longValue < 0 ? minusSign : plusSign;
+
+		if (shift == 0)
+		{
+			if (precision == 2)
+				longValue = longValue - longValue % 1000 + longValue % 1000 / 500 * 1000;
+			else if (precision == 4)
+				longValue = longValue - longValue % 10 + longValue % 10 / 5 * 10;
+			else if (precision != 5)
+				throw new IllegalArgumentException("cannot handle precision/shift: " + precision + "/" + shift);
+
+			final long absValue = Math.abs(longValue);
+			final long coins = absValue / oneBtc;
+			final int satoshis = (int) (absValue % oneBtc);
+
+			if (satoshis % 1000 == 0)
+				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+			else if (satoshis % 10 == 0)
+				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
+			else
+				return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+		}
+		else if (shift == 3)
+		{
+			if (precision == 2)
+				longValue = longValue - longValue % 1000 + longValue % 1000 / 500 * 1000;
+			else if (precision == 4)
+				longValue = longValue - longValue % 10 + longValue % 10 / 5 * 10;
+			else if (precision != 5)
+				throw new IllegalArgumentException("cannot handle precision/shift: " + precision + "/" + shift);
+
+			final long absValue = Math.abs(longValue);
+			final long coins = absValue / oneMbtc;
+			final int satoshis = (int) (absValue % oneMbtc);
+
+			if (satoshis % 1000 == 0)
+				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+			else if (satoshis % 10 == 0)
+				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
+			else
+				return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+		}
+		else if (shift == 6)
+		{
+			if (precision == 0)
+				longValue = longValue - longValue % 100 + longValue % 100 / 50 * 100;
+			else if (precision != 2)
+				throw new IllegalArgumentException("cannot handle precision/shift: " + precision + "/" + shift);
+
+			final long absValue = Math.abs(longValue);
+			final long coins = absValue / oneUbtc;
+			final int satoshis = (int) (absValue % oneUbtc);
+
+			if (satoshis % 100 == 0)
+				return String.format(Locale.US, "%s%d", sign, coins);
+			else
+				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis);
+		}
+		else
+		{
+			throw new IllegalArgumentException("cannot handle shift: " + shift);
+		}
+	}
+
+	/**
+	 * The String.format based implementation of {@link GenericUtils#formatValue_BTC} that the builder variant replaced,
+	 * kept here as a reference.
+	 */
+	private static String formatValueBtcWithFormat(long longValue, final String plusSign, final String minusSign, final int precision,
+			final int shift)
+	{
+		final String sign = longValue < 0 ? minusSign : plusSign;
+
+		if (shift == 0)
+		{
+			if (precision == 2)
+				longValue = longValue - longValue % 1000000 + longValue % 1000000 / 500000 * 1000000;
+			else if (precision == 4)
+				longValue = longValue - longValue % 10000 + longValue % 10000 / 5000 * 10000;
+			else if (precision == 6)
+				longValue = longValue - longValue % 100 + longValue % 100 / 50 * 100;
+			else if (precision != 8)
+				throw new IllegalArgumentException("cannot handle precision/shift: " + precision + "/" + shift);
+
+			final long absValue = Math.abs(longValue);
+			final long coins = absValue / 100000000;
+			final int satoshis = (int) (absValue % 100000000);
+
+			if (satoshis % 1000000 == 0)
+				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000000);
+			else if (satoshis % 10000 == 0)
+				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10000);
+			else if (satoshis % 100 == 0)
+				return String.format(Locale.US, "%s%d.%06d", sign, coins, satoshis / 100);
+			else
+				return String.format(Locale.US, "%s%d.%08d", sign, coins, satoshis);
+		}
+		else if (shift == 3)
+		{
+			if (precision == 2)
+				longValue = longValue - longValue % 1000 + longValue % 1000 / 500 * 1000;
+			else if (precision == 4)
+				longValue = longValue - longValue % 10 + longValue % 10 / 5 * 10;
+			else if (precision != 5)
+				throw new IllegalArgumentException("cannot handle precision/shift: " + precision + "/" + shift);
+
+			final long absValue = Math.abs(longValue);
+			final long coins = absValue / 100000000;
+			final int satoshis = (int) (absValue % 100000000);
+
+			if (satoshis % 1000 == 0)
+				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+			else if (satoshis % 10 == 0)
+				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
+			else
+				return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+		}
+		else
+		{
+			throw new IllegalArgumentException("cannot handle shift: " + shift);
+		}
+	}
 }
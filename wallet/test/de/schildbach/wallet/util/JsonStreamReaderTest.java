@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class JsonStreamReaderTest
+{
+	@Test
+	public void nested() throws Exception
+	{
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader(
+				" { \"a\" : [1, -2.5e1, \"x\"], \"b\": {\"c\": true, \"d\": null}, \"e\": false } "));
+
+		reader.beginObject();
+		assertEquals("a", reader.nextName());
+		reader.beginArray();
+		assertEquals(1, reader.nextInt());
+		assertEquals(-25.0, reader.nextDouble(), 0);
+		assertEquals("x", reader.nextString());
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		assertEquals("b", reader.nextName());
+		reader.beginObject();
+		assertEquals("c", reader.nextName());
+		assertTrue(reader.nextBoolean());
+		assertEquals("d", reader.nextName());
+		reader.nextNull();
+		reader.endObject();
+		assertEquals("e", reader.nextName());
+		assertFalse(reader.nextBoolean());
+		assertFalse(reader.hasNext());
+		reader.endObject();
+		assertEquals(JsonStreamReader.Token.END_DOCUMENT, reader.peek());
+	}
+
+	@Test
+	public void skipValue() throws Exception
+	{
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader("{\"skip\":{\"x\":[[],{},[1,{\"y\":2}]]},\"keep\":\"v\"}"));
+
+		reader.beginObject();
+		assertEquals("skip", reader.nextName());
+		reader.skipValue();
+		assertEquals("keep", reader.nextName());
+		assertEquals("v", reader.nextString());
+		reader.endObject();
+	}
+
+	@Test
+	public void skipToName() throws Exception
+	{
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader("{\"a\":[1],\"b\":{\"c\":2},\"d\":3}"));
+
+		reader.beginObject();
+		assertTrue(reader.skipToName("d"));
+		assertEquals(3, reader.nextInt());
+		assertFalse(reader.skipToName("e"));
+		reader.endObject();
+	}
+
+	@Test
+	public void escapes() throws Exception
+	{
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader("[\"a\\\"b\\\\c\\/d\\n\\u00e4\"]"));
+
+		reader.beginArray();
+		assertEquals("a\"b\\c/d\n\u00e4", reader.nextString());
+		reader.endArray();
+	}
+
+	@Test
+	public void numbersAsStrings() throws Exception
+	{
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader("[\"12\", \"0.5\", 3.0, 1.25]"));
+
+		reader.beginArray();
+		assertEquals(12, reader.nextLong());
+		assertEquals(0.5, reader.nextDouble(), 0);
+		assertEquals(3, reader.nextInt());
+		assertEquals("1.25", reader.nextString());
+		reader.endArray();
+	}
+
+	@Test
+	public void longDocumentAcrossBuffers() throws Exception
+	{
+		final StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 10000; i++)
+			json.append(i > 0 ? "," : "").append("{\"n\":").append(i).append(",\"s\":\"").append(Integer.toHexString(i)).append("\"}");
+		json.append("]");
+
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader(json.toString()));
+
+		reader.beginArray();
+		for (int i = 0; i < 10000; i++)
+		{
+			reader.beginObject();
+			assertEquals("n", reader.nextName());
+			assertEquals(i, reader.nextInt());
+			assertEquals("s", reader.nextName());
+			assertEquals(Integer.toHexString(i), reader.nextString());
+			reader.endObject();
+		}
+		reader.endArray();
+	}
+
+	@Test(expected = IOException.class)
+	public void unexpectedToken() throws Exception
+	{
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader("[1]"));
+
+		reader.beginObject();
+	}
+
+	@Test(expected = IOException.class)
+	public void malformed() throws Exception
+	{
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader("{\"a\" 1}"));
+
+		reader.beginObject();
+		reader.nextName();
+		reader.nextInt();
+	}
+
+	@Test(expected = IOException.class)
+	public void truncated() throws Exception
+	{
+		final JsonStreamReader reader = new JsonStreamReader(new StringReader("{\"a\":[1,2"));
+
+		reader.beginObject();
+		reader.nextName();
+		reader.skipValue();
+	}
+}
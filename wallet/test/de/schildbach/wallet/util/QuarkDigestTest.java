@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.Utils;
+
+public class QuarkDigestTest
+{
+	// "CHECKPOINTS 1", number of signatures, number of checkpoints
+	private static final int CHECKPOINTS_HEADER_SIZE = 13 + 4 + 4;
+	// chain work, height, header
+	private static final int CHECKPOINT_SIZE = 12 + 4 + Block.HEADER_SIZE;
+
+	@Test
+	public void checkpointsMeetTarget() throws Exception
+	{
+		final byte[] checkpoints = readCheckpoints();
+		final int count = ByteBuffer.wrap(checkpoints, 17, 4).getInt();
+		assertTrue(count > 0);
+		assertEquals(CHECKPOINTS_HEADER_SIZE + count * CHECKPOINT_SIZE, checkpoints.length);
+
+		final QuarkDigest digest = new QuarkDigest();
+		final byte[] hash = new byte[32];
+		for (int i = 0; i < count; i++)
+		{
+			final int offset = CHECKPOINTS_HEADER_SIZE + i * CHECKPOINT_SIZE + 16;
+			digest.digest(checkpoints, offset, Block.HEADER_SIZE, hash, 0);
+
+			final BigInteger target = Utils.decodeCompactBits(Utils.readUint32(checkpoints, offset + 72));
+			assertTrue("checkpoint " + i, new BigInteger(1, Utils.reverseBytes(hash)).compareTo(target) <= 0);
+		}
+	}
+
+	@Test
+	public void bufferMatchesArray() throws Exception
+	{
+		final byte[] checkpoints = readCheckpoints();
+		final QuarkDigest digest = new QuarkDigest();
+
+		final byte[] hash = new byte[32];
+		digest.digest(checkpoints, CHECKPOINTS_HEADER_SIZE + 16, Block.HEADER_SIZE, hash, 0);
+
+		final ByteBuffer buffer = ByteBuffer.allocate(40);
+		buffer.position(8);
+		digest.digest(checkpoints, CHECKPOINTS_HEADER_SIZE + 16, Block.HEADER_SIZE, buffer);
+		assertEquals(40, buffer.position());
+
+		final byte[] bufferHash = new byte[32];
+		buffer.position(8);
+		buffer.get(bufferHash);
+		assertArrayEquals(hash, bufferHash);
+	}
+
+	private static byte[] readCheckpoints() throws Exception
+	{
+		final File file = new File("assets/checkpoints");
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			final byte[] checkpoints = new byte[(int) file.length()];
+			is.readFully(checkpoints);
+			return checkpoints;
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+}